@@ -0,0 +1,98 @@
+package cn.dmlab.benchmarks;
+
+import cn.dmlab.bitxhub.Types;
+import cn.dmlab.utils.ByteUtil;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pb.ArgOuterClass;
+import pb.Transaction;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hex codec of {@link ByteUtil} and the {@link Types} args of a contract call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+
+    private byte[] hash;
+    private String hex;
+    private String hexWithOx;
+    private byte[] payload;
+
+    @Setup
+    public void setUp() {
+        hash = new byte[32];
+        new Random(32).nextBytes(hash);
+        hex = ByteUtil.toHex(hash);
+        hexWithOx = ByteUtil.toHexStringWithOx(hash);
+        payload = invokePayload().toByteArray();
+    }
+
+    @Benchmark
+    public String toHex() {
+        return ByteUtil.toHex(hash);
+    }
+
+    @Benchmark
+    public byte[] fromHex() {
+        return ByteUtil.fromHex(hex);
+    }
+
+    @Benchmark
+    public String toHexStringWithOx() {
+        return ByteUtil.toHexStringWithOx(hash);
+    }
+
+    @Benchmark
+    public byte[] hexStringToBytes() {
+        return ByteUtil.hexStringToBytes(hexWithOx);
+    }
+
+    @Benchmark
+    public ArgOuterClass.Arg[] args() {
+        return new ArgOuterClass.Arg[]{
+                Types.i64(1024L),
+                Types.u32(7),
+                Types.string("appchain1"),
+                Types.bytes(hash),
+                Types.bool(true)
+        };
+    }
+
+    @Benchmark
+    public byte[] encodeInvokePayload() {
+        return invokePayload().toByteArray();
+    }
+
+    @Benchmark
+    public Transaction.InvokePayload decodeInvokePayload() throws InvalidProtocolBufferException {
+        return Transaction.InvokePayload.parseFrom(payload);
+    }
+
+    private Transaction.InvokePayload invokePayload() {
+        return Transaction.InvokePayload.newBuilder()
+                .setMethod("Register")
+                .addArgs(Types.i64(1024L))
+                .addArgs(Types.u32(7))
+                .addArgs(Types.string("appchain1"))
+                .addArgs(Types.bytes(hash))
+                .addArgs(Types.bool(true))
+                .build();
+    }
+}
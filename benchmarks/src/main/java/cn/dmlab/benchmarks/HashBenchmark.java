@@ -0,0 +1,63 @@
+package cn.dmlab.benchmarks;
+
+import cn.dmlab.crypto.HashUtil;
+import cn.dmlab.crypto.cryptohash.Keccak256;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashes of {@link HashUtil} and the {@link Keccak256} digest, by input size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HashBenchmark {
+
+    @Param({"32", "256", "4096"})
+    public int size;
+
+    private byte[] data;
+    private final byte[] out = new byte[HashUtil.HASH_LENGTH];
+
+    @Setup
+    public void setUp() {
+        data = new byte[size];
+        new Random(size).nextBytes(data);
+    }
+
+    @Benchmark
+    public byte[] sha3() {
+        return HashUtil.sha3(data);
+    }
+
+    @Benchmark
+    public byte[] sha3Into() {
+        HashUtil.sha3(data, 0, data.length, out, 0);
+        return out;
+    }
+
+    @Benchmark
+    public byte[] keccak256() {
+        return HashUtil.keccak256(data);
+    }
+
+    @Benchmark
+    public byte[] keccak256Digest() {
+        return new Keccak256().digest(data);
+    }
+}
@@ -0,0 +1,118 @@
+package cn.dmlab.benchmarks;
+
+import cn.dmlab.bitxhub.GrpcClientImpl;
+import cn.dmlab.bitxhub.MockChainBroker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import pb.Broker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end calls of {@link GrpcClientImpl} against a {@link MockChainBroker} in the same
+ * process, so the numbers cover signing, serialization and the grpc stack but no network.
+ * <p>
+ * The in-process transport hands messages of the generated marshallers over as objects, so
+ * {@code getBlocks} does not decode the blocks, {@code getBlocksStreaming} does.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RpcBenchmark {
+
+    private static final int ASYNC_BATCH = 100;
+
+    @State(Scope.Benchmark)
+    public static class Send {
+        MockChainBroker mock;
+        GrpcClientImpl client;
+
+        @Setup
+        public void setUp() {
+            mock = new MockChainBroker().blockInterval(50).start();
+            client = mock.client();
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            client.stop();
+            mock.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Blocks {
+        @Param({"100"})
+        public int blocks;
+
+        @Param({"10"})
+        public int txsPerBlock;
+
+        MockChainBroker mock;
+        GrpcClientImpl client;
+
+        @Setup
+        public void setUp() {
+            mock = new MockChainBroker().start();
+            client = mock.client();
+            for (int i = 1; i < blocks; i++) {
+                List<CompletableFuture<String>> futures = new ArrayList<>();
+                for (int j = 0; j < txsPerBlock; j++) {
+                    futures.add(client.sendTransactionAsync(mock.transfer(), null));
+                }
+                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+                mock.mint();
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws InterruptedException {
+            client.stop();
+            mock.close();
+        }
+    }
+
+    @Benchmark
+    public String sendTransaction(Send state) {
+        return state.client.sendTransaction(state.mock.transfer(), null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ASYNC_BATCH)
+    public void sendTransactionAsync(Send state, Blackhole blackhole) {
+        List<CompletableFuture<String>> futures = new ArrayList<>(ASYNC_BATCH);
+        for (int i = 0; i < ASYNC_BATCH; i++) {
+            futures.add(state.client.sendTransactionAsync(state.mock.transfer(), null));
+        }
+        for (CompletableFuture<String> future : futures) {
+            blackhole.consume(future.join());
+        }
+    }
+
+    @Benchmark
+    public Broker.GetBlocksResponse getBlocks(Blocks state) {
+        return state.client.getBlocks(1L, (long) state.blocks);
+    }
+
+    @Benchmark
+    public long getBlocksStreaming(Blocks state, Blackhole blackhole) {
+        return state.client.getBlocks(1L, (long) state.blocks, blackhole::consume);
+    }
+}
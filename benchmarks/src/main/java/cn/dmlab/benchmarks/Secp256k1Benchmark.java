@@ -0,0 +1,125 @@
+package cn.dmlab.benchmarks;
+
+import cn.dmlab.crypto.HashUtil;
+import cn.dmlab.crypto.ecdsa.ECKeyS256;
+import org.bouncycastle.asn1.x9.X9IntegerConverter;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.crypto.signers.HMacDSAKCalculator;
+import org.bouncycastle.math.ec.ECAlgorithms;
+import org.bouncycastle.math.ec.ECPoint;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * secp256k1 operations of {@link ECKeyS256} against the generic Bouncy Castle path
+ * the client used before, which is kept here as the baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Secp256k1Benchmark {
+
+    private ECKeyS256 key;
+    private byte[] hash;
+    private ECKeyS256.ECDSASignature signature;
+
+    @Setup
+    public void setUp() {
+        key = ECKeyS256.fromPrivate(new BigInteger("b6477143e17f889263044f6cf463dc37177ac4526c4c39a7a344198457024a2f", 16));
+        hash = HashUtil.sha3("secp256k1 benchmark".getBytes());
+        signature = key.sign(hash);
+    }
+
+    @Benchmark
+    public ECKeyS256.ECDSASignature sign() {
+        return key.sign(hash);
+    }
+
+    @Benchmark
+    public ECKeyS256.ECDSASignature signBaseline() {
+        ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
+        signer.init(true, new ECPrivateKeyParameters(key.getPrivKey(), ECKeyS256.CURVE));
+        BigInteger[] components = signer.generateSignature(hash);
+        ECKeyS256.ECDSASignature sig = new ECKeyS256.ECDSASignature(components[0], components[1]).toCanonicalised();
+        byte[] thisKey = key.getPubKey();
+        for (int i = 0; i < 4; i++) {
+            byte[] k = recoverBaseline(i, sig, hash);
+            if (k != null && Arrays.equals(k, thisKey)) {
+                sig.v = (byte) (i + 27);
+                break;
+            }
+        }
+        return sig;
+    }
+
+    @Benchmark
+    public boolean verify() {
+        return ECKeyS256.verify(hash, signature, key.getPubKey());
+    }
+
+    @Benchmark
+    public boolean verifyBaseline() {
+        ECDSASigner signer = new ECDSASigner();
+        signer.init(false, new ECPublicKeyParameters(ECKeyS256.CURVE.getCurve().decodePoint(key.getPubKey()), ECKeyS256.CURVE));
+        return signer.verifySignature(hash, signature.r, signature.s);
+    }
+
+    @Benchmark
+    public byte[] recover() {
+        return ECKeyS256.recoverPubBytesFromSignature(signature.v - 27, signature, hash);
+    }
+
+    @Benchmark
+    public byte[] recoverBaseline() {
+        return recoverBaseline(signature.v - 27, signature, hash);
+    }
+
+    @Benchmark
+    public byte[] publicKeyFromPrivate() {
+        return ECKeyS256.publicKeyFromPrivate(key.getPrivKey(), false);
+    }
+
+    @Benchmark
+    public byte[] publicKeyFromPrivateBaseline() {
+        return ECKeyS256.CURVE.getG().multiply(key.getPrivKey()).getEncoded(false);
+    }
+
+    private static byte[] recoverBaseline(int recId, ECKeyS256.ECDSASignature sig, byte[] messageHash) {
+        BigInteger n = ECKeyS256.CURVE.getN();
+        BigInteger x = sig.r.add(BigInteger.valueOf(recId / 2).multiply(n));
+        if (x.compareTo(ECKeyS256.CURVE.getCurve().getField().getCharacteristic()) >= 0) {
+            return null;
+        }
+        X9IntegerConverter x9 = new X9IntegerConverter();
+        byte[] compEnc = x9.integerToBytes(x, 1 + x9.getByteLength(ECKeyS256.CURVE.getCurve()));
+        compEnc[0] = (byte) ((recId & 1) == 1 ? 0x03 : 0x02);
+        ECPoint R = ECKeyS256.CURVE.getCurve().decodePoint(compEnc);
+        if (!R.multiply(n).isInfinity()) {
+            return null;
+        }
+        BigInteger e = new BigInteger(1, messageHash);
+        BigInteger eInv = BigInteger.ZERO.subtract(e).mod(n);
+        BigInteger rInv = sig.r.modInverse(n);
+        BigInteger srInv = rInv.multiply(sig.s).mod(n);
+        BigInteger eInvrInv = rInv.multiply(eInv).mod(n);
+        return ECAlgorithms.sumOfTwoMultiplies(ECKeyS256.CURVE.getG(), eInvrInv, R, srInv).getEncoded(false);
+    }
+}
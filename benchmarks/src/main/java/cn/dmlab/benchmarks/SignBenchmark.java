@@ -0,0 +1,72 @@
+package cn.dmlab.benchmarks;
+
+import cn.dmlab.crypto.ecdsa.ECKeyS256;
+import cn.dmlab.utils.SignUtils;
+import com.google.protobuf.ByteString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import pb.Transaction;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transaction signing of {@link SignUtils}, one by one and in batches.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SignBenchmark {
+
+    private static final int BATCH = 64;
+
+    private ECKeyS256 key;
+    private Transaction.BxhTransaction tx;
+    private List<Transaction.BxhTransaction> txs;
+
+    @Setup
+    public void setUp() {
+        key = ECKeyS256.fromPrivate(new BigInteger("b6477143e17f889263044f6cf463dc37177ac4526c4c39a7a344198457024a2f", 16));
+        txs = new ArrayList<>();
+        for (int i = 0; i < BATCH; i++) {
+            txs.add(Transaction.BxhTransaction.newBuilder()
+                    .setFrom(ByteString.copyFrom(key.getAddress()))
+                    .setTo(ByteString.copyFrom(new byte[20]))
+                    .setTimestamp(1600000000000000000L + i)
+                    .setNonce(i + 1)
+                    .setPayload(Transaction.TransactionData.newBuilder().setAmount("1").build().toByteString())
+                    .build());
+        }
+        tx = txs.get(0);
+    }
+
+    @Benchmark
+    public byte[] needToHash() {
+        return SignUtils.needToHash(tx);
+    }
+
+    @Benchmark
+    public Transaction.BxhTransaction sign() {
+        return SignUtils.sign(tx, key);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public List<Transaction.BxhTransaction> signAll() {
+        return SignUtils.signAll(txs, key);
+    }
+}
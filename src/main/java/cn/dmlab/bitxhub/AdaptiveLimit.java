@@ -0,0 +1,160 @@
+package cn.dmlab.bitxhub;
+
+import io.grpc.Status;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrency limit that adapts to the load the node takes, with additive increase and
+ * multiplicative decrease (AIMD).
+ * <p>
+ * Every call takes a slot with {@link #acquire()} and gives it back with
+ * {@link #release(long, Throwable)}. While the slots are in use and the latency stays flat,
+ * every success raises the limit by {@code 1 / limit}, so by one per round trip of a full
+ * window. Calls started before the last cut do not raise it. An overload error ({@code RESOURCE_EXHAUSTED},
+ * {@code UNAVAILABLE}, {@code DEADLINE_EXCEEDED}) or a smoothed latency above
+ * {@value #LATENCY_TOLERANCE} times the lowest recent latency cuts the limit to
+ * {@value #BACKOFF_RATIO} of itself. Only calls started after the last cut can cut again, so
+ * one overload costs one cut per round trip instead of one per failed call. Other errors,
+ * like a rejected nonce, leave the limit alone.
+ */
+@Slf4j
+public class AdaptiveLimit {
+
+    public static final int DEFAULT_INITIAL_LIMIT = 20;
+    public static final int DEFAULT_MAX_LIMIT = 1000;
+
+    static final double BACKOFF_RATIO = 0.9;
+    static final double LATENCY_TOLERANCE = 2.0;
+
+    /**
+     * A latency counts as a spike only if it is also this much above the lowest, so the
+     * jitter of sub-millisecond calls does not cut the limit.
+     */
+    static final long MIN_SPIKE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Weight of a new latency in the smoothed latency.
+     */
+    private static final double SMOOTHING = 0.1;
+
+    /**
+     * Samples per window of the lowest latency, the lowest of the last two windows is the
+     * baseline, so it follows the node when it gets slower for good.
+     */
+    static final int BASELINE_WINDOW = 500;
+
+    private final int maxLimit;
+
+    // Guarded by this.
+    private double limit;
+    private int inFlight;
+    private boolean cut;
+    private long lastCut;
+    private double smoothedRtt;
+    private long windowMinRtt = Long.MAX_VALUE;
+    private long previousMinRtt = Long.MAX_VALUE;
+    private int windowSamples;
+
+    public AdaptiveLimit() {
+        this(DEFAULT_INITIAL_LIMIT, DEFAULT_MAX_LIMIT);
+    }
+
+    /**
+     * @param initialLimit limit to start with
+     * @param maxLimit     the limit never grows above it
+     */
+    public AdaptiveLimit(int initialLimit, int maxLimit) {
+        if (initialLimit <= 0 || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("Initial limit must be positive and at most the max limit");
+        }
+        this.limit = initialLimit;
+        this.maxLimit = maxLimit;
+    }
+
+    /**
+     * Take a slot, blocks while all slots are taken.
+     *
+     * @return start of the call, to pass to {@link #release(long, Throwable)}, a call that
+     * starts later passes its own {@link System#nanoTime()} instead
+     */
+    public synchronized long acquire() throws InterruptedException {
+        while (inFlight >= (int) limit) {
+            wait();
+        }
+        inFlight++;
+        return System.nanoTime();
+    }
+
+    /**
+     * Give back the slot of a call and adapt the limit to its outcome.
+     *
+     * @param start what {@link #acquire()} returned
+     * @param error error of the call, null if it succeeded
+     */
+    public synchronized void release(long start, Throwable error) {
+        // the slots in use before this one was given back
+        int used = inFlight--;
+        long rtt = System.nanoTime() - start;
+        if (error != null) {
+            if (isOverload(error)) {
+                cut(start, "overload");
+            }
+        } else {
+            sample(rtt);
+            long baseline = Math.min(windowMinRtt, previousMinRtt);
+            if (smoothedRtt > LATENCY_TOLERANCE * baseline && smoothedRtt - baseline > MIN_SPIKE_NANOS) {
+                cut(start, "latency");
+            } else if (used * 2 >= limit && !(cut && start - lastCut < 0)) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Current limit of calls in flight.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Number of calls in flight.
+     */
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    private void sample(long rtt) {
+        smoothedRtt = smoothedRtt == 0 ? rtt : smoothedRtt * (1 - SMOOTHING) + rtt * SMOOTHING;
+        windowMinRtt = Math.min(windowMinRtt, rtt);
+        if (++windowSamples >= BASELINE_WINDOW) {
+            previousMinRtt = windowMinRtt;
+            windowMinRtt = Long.MAX_VALUE;
+            windowSamples = 0;
+        }
+    }
+
+    private void cut(long start, String reason) {
+        if (cut && start - lastCut < 0) {
+            return;
+        }
+        cut = true;
+        lastCut = System.nanoTime();
+        limit = Math.max(1, limit * BACKOFF_RATIO);
+        log.debug("send limit cut to {} on {}", (int) limit, reason);
+    }
+
+    static boolean isOverload(Throwable error) {
+        switch (Status.fromThrowable(error).getCode()) {
+            case RESOURCE_EXHAUSTED:
+            case UNAVAILABLE:
+            case DEADLINE_EXCEEDED:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package cn.dmlab.bitxhub;
+
+import pb.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking counterpart of {@link GrpcClient}. Every unary RPC of the ChainBroker
+ * service returns a {@link CompletableFuture} instead of parking the caller for the
+ * whole round trip, so a few threads can keep many requests in flight.
+ * <p>
+ * The subscription RPCs ({@code Subscribe}, {@code SubscribeAuditInfo}) are already
+ * callback based, see {@link GrpcClient#subscribe} and {@link GrpcClient#subscribeAuditInfo}.
+ * <p>
+ * Futures are completed on gRPC executor threads, so dependent stages should not block.
+ */
+public interface AsyncGrpcClient {
+
+    /**
+     * Sign and send a transaction to BitXHub asynchronously.
+     * The nonce is resolved the same way as {@link GrpcClient#sendTransaction}.
+     *
+     * @param transaction Unsigned transaction
+     * @param opts        transact options, may be null
+     * @return future of tx hash
+     */
+    CompletableFuture<String> sendTransactionAsync(Transaction.BxhTransaction transaction, TransactOpts opts);
+
+    /**
+     * Send a signed transaction to BitXHub asynchronously.
+     *
+     * @param transaction signed transaction
+     * @return future of tx hash
+     */
+    CompletableFuture<String> sendSignedTransactionAsync(Transaction.BxhTransaction transaction);
+
+    /**
+     * Send tx to chain and complete with its receipt once the tx has been minted.
+     *
+     * @param transaction Unsigned transaction
+     * @param opts        transact options, may be null
+     * @return future of tx receipt
+     */
+    CompletableFuture<ReceiptOuterClass.Receipt> sendTransactionWithReceiptAsync(Transaction.BxhTransaction transaction, TransactOpts opts);
+
+    /**
+     * Send view tx to chain and get the receipt.
+     *
+     * @param transaction signed transaction
+     * @return future of tx receipt
+     */
+    CompletableFuture<ReceiptOuterClass.Receipt> sendViewAsync(Transaction.BxhTransaction transaction);
+
+    /**
+     * Returns the latest nonce of an account in the pending status.
+     *
+     * @param account account address
+     * @return future of pending nonce
+     */
+    CompletableFuture<Long> getPendingNonceByAccountAsync(String account);
+
+    /**
+     * Get the receipt by transaction hash, waiting for the block mint the same
+     * way as {@link GrpcClient#getReceipt}.
+     *
+     * @param hash tx hash
+     * @return future of tx receipt
+     */
+    CompletableFuture<ReceiptOuterClass.Receipt> getReceiptAsync(String hash);
+
+    /**
+     * Get transaction from BitXHub by transaction hash.
+     *
+     * @param hash tx hash
+     * @return future of transaction
+     */
+    CompletableFuture<Broker.GetTransactionResponse> getTransactionAsync(String hash);
+
+    /**
+     * Obtain block information from BitXHub.
+     *
+     * @param value value
+     * @param type  height or hash
+     * @return future of block
+     */
+    CompletableFuture<BlockOuterClass.Block> getBlockAsync(String value, Broker.GetBlockRequest.Type type);
+
+    /**
+     * Get blocks of the specified block height range.
+     *
+     * @param start start signal
+     * @param end   end signal
+     * @return future of blocks info
+     */
+    CompletableFuture<Broker.GetBlocksResponse> getBlocksAsync(Long start, Long end);
+
+    /**
+     * Get blocks of the specified block height range, decoding the response one block at a time.
+     * The consumer runs on a grpc thread while the response is decoded.
+     *
+     * @param start    start signal
+     * @param end      end signal
+     * @param consumer called for every block in order
+     * @return future of the number of blocks
+     */
+    CompletableFuture<Long> getBlocksAsync(Long start, Long end, Consumer<BlockOuterClass.Block> consumer);
+
+    /**
+     * Get happy blocks of the specified block height range.
+     *
+     * @param start start signal
+     * @param end   end signal
+     * @return future of happy blocks info
+     */
+    CompletableFuture<Broker.GetHappyBlocksResponse> getHappyBlocksAsync(Long start, Long end);
+
+    /**
+     * Get happy blocks of the specified block height range, decoding the response one block at a time.
+     * The consumer runs on a grpc thread while the response is decoded.
+     *
+     * @param start    start signal
+     * @param end      end signal
+     * @param consumer called for every happy block in order
+     * @return future of the number of blocks
+     */
+    CompletableFuture<Long> getHappyBlocksAsync(Long start, Long end, Consumer<BlockOuterClass.HappyBlock> consumer);
+
+    /**
+     * Get block headers of the specified block height range.
+     *
+     * @param start start signal
+     * @param end   end signal
+     * @return future of block headers
+     */
+    CompletableFuture<Broker.GetBlockHeadersResponse> getBlockHeadersAsync(Long start, Long end);
+
+    /**
+     * Collect the streamed block headers of {@code GetBlockHeader} into a list.
+     *
+     * @param begin begin signal
+     * @param end   end signal
+     * @return future of block headers in the order they were streamed
+     */
+    CompletableFuture<List<BlockOuterClass.BlockHeader>> getBlockHeaderStreamAsync(Long begin, Long end);
+
+    /**
+     * Collect the streamed interchain tx wrappers of {@code GetInterchainTxWrappers} into a list.
+     *
+     * @param pid   app-chain id.
+     * @param begin begin signal
+     * @param end   end signal
+     * @return future of interchain tx wrappers in the order they were streamed
+     */
+    CompletableFuture<List<Broker.InterchainTxWrappers>> getInterchainTxWrappersAsync(String pid, Long begin, Long end);
+
+    /**
+     * Get the current blockchain situation of BitXHub.
+     *
+     * @return future of chain meta
+     */
+    CompletableFuture<Chain.ChainMeta> getChainMetaAsync();
+
+    /**
+     * Get the status of the blockchain from BitXHub, normal or abnormal.
+     *
+     * @return future of block status
+     */
+    CompletableFuture<Broker.Response> getChainStatusAsync();
+
+    /**
+     * Get the validators from BitXHub.
+     *
+     * @return future of validators
+     */
+    CompletableFuture<Broker.Response> getValidatorsAsync();
+
+    /**
+     * Get the current network situation of BitXHub.
+     *
+     * @return future of network meta
+     */
+    CompletableFuture<Broker.Response> getNetworkMetaAsync();
+
+    /**
+     * Get account balance from BitXHub by address
+     *
+     * @param address account address
+     * @return future of balance
+     */
+    CompletableFuture<Broker.Response> getAccountBalanceAsync(String address);
+
+    /**
+     * Get the MultiSigns from bitXHub
+     *
+     * @param type    multi sign type
+     * @param content content to be signed
+     * @return future of signs keyed by validator address
+     */
+    CompletableFuture<Map<String, String>> getMultiSignsAsync(Broker.GetMultiSignsRequest.Type type, String content);
+
+    /**
+     * Get the BitXHub chain id
+     *
+     * @return future of chain id
+     */
+    CompletableFuture<String> getChainIDAsync();
+
+    /**
+     * Get the BitXHub chain TPS
+     *
+     * @param begin begin block height
+     * @param end   end block height
+     * @return future of tps
+     */
+    CompletableFuture<String> getTPSAsync(long begin, long end);
+
+    /**
+     * Check whether the pier has a master.
+     *
+     * @param address pier address
+     * @return future of check result
+     */
+    CompletableFuture<Broker.Response> checkMasterPierAsync(String address);
+
+    /**
+     * Set the pier as master.
+     *
+     * @param address pier address
+     * @param index   pier index
+     * @param timeout master timeout
+     * @return future of set result
+     */
+    CompletableFuture<Broker.Response> setMasterPierAsync(String address, String index, long timeout);
+
+    /**
+     * Send the heart beat of the master pier.
+     *
+     * @param address pier address
+     * @param index   pier index
+     * @return future of heart beat result
+     */
+    CompletableFuture<Broker.Response> heartBeatAsync(String address, String index);
+}
@@ -0,0 +1,241 @@
+package cn.dmlab.bitxhub;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Publisher that collects the items of another publisher into lists.
+ * <p>
+ * A list is published once it holds {@code maxSize} items, or once its first item is
+ * {@code maxDelay} old, whatever comes first. A list that is due waits for the demand of the
+ * subscriber. Every requested list asks the source for {@code maxSize} items, so at most
+ * {@code maxSize} items per requested list are buffered.
+ *
+ * @param <T> item type
+ */
+public class BatchingPublisher<T> implements Publisher<List<T>> {
+    private final Publisher<T> source;
+    private final int maxSize;
+    private final long maxDelayMillis;
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param source         publisher of the items
+     * @param maxSize        max number of items in a list
+     * @param maxDelayMillis max age of the first item of a list before the list is due
+     * @param scheduler      runs the timers of the lists
+     */
+    public BatchingPublisher(Publisher<T> source, int maxSize, long maxDelayMillis, ScheduledExecutorService scheduler) {
+        if (maxSize <= 0 || maxDelayMillis <= 0) {
+            throw new IllegalArgumentException("Max size and max delay must be positive");
+        }
+        this.source = source;
+        this.maxSize = maxSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.scheduler = scheduler;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super List<T>> subscriber) {
+        Objects.requireNonNull(subscriber, "Subscriber must not be null");
+        source.subscribe(new Batcher(subscriber));
+    }
+
+    private class Batcher implements Subscriber<T>, Subscription {
+        private final Subscriber<? super List<T>> downstream;
+        private final AtomicInteger wip = new AtomicInteger();
+        private Subscription upstream;
+
+        // Guarded by this.
+        private List<T> buffer = new ArrayList<>();
+        private final List<List<T>> due = new ArrayList<>();
+        private long demand;
+        private long outstanding;
+        private ScheduledFuture<?> timer;
+
+        private volatile boolean done;
+        private volatile Throwable error;
+        private volatile boolean cancelled;
+
+        Batcher(Subscriber<? super List<T>> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            if (upstream != null) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+            downstream.onSubscribe(this);
+        }
+
+        @Override
+        public void onNext(T item) {
+            synchronized (this) {
+                outstanding--;
+                buffer.add(item);
+                if (buffer.size() >= maxSize) {
+                    cut();
+                } else if (buffer.size() == 1) {
+                    List<T> batch = buffer;
+                    timer = scheduler.schedule(() -> expire(batch), maxDelayMillis, TimeUnit.MILLISECONDS);
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                error = t;
+                done = true;
+            }
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                if (!buffer.isEmpty()) {
+                    cut();
+                }
+                done = true;
+            }
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                onError(new IllegalArgumentException("Request must be positive, rule 3.9"));
+                upstream.cancel();
+                return;
+            }
+            long ask;
+            synchronized (this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                ask = wanted();
+            }
+            if (ask > 0) {
+                upstream.request(ask);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                upstream.cancel();
+                synchronized (this) {
+                    if (timer != null) {
+                        timer.cancel(false);
+                    }
+                }
+            }
+        }
+
+        private void expire(List<T> batch) {
+            synchronized (this) {
+                if (buffer != batch) {
+                    return;
+                }
+                cut();
+            }
+            drain();
+        }
+
+        /**
+         * Move the buffer to the due lists.
+         */
+        private void cut() {
+            due.add(buffer);
+            buffer = new ArrayList<>();
+            if (timer != null) {
+                timer.cancel(false);
+                timer = null;
+            }
+        }
+
+        /**
+         * Number of items to ask the source for: maxSize for every requested list that is not
+         * due yet, less what is buffered or asked for already.
+         */
+        private long wanted() {
+            long lists = demand - due.size();
+            if (lists <= 0) {
+                return 0;
+            }
+            long items = lists > Long.MAX_VALUE / maxSize ? Long.MAX_VALUE : lists * maxSize;
+            long ask = items - buffer.size() - outstanding;
+            if (ask <= 0) {
+                return 0;
+            }
+            outstanding += ask;
+            if (outstanding < 0) {
+                outstanding = Long.MAX_VALUE;
+            }
+            return ask;
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                while (!cancelled) {
+                    List<T> batch;
+                    long ask;
+                    synchronized (this) {
+                        if (demand == 0 || due.isEmpty()) {
+                            break;
+                        }
+                        batch = due.remove(0);
+                        if (demand != Long.MAX_VALUE) {
+                            demand--;
+                        }
+                        ask = wanted();
+                    }
+                    downstream.onNext(batch);
+                    if (ask > 0) {
+                        upstream.request(ask);
+                    }
+                }
+                if (!cancelled && done) {
+                    boolean empty;
+                    synchronized (this) {
+                        empty = due.isEmpty();
+                    }
+                    if (empty || error != null) {
+                        cancelled = true;
+                        Throwable t = error;
+                        if (t == null) {
+                            downstream.onComplete();
+                        } else {
+                            downstream.onError(t);
+                        }
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package cn.dmlab.bitxhub;
+
+import io.grpc.Status;
+import lombok.extern.slf4j.Slf4j;
+import pb.BlockOuterClass;
+import pb.Broker;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/**
+ * Sync a range of blocks with concurrent {@code GetBlocks} calls.
+ * <p>
+ * The range is cut into chunks that are fetched over the async stub, at most {@code window}
+ * chunks at a time. Chunks are handed to the consumer in height order on the calling thread,
+ * a chunk that arrives early waits in the window until the ones before it are consumed. New
+ * chunks are only requested when the consumer made room, so a slow consumer slows the sync
+ * down instead of piling up blocks in memory. The rest of a partial answer, the halves of a
+ * split chunk and retries go before the chunks not requested yet, and wait for a slot in the
+ * window like them. The blocks must come in consecutive heights.
+ * <p>
+ * The chunk size tunes itself after every chunk: it aims at responses of about
+ * {@link #TARGET_BYTES} that come back within {@link #TARGET_LATENCY_MILLIS}, and it never
+ * more than doubles at once. A chunk rejected as too large is split in two.
+ */
+@Slf4j
+public class BlockSyncer {
+
+    static final int DEFAULT_WINDOW = 4;
+    static final int INITIAL_CHUNK = 16;
+    static final int MAX_CHUNK = 1000;
+
+    /**
+     * Size of a chunk response to aim at, half the default inbound message limit of grpc.
+     */
+    static final long TARGET_BYTES = 2L << 20;
+
+    static final long TARGET_LATENCY_MILLIS = 1000;
+
+    /**
+     * Attempts of a chunk before the sync fails.
+     */
+    static final int MAX_ATTEMPTS = 3;
+
+    private final BiFunction<Long, Long, CompletableFuture<Broker.GetBlocksResponse>> fetcher;
+    private final int window;
+    private volatile int chunkSize = INITIAL_CHUNK;
+
+    public BlockSyncer(AsyncGrpcClient client) {
+        this(client, DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param client client to fetch blocks with
+     * @param window max number of chunks in flight or waiting for the consumer
+     */
+    public BlockSyncer(AsyncGrpcClient client, int window) {
+        this(client::getBlocksAsync, window);
+    }
+
+    BlockSyncer(BiFunction<Long, Long, CompletableFuture<Broker.GetBlocksResponse>> fetcher, int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Window must be positive");
+        }
+        this.fetcher = fetcher;
+        this.window = window;
+    }
+
+    /**
+     * Current chunk size in blocks, it carries over to the next sync.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Fetch the blocks of [start, end] and hand them to the consumer in height order.
+     * The sync stops early when the node returns no blocks for a chunk, i.e. at the chain head.
+     *
+     * @param start    first height
+     * @param end      last height
+     * @param consumer called for every block on the calling thread
+     * @return height of the last block consumed, start - 1 if there was none
+     */
+    public long sync(long start, long end, Consumer<BlockOuterClass.Block> consumer) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException("Invalid block range [" + start + ", " + end + "]");
+        }
+        // in height order, the first ones are requested
+        Deque<Chunk> chunks = new ArrayDeque<>(window);
+        long next = start;
+        long last = start - 1;
+        try {
+            while (true) {
+                int requested = 0;
+                for (Chunk chunk : chunks) {
+                    if (chunk.call != null) {
+                        requested++;
+                    }
+                }
+                for (Chunk chunk : chunks) {
+                    if (requested == window) {
+                        break;
+                    }
+                    if (chunk.call == null) {
+                        request(chunk);
+                        requested++;
+                    }
+                }
+                while (requested < window && next <= end) {
+                    long to = Math.min(end, next + chunkSize - 1);
+                    chunks.addLast(request(new Chunk(next, to, 1)));
+                    next = to + 1;
+                    requested++;
+                }
+                Chunk chunk = chunks.pollFirst();
+                if (chunk == null) {
+                    return last;
+                }
+                if (chunk.call == null) {
+                    request(chunk);
+                }
+
+                Broker.GetBlocksResponse response;
+                try {
+                    response = chunk.future.get();
+                } catch (ExecutionException e) {
+                    retry(chunks, chunk, e.getCause());
+                    continue;
+                }
+                tune(chunk, response);
+
+                if (response.getBlocksCount() == 0) {
+                    log.info("no block from height {}, stop syncing", chunk.start);
+                    return last;
+                }
+                for (BlockOuterClass.Block block : response.getBlocksList()) {
+                    long height = block.getBlockHeader().getNumber();
+                    if (height > chunk.end) {
+                        break;
+                    }
+                    if (height != last + 1) {
+                        throw new IllegalStateException("Block " + height + " does not follow block " + last);
+                    }
+                    consumer.accept(block);
+                    last = height;
+                }
+                if (last < chunk.end) {
+                    // the node returned part of the chunk, the rest goes first
+                    chunks.addFirst(new Chunk(last + 1, chunk.end, 1));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while syncing blocks from " + start, e);
+        } finally {
+            for (Chunk chunk : chunks) {
+                if (chunk.call != null) {
+                    chunk.call.cancel(true);
+                }
+            }
+        }
+    }
+
+    private Chunk request(Chunk chunk) {
+        long startNanos = System.nanoTime();
+        chunk.call = fetcher.apply(chunk.start, chunk.end);
+        chunk.future = chunk.call.whenComplete((response, e) -> chunk.nanos = System.nanoTime() - startNanos);
+        return chunk;
+    }
+
+    private void retry(Deque<Chunk> chunks, Chunk chunk, Throwable cause) {
+        Status.Code code = Status.fromThrowable(cause).getCode();
+        if (code == Status.Code.RESOURCE_EXHAUSTED && chunk.size() > 1) {
+            long mid = chunk.start + chunk.size() / 2;
+            chunkSize = (int) Math.max(1, chunk.size() / 2);
+            log.warn("blocks [{}, {}] are too large, split the chunk", chunk.start, chunk.end);
+            chunks.addFirst(new Chunk(mid, chunk.end, 1));
+            chunks.addFirst(new Chunk(chunk.start, mid - 1, 1));
+            return;
+        }
+        if (chunk.attempt < MAX_ATTEMPTS && code != Status.Code.INVALID_ARGUMENT) {
+            log.warn("fetch blocks [{}, {}] failed, attempt {}: {}", chunk.start, chunk.end, chunk.attempt, cause.getMessage());
+            chunks.addFirst(new Chunk(chunk.start, chunk.end, chunk.attempt + 1));
+            return;
+        }
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        throw new RuntimeException(cause.getMessage(), cause);
+    }
+
+    private void tune(Chunk chunk, Broker.GetBlocksResponse response) {
+        int count = response.getBlocksCount();
+        if (count == 0) {
+            return;
+        }
+        double bySize = (double) TARGET_BYTES * count / Math.max(1, response.getSerializedSize());
+        double byLatency = (double) TimeUnit.MILLISECONDS.toNanos(TARGET_LATENCY_MILLIS) * count / Math.max(1, chunk.nanos);
+        int current = chunkSize;
+        double target = Math.min(Math.min(bySize, byLatency), current * 2.0);
+        chunkSize = (int) Math.max(1, Math.min(MAX_CHUNK, target));
+    }
+
+    private static class Chunk {
+        private final long start;
+        private final long end;
+        private final int attempt;
+        private volatile long nanos;
+        // null until the chunk is requested
+        private CompletableFuture<Broker.GetBlocksResponse> call;
+        private CompletableFuture<Broker.GetBlocksResponse> future;
+
+        Chunk(long start, long end, int attempt) {
+            this.start = start;
+            this.end = end;
+            this.attempt = attempt;
+        }
+
+        long size() {
+            return end - start + 1;
+        }
+    }
+}
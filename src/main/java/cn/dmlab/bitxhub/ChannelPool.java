@@ -0,0 +1,122 @@
+package cn.dmlab.bitxhub;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A channel that spreads calls over several connections to the same node.
+ * <p>
+ * Every call goes to the channel with the fewest calls in flight, ties are broken round-robin.
+ * A call is in flight from its start until it is closed, so a long stream keeps its channel
+ * loaded and later unary calls move to the others.
+ */
+class ChannelPool extends Channel {
+    private final List<ManagedChannel> channels;
+    private final AtomicIntegerArray inFlight;
+    private final AtomicInteger next = new AtomicInteger();
+
+    ChannelPool(List<ManagedChannel> channels) {
+        if (channels.isEmpty()) {
+            throw new IllegalArgumentException("channel pool must not be empty");
+        }
+        this.channels = new ArrayList<>(channels);
+        this.inFlight = new AtomicIntegerArray(channels.size());
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions) {
+        int index = select();
+        return new CountingCall<>(channels.get(index).newCall(method, callOptions), index);
+    }
+
+    @Override
+    public String authority() {
+        return channels.get(0).authority();
+    }
+
+    int size() {
+        return channels.size();
+    }
+
+    /**
+     * Number of calls in flight on the channel at the index.
+     */
+    int inFlight(int index) {
+        return inFlight.get(index);
+    }
+
+    private int select() {
+        int size = channels.size();
+        if (size == 1) {
+            return 0;
+        }
+        int start = Math.floorMod(next.getAndIncrement(), size);
+        int best = start;
+        int bestInFlight = inFlight.get(start);
+        for (int i = 1; i < size && bestInFlight > 0; i++) {
+            int index = (start + i) % size;
+            int count = inFlight.get(index);
+            if (count < bestInFlight) {
+                best = index;
+                bestInFlight = count;
+            }
+        }
+        return best;
+    }
+
+    void shutdown() {
+        for (ManagedChannel channel : channels) {
+            channel.shutdown();
+        }
+    }
+
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ManagedChannel channel : channels) {
+            long remaining = deadline - System.nanoTime();
+            if (!channel.awaitTermination(Math.max(remaining, 0), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private class CountingCall<ReqT, RespT> extends ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT> {
+        private final int index;
+
+        CountingCall(ClientCall<ReqT, RespT> delegate, int index) {
+            super(delegate);
+            this.index = index;
+        }
+
+        @Override
+        public void start(Listener<RespT> responseListener, Metadata headers) {
+            inFlight.incrementAndGet(index);
+            try {
+                super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(responseListener) {
+                    @Override
+                    public void onClose(Status status, Metadata trailers) {
+                        inFlight.decrementAndGet(index);
+                        super.onClose(status, trailers);
+                    }
+                }, headers);
+            } catch (RuntimeException e) {
+                inFlight.decrementAndGet(index);
+                throw e;
+            }
+        }
+    }
+}
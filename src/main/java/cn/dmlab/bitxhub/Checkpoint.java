@@ -0,0 +1,17 @@
+package cn.dmlab.bitxhub;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Position of a sync stream: the last fully processed height and the hash that identifies
+ * the item at that height, empty if the stream has none.
+ */
+@AllArgsConstructor
+@NoArgsConstructor
+@Data
+public class Checkpoint {
+    private long height;
+    private byte[] hash;
+}
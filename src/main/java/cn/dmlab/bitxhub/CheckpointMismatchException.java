@@ -0,0 +1,19 @@
+package cn.dmlab.bitxhub;
+
+import lombok.Getter;
+
+/**
+ * The chain no longer matches the checkpoint of a sync stream, the blocks behind the
+ * checkpoint were replaced.
+ */
+@Getter
+public class CheckpointMismatchException extends RuntimeException {
+    private final String stream;
+    private final long height;
+
+    public CheckpointMismatchException(String stream, long height, String message) {
+        super(message);
+        this.stream = stream;
+        this.height = height;
+    }
+}
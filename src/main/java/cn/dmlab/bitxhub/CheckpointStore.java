@@ -0,0 +1,37 @@
+package cn.dmlab.bitxhub;
+
+import java.io.Closeable;
+
+/**
+ * Storage of the checkpoints of sync streams, keyed by stream name.
+ */
+public interface CheckpointStore extends Closeable {
+
+    /**
+     * Load the checkpoint of the stream.
+     *
+     * @param stream stream name
+     * @return checkpoint, or null if the stream never saved one
+     */
+    Checkpoint load(String stream);
+
+    /**
+     * Save the checkpoint of the stream, it may only become durable on the next flush.
+     *
+     * @param stream     stream name
+     * @param checkpoint checkpoint
+     */
+    void save(String stream, Checkpoint checkpoint);
+
+    /**
+     * Make every saved checkpoint durable.
+     */
+    void flush();
+
+    /**
+     * Forget the checkpoint of the stream, e.g. to resync after a fork.
+     *
+     * @param stream stream name
+     */
+    void remove(String stream);
+}
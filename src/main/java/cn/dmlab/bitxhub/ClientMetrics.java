@@ -0,0 +1,307 @@
+package cn.dmlab.bitxhub;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ClientStreamTracer;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Interceptor that records metrics of every call, by method.
+ * <p>
+ * Per method it counts the calls and their status codes, the calls in flight, and keeps
+ * histograms of the latency and of the request and response message sizes. The latency of a
+ * stream is its whole lifetime. Message sizes are reported by the transport, the in-process
+ * transport does not report them.
+ * <p>
+ * Recording is lock-free and only allocates the wrappers of the call, the metrics of a
+ * method are created on its first call. {@link GrpcClientImpl} always installs it, see
+ * {@link GrpcClientImpl#getMetrics()}.
+ */
+@Slf4j
+public class ClientMetrics implements ClientInterceptor, ClientMetricsMXBean {
+
+    private static final Status.Code[] CODES = Status.Code.values();
+
+    private final ConcurrentMap<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private volatile ObjectName objectName;
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method,
+                                                               CallOptions callOptions, Channel next) {
+        MethodMetrics metrics = methods.get(method.getFullMethodName());
+        if (metrics == null) {
+            metrics = methods.computeIfAbsent(method.getFullMethodName(), MethodMetrics::new);
+        }
+        return new MeteredCall<>(next.newCall(method, callOptions.withStreamTracerFactory(metrics.tracerFactory)), metrics);
+    }
+
+    /**
+     * Metrics of every method called so far, by method name like {@code SendTransaction}.
+     */
+    public Map<String, MethodSnapshot> snapshot() {
+        Map<String, MethodSnapshot> snapshot = new TreeMap<>();
+        for (MethodMetrics metrics : methods.values()) {
+            MethodSnapshot method = metrics.snapshot();
+            snapshot.put(method.getMethod(), method);
+        }
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * Metrics of a method, null if it was not called yet.
+     *
+     * @param method method name like {@code SendTransaction}
+     */
+    public MethodSnapshot snapshot(String method) {
+        return snapshot().get(method);
+    }
+
+    @Override
+    public Map<String, MethodSnapshot> getMethods() {
+        return snapshot();
+    }
+
+    /**
+     * Publish a value of the client next to the call metrics, like the send limit.
+     *
+     * @param name  name of the value
+     * @param gauge reads the current value
+     */
+    public void gauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongSupplier> entry : gauges.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().getAsLong());
+        }
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Register the metrics with the platform MBean server as
+     * {@code cn.dmlab.bitxhub:type=ClientMetrics,name=<name>}.
+     *
+     * @param name name of the client, unique in the JVM
+     * @return the object name
+     */
+    public synchronized ObjectName registerMBean(String name) {
+        if (objectName != null) {
+            throw new IllegalStateException("Metrics are already registered as " + objectName);
+        }
+        try {
+            ObjectName on = new ObjectName("cn.dmlab.bitxhub:type=ClientMetrics,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+            objectName = on;
+            return on;
+        } catch (JMException e) {
+            throw new IllegalStateException("Register client metrics failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Remove the registration of {@link #registerMBean(String)}, if any.
+     */
+    public synchronized void unregisterMBean() {
+        if (objectName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            log.warn("unregister client metrics {} failed: {}", objectName, e.getMessage());
+        }
+        objectName = null;
+    }
+
+    private static class MethodMetrics {
+        private final String name;
+        private final LongAdder calls = new LongAdder();
+        private final AtomicLong inFlight = new AtomicLong();
+        private final AtomicLongArray codes = new AtomicLongArray(CODES.length);
+        private final Histogram latencyNanos = new Histogram();
+        private final Histogram requestBytes = new Histogram();
+        private final Histogram responseBytes = new Histogram();
+
+        // Holds no state of a stream, so one instance serves all of them.
+        private final ClientStreamTracer tracer = new ClientStreamTracer() {
+            @Override
+            public void outboundMessageSent(int seqNo, long optionalWireSize, long optionalUncompressedSize) {
+                recordSize(requestBytes, optionalWireSize, optionalUncompressedSize);
+            }
+
+            @Override
+            public void inboundMessageRead(int seqNo, long optionalWireSize, long optionalUncompressedSize) {
+                recordSize(responseBytes, optionalWireSize, optionalUncompressedSize);
+            }
+        };
+
+        private final ClientStreamTracer.Factory tracerFactory = new ClientStreamTracer.Factory() {
+            @Override
+            public ClientStreamTracer newClientStreamTracer(ClientStreamTracer.StreamInfo info, Metadata headers) {
+                return tracer;
+            }
+        };
+
+        MethodMetrics(String fullMethodName) {
+            int slash = fullMethodName.lastIndexOf('/');
+            this.name = fullMethodName.substring(slash + 1);
+        }
+
+        /**
+         * Netty only reports the wire size of inbound messages, which is the same unless the
+         * message is compressed. The in-process transport reports neither.
+         */
+        private static void recordSize(Histogram histogram, long wireSize, long uncompressedSize) {
+            long size = uncompressedSize >= 0 ? uncompressedSize : wireSize;
+            if (size >= 0) {
+                histogram.record(size);
+            }
+        }
+
+        void started() {
+            calls.increment();
+            inFlight.incrementAndGet();
+        }
+
+        void closed(Status.Code code, long nanos) {
+            inFlight.decrementAndGet();
+            codes.incrementAndGet(code.ordinal());
+            latencyNanos.record(nanos);
+        }
+
+        MethodSnapshot snapshot() {
+            Map<String, Long> errors = new TreeMap<>();
+            for (Status.Code code : CODES) {
+                long count = codes.get(code.ordinal());
+                if (code != Status.Code.OK && count > 0) {
+                    errors.put(code.name(), count);
+                }
+            }
+            return new MethodSnapshot(name, calls.sum(), inFlight.get(), errors,
+                    latencyNanos.snapshot(), requestBytes.snapshot(), responseBytes.snapshot());
+        }
+    }
+
+    private static class MeteredCall<ReqT, RespT> extends ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT> {
+        private final MethodMetrics metrics;
+
+        MeteredCall(ClientCall<ReqT, RespT> delegate, MethodMetrics metrics) {
+            super(delegate);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void start(Listener<RespT> responseListener, Metadata headers) {
+            long begin = System.nanoTime();
+            metrics.started();
+            try {
+                super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(responseListener) {
+                    @Override
+                    public void onClose(Status status, Metadata trailers) {
+                        metrics.closed(status.getCode(), System.nanoTime() - begin);
+                        super.onClose(status, trailers);
+                    }
+                }, headers);
+            } catch (RuntimeException e) {
+                metrics.closed(Status.fromThrowable(e).getCode(), System.nanoTime() - begin);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Metrics of one method at one point in time.
+     */
+    public static class MethodSnapshot {
+        private final String method;
+        private final long calls;
+        private final long inFlight;
+        private final Map<String, Long> errors;
+        private final Histogram.Snapshot latencyNanos;
+        private final Histogram.Snapshot requestBytes;
+        private final Histogram.Snapshot responseBytes;
+
+        MethodSnapshot(String method, long calls, long inFlight, Map<String, Long> errors,
+                       Histogram.Snapshot latencyNanos, Histogram.Snapshot requestBytes, Histogram.Snapshot responseBytes) {
+            this.method = method;
+            this.calls = calls;
+            this.inFlight = inFlight;
+            this.errors = Collections.unmodifiableMap(errors);
+            this.latencyNanos = latencyNanos;
+            this.requestBytes = requestBytes;
+            this.responseBytes = responseBytes;
+        }
+
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * Calls started.
+         */
+        public long getCalls() {
+            return calls;
+        }
+
+        /**
+         * Calls started and not closed yet.
+         */
+        public long getInFlight() {
+            return inFlight;
+        }
+
+        /**
+         * Number of calls closed with a status other than OK, by status code name.
+         */
+        public Map<String, Long> getErrors() {
+            return errors;
+        }
+
+        /**
+         * Time from start to close of the closed calls.
+         */
+        public Histogram.Snapshot getLatencyNanos() {
+            return latencyNanos;
+        }
+
+        /**
+         * Size of every request message.
+         */
+        public Histogram.Snapshot getRequestBytes() {
+            return requestBytes;
+        }
+
+        /**
+         * Size of every response message.
+         */
+        public Histogram.Snapshot getResponseBytes() {
+            return responseBytes;
+        }
+    }
+}
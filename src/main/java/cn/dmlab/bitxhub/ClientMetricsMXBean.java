@@ -0,0 +1,19 @@
+package cn.dmlab.bitxhub;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link ClientMetrics}, see {@link ClientMetrics#registerMBean(String)}.
+ */
+public interface ClientMetricsMXBean {
+
+    /**
+     * Metrics of every method called so far, by method name.
+     */
+    Map<String, ClientMetrics.MethodSnapshot> getMethods();
+
+    /**
+     * Current values of the client, like the send limit.
+     */
+    Map<String, Long> getGauges();
+}
@@ -2,6 +2,8 @@ package cn.dmlab.bitxhub;
 
 import cn.dmlab.crypto.ecdsa.ECKeyS256;
 import com.google.common.base.Strings;
+import com.google.common.net.HostAndPort;
+import io.grpc.ManagedChannel;
 import io.grpc.netty.GrpcSslContexts;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
@@ -12,6 +14,9 @@ import lombok.NoArgsConstructor;
 
 import javax.net.ssl.SSLException;
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
 
 @AllArgsConstructor
 @NoArgsConstructor
@@ -21,15 +26,111 @@ public class Config {
     private String host;
     private Integer port;
 
+    /**
+     * Nodes to connect to as {@code host:port}, if set they are used instead of host and port.
+     */
+    private List<String> endpoints;
+
     private ECKeyS256 ecKey;
     private SslContext sslContext;
 
     private Boolean accessSwitch;
 
+    /**
+     * How long to wait for the receipt of a transaction, in milliseconds.
+     */
+    @Builder.Default
+    private Long receiptTimeout = 10000L;
+
+    /**
+     * Number of connections opened to the node, calls go to the one with the fewest in flight.
+     */
+    @Builder.Default
+    private Integer channelPoolSize = 1;
+
+    /**
+     * How often the nodes are probed when there are several endpoints, in milliseconds.
+     */
+    @Builder.Default
+    private Long probeInterval = 3000L;
+
+    /**
+     * Adapt the number of SendTransaction calls in flight to the load the node takes, see
+     * {@link AdaptiveLimit}. Sends block while the limit is reached.
+     */
+    @Builder.Default
+    private Boolean adaptiveSendLimit = false;
+
+    /**
+     * Directory of a {@link TransactionOutbox}, if set every signed transaction is logged there
+     * before it is sent, see {@link GrpcClientImpl#recoverOutbox()}.
+     */
+    private String outboxDir;
+
+    /**
+     * How often the blocks are checked for the transactions of the outbox, in milliseconds.
+     */
+    @Builder.Default
+    private Long outboxCheckInterval = 1000L;
+
+    /**
+     * Opens the connection to a node, if set it is used instead of a plaintext or TLS channel,
+     * e.g. to connect to an in-process server.
+     */
+    private Function<HostAndPort, ManagedChannel> channelFactory;
+
+    /**
+     * Config of a single node, the other settings keep their defaults.
+     */
+    public Config(String host, Integer port, ECKeyS256 ecKey, SslContext sslContext, Boolean accessSwitch) {
+        this();
+        this.host = host;
+        this.port = port;
+        this.ecKey = ecKey;
+        this.sslContext = sslContext;
+        this.accessSwitch = accessSwitch;
+    }
+
     public void checkConfig() {
-        if (Strings.isNullOrEmpty(host) || port == null) {
-            throw new RuntimeException("address or port is empty");
+        if (endpoints == null || endpoints.isEmpty()) {
+            if (Strings.isNullOrEmpty(host) || port == null) {
+                throw new RuntimeException("address or port is empty");
+            }
+        } else {
+            for (String endpoint : endpoints) {
+                HostAndPort hostAndPort = HostAndPort.fromString(endpoint);
+                if (Strings.isNullOrEmpty(hostAndPort.getHost()) || !hostAndPort.hasPort()) {
+                    throw new RuntimeException("endpoint must be host:port: " + endpoint);
+                }
+            }
+        }
+        if (receiptTimeout == null || receiptTimeout <= 0) {
+            throw new RuntimeException("receipt timeout must be positive");
+        }
+        if (channelPoolSize == null || channelPoolSize <= 0) {
+            throw new RuntimeException("channel pool size must be positive");
+        }
+        if (probeInterval == null || probeInterval <= 0) {
+            throw new RuntimeException("probe interval must be positive");
+        }
+        if (outboxCheckInterval == null || outboxCheckInterval <= 0) {
+            throw new RuntimeException("outbox check interval must be positive");
+        }
+    }
+
+    /**
+     * Nodes to connect to, the endpoints if set, otherwise host and port.
+     */
+    public List<HostAndPort> targets() {
+        List<HostAndPort> targets = new ArrayList<>();
+        if (endpoints == null || endpoints.isEmpty()) {
+            targets.add(HostAndPort.fromParts(host, port));
+        } else {
+            for (String endpoint : endpoints) {
+                targets.add(HostAndPort.fromString(endpoint));
+            }
         }
+        return targets;
     }
 
     public byte[] getAddress() {
@@ -43,7 +144,12 @@ public class Config {
         String host = "localhost";
         Integer port = 60011;
         ECKeyS256 ecKey = new ECKeyS256();
-        return new Config(host, port, ecKey, null, true);
+        return Config.builder()
+                .host(host)
+                .port(port)
+                .ecKey(ecKey)
+                .accessSwitch(true)
+                .build();
     }
 
     /**
@@ -57,11 +163,15 @@ public class Config {
         byte[] address = ecKey.getAddress();
 
         // privKey need convert to pkcs8
-        return new Config(host, port, ecKey,
-                buildSslContext(Config.class.getClassLoader().getResource("agency.cert").getPath(),
+        return Config.builder()
+                .host(host)
+                .port(port)
+                .ecKey(ecKey)
+                .sslContext(buildSslContext(Config.class.getClassLoader().getResource("agency.cert").getPath(),
                         Config.class.getClassLoader().getResource("gateway.cert").getPath(),
-                        Config.class.getClassLoader().getResource("gateway.priv").getPath()),
-                true);
+                        Config.class.getClassLoader().getResource("gateway.priv").getPath()))
+                .accessSwitch(true)
+                .build();
     }
 
     /**
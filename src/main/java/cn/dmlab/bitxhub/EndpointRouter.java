@@ -0,0 +1,332 @@
+package cn.dmlab.bitxhub;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import lombok.extern.slf4j.Slf4j;
+import pb.Broker;
+import pb.ChainBrokerGrpc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A channel that routes calls over the channel pools of several nodes.
+ * <p>
+ * Calls go to the cheaper of two random healthy nodes (power of two choices). The cost of a
+ * node is its latency times its calls in flight plus one, where the latency is an
+ * exponentially weighted moving average over successful unary calls and {@code GetChainMeta}
+ * probes. Calls fetching block ranges are left out of the average, their latency grows with
+ * the range and says little about the node. Calls that carry an
+ * {@link #ACCOUNT} option stick to one node per account, so the transactions of an account
+ * reach the same node in the order they were sent; they only move when that node turns
+ * unhealthy.
+ * <p>
+ * A node turns unhealthy when a probe fails or times out, or a call fails with
+ * {@code UNAVAILABLE}, and healthy again on the next successful unary call or probe. When no
+ * node is healthy, calls still go to the fastest one so that they fail with the real status.
+ */
+@Slf4j
+class EndpointRouter extends Channel {
+
+    /**
+     * Account a call is sent for, the key for sticky routing.
+     */
+    static final CallOptions.Key<String> ACCOUNT = CallOptions.Key.create("bitxhub-account");
+
+    /**
+     * Index of the node a call must go to, used by the probes.
+     */
+    static final CallOptions.Key<Integer> ENDPOINT = CallOptions.Key.create("bitxhub-endpoint");
+
+    /**
+     * Weight of the latest sample in the latency average.
+     */
+    private static final double ALPHA = 0.3;
+
+    /**
+     * Methods whose latency is not sampled.
+     */
+    private static final Set<String> UNSAMPLED = new HashSet<>(Arrays.asList(
+            ChainBrokerGrpc.getGetBlocksMethod().getFullMethodName(),
+            ChainBrokerGrpc.getGetHappyBlocksMethod().getFullMethodName(),
+            ChainBrokerGrpc.getGetBlockHeadersMethod().getFullMethodName(),
+            ChainBrokerGrpc.getGetBlockHeaderMethod().getFullMethodName(),
+            ChainBrokerGrpc.getGetInterchainTxWrappersMethod().getFullMethodName()));
+
+    private final List<Endpoint> endpoints;
+    private final ConcurrentMap<String, Integer> accounts = new ConcurrentHashMap<>();
+    private volatile ScheduledFuture<?> probes;
+
+    EndpointRouter(List<String> targets, List<ChannelPool> pools) {
+        if (pools.isEmpty() || targets.size() != pools.size()) {
+            throw new IllegalArgumentException("every endpoint needs a channel pool");
+        }
+        this.endpoints = new ArrayList<>(pools.size());
+        for (int i = 0; i < pools.size(); i++) {
+            endpoints.add(new Endpoint(targets.get(i), pools.get(i)));
+        }
+    }
+
+    /**
+     * Normalize an address to the key of sticky routing.
+     *
+     * @param account address with or without 0x, any case
+     * @return lower case address without 0x
+     */
+    static String accountKey(String account) {
+        String key = account.toLowerCase(Locale.ROOT);
+        return key.startsWith("0x") ? key.substring(2) : key;
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions) {
+        boolean probe = callOptions.getOption(ENDPOINT) != null;
+        Endpoint endpoint = endpoints.get(select(callOptions));
+        boolean sampled = method.getType() == MethodDescriptor.MethodType.UNARY
+                && !UNSAMPLED.contains(method.getFullMethodName());
+        return new RoutedCall<>(endpoint.pool.newCall(method, callOptions), endpoint, sampled, probe);
+    }
+
+    @Override
+    public String authority() {
+        return endpoints.get(0).pool.authority();
+    }
+
+    int size() {
+        return endpoints.size();
+    }
+
+    boolean isHealthy(int index) {
+        return endpoints.get(index).healthy;
+    }
+
+    /**
+     * Average latency of the node in nanoseconds, 0 before the first sample.
+     */
+    double latency(int index) {
+        return endpoints.get(index).latency;
+    }
+
+    private int select(CallOptions callOptions) {
+        Integer pinned = callOptions.getOption(ENDPOINT);
+        if (pinned != null) {
+            return pinned;
+        }
+        if (endpoints.size() == 1) {
+            return 0;
+        }
+        String account = callOptions.getOption(ACCOUNT);
+        if (account == null) {
+            return choose();
+        }
+        return accounts.compute(account, (key, current) -> {
+            if (current != null && endpoints.get(current).healthy) {
+                return current;
+            }
+            int next = choose();
+            if (current != null && current != next) {
+                log.warn("account {} moves from unhealthy node {} to {}", key,
+                        endpoints.get(current).target, endpoints.get(next).target);
+            }
+            return next;
+        });
+    }
+
+    /**
+     * The cheaper of two random healthy nodes, the fastest node if none is healthy.
+     */
+    private int choose() {
+        int healthy = 0;
+        for (Endpoint endpoint : endpoints) {
+            if (endpoint.healthy) {
+                healthy++;
+            }
+        }
+        if (healthy == 0) {
+            return fastest();
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int firstRank = random.nextInt(healthy);
+        int first = healthy(firstRank);
+        if (healthy == 1) {
+            return first < 0 ? fastest() : first;
+        }
+        int secondRank = random.nextInt(healthy - 1);
+        int second = healthy(secondRank >= firstRank ? secondRank + 1 : secondRank);
+        if (first < 0 || second < 0) {
+            // the health changed meanwhile
+            return fastest();
+        }
+        return endpoints.get(second).cost() < endpoints.get(first).cost() ? second : first;
+    }
+
+    /**
+     * Index of the healthy node of the rank, -1 if there are fewer healthy nodes.
+     */
+    private int healthy(int rank) {
+        for (int i = 0; i < endpoints.size(); i++) {
+            if (endpoints.get(i).healthy && rank-- == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int fastest() {
+        int best = -1;
+        boolean bestHealthy = false;
+        double bestLatency = Double.MAX_VALUE;
+        for (int i = 0; i < endpoints.size(); i++) {
+            Endpoint endpoint = endpoints.get(i);
+            boolean healthy = endpoint.healthy;
+            double latency = endpoint.latency;
+            if (best < 0 || (healthy && !bestHealthy) || (healthy == bestHealthy && latency < bestLatency)) {
+                best = i;
+                bestHealthy = healthy;
+                bestLatency = latency;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Probe every node with {@code GetChainMeta} at a fixed delay. A single node is never probed.
+     *
+     * @param channel   channel the probes are sent on, normally the intercepted router
+     * @param scheduler scheduler of the probes
+     * @param interval  delay between two rounds and deadline of a probe, in milliseconds
+     */
+    void startProbing(Channel channel, ScheduledExecutorService scheduler, long interval) {
+        if (endpoints.size() == 1) {
+            return;
+        }
+        ChainBrokerGrpc.ChainBrokerFutureStub stub = ChainBrokerGrpc.newFutureStub(channel);
+        probes = scheduler.scheduleWithFixedDelay(() -> {
+            for (int i = 0; i < endpoints.size(); i++) {
+                probe(stub, i, interval);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private static void probe(ChainBrokerGrpc.ChainBrokerFutureStub stub, int index, long deadline) {
+        // the outcome is recorded by the routed call of the probe
+        stub.withOption(ENDPOINT, index)
+                .withDeadlineAfter(deadline, TimeUnit.MILLISECONDS)
+                .getChainMeta(Broker.Request.getDefaultInstance());
+    }
+
+    void shutdown() {
+        ScheduledFuture<?> probes = this.probes;
+        if (probes != null) {
+            probes.cancel(false);
+        }
+        for (Endpoint endpoint : endpoints) {
+            endpoint.pool.shutdown();
+        }
+    }
+
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Endpoint endpoint : endpoints) {
+            long remaining = deadline - System.nanoTime();
+            if (!endpoint.pool.awaitTermination(Math.max(remaining, 0), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Endpoint {
+        private final String target;
+        private final ChannelPool pool;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile boolean healthy = true;
+        private volatile double latency;
+
+        Endpoint(String target, ChannelPool pool) {
+            this.target = target;
+            this.pool = pool;
+        }
+
+        /**
+         * Latency times the calls in flight plus one, a node without samples counts as 1ns.
+         */
+        double cost() {
+            return Math.max(latency, 1) * (inFlight.get() + 1);
+        }
+
+        synchronized void succeeded(long nanos) {
+            latency = latency == 0 ? nanos : ALPHA * nanos + (1 - ALPHA) * latency;
+            if (!healthy) {
+                log.info("node {} is healthy again", target);
+                healthy = true;
+            }
+        }
+
+        synchronized void failed(Status status) {
+            if (healthy) {
+                log.warn("node {} is unhealthy: {}", target, status);
+                healthy = false;
+            }
+        }
+    }
+
+    /**
+     * Feeds the outcome of a call back into the health and latency of its node.
+     */
+    private static class RoutedCall<ReqT, RespT> extends ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT> {
+        private final Endpoint endpoint;
+        private final boolean sampled;
+        private final boolean probe;
+
+        RoutedCall(ClientCall<ReqT, RespT> delegate, Endpoint endpoint, boolean sampled, boolean probe) {
+            super(delegate);
+            this.endpoint = endpoint;
+            this.sampled = sampled;
+            this.probe = probe;
+        }
+
+        @Override
+        public void start(Listener<RespT> responseListener, Metadata headers) {
+            long start = System.nanoTime();
+            endpoint.inFlight.incrementAndGet();
+            try {
+                super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<RespT>(responseListener) {
+                    @Override
+                    public void onClose(Status status, Metadata trailers) {
+                        endpoint.inFlight.decrementAndGet();
+                        if (status.isOk()) {
+                            if (sampled) {
+                                endpoint.succeeded(System.nanoTime() - start);
+                            }
+                        } else if (status.getCode() == Status.Code.UNAVAILABLE
+                                || (probe && status.getCode() == Status.Code.DEADLINE_EXCEEDED)) {
+                            endpoint.failed(status);
+                        }
+                        super.onClose(status, trailers);
+                    }
+                }, headers);
+            } catch (RuntimeException e) {
+                endpoint.inFlight.decrementAndGet();
+                throw e;
+            }
+        }
+    }
+}
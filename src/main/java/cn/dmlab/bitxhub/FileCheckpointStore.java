@@ -0,0 +1,160 @@
+package cn.dmlab.bitxhub;
+
+import cn.dmlab.utils.ByteUtil;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Checkpoints in a local properties file.
+ * <p>
+ * The file is rewritten as a whole: the checkpoints go to a temporary file that is fsynced and
+ * renamed over the old one, so a crash leaves either the old or the new file. Saves are
+ * batched, the file is written once {@code batchSize} saves are pending or the oldest pending
+ * save is {@code maxDelayMillis} old, and on every flush. A crash loses at most the pending
+ * saves, the stream then resumes from an earlier checkpoint and sees those items again. A batch
+ * size of 1 makes every save durable.
+ */
+@Slf4j
+public class FileCheckpointStore implements CheckpointStore {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final long DEFAULT_MAX_DELAY_MILLIS = 1000;
+
+    private final Path file;
+    private final Path tmp;
+    private final int batchSize;
+    private final long maxDelayMillis;
+    private final Map<String, Checkpoint> checkpoints = new HashMap<>();
+    private int pending;
+    private long firstPendingMillis;
+
+    public FileCheckpointStore(Path file) {
+        this(file, DEFAULT_BATCH_SIZE, DEFAULT_MAX_DELAY_MILLIS);
+    }
+
+    /**
+     * @param file           checkpoint file, created on the first write
+     * @param batchSize      number of saves that are written together
+     * @param maxDelayMillis max age of a pending save before the file is written
+     */
+    public FileCheckpointStore(Path file, int batchSize, long maxDelayMillis) {
+        if (batchSize <= 0 || maxDelayMillis < 0) {
+            throw new IllegalArgumentException("Batch size must be positive and delay not negative");
+        }
+        this.file = file.toAbsolutePath();
+        this.tmp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        this.batchSize = batchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        read();
+    }
+
+    private void read() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            throw new UncheckedIOException("read checkpoints from " + file + " failed", e);
+        }
+        for (String stream : properties.stringPropertyNames()) {
+            String value = properties.getProperty(stream);
+            int comma = value.indexOf(',');
+            long height = Long.parseLong(comma < 0 ? value : value.substring(0, comma));
+            byte[] hash = comma < 0 ? new byte[0] : ByteUtil.hexStringToBytes(value.substring(comma + 1));
+            checkpoints.put(stream, new Checkpoint(height, hash));
+        }
+    }
+
+    @Override
+    public synchronized Checkpoint load(String stream) {
+        Checkpoint checkpoint = checkpoints.get(stream);
+        return checkpoint == null ? null : new Checkpoint(checkpoint.getHeight(), checkpoint.getHash().clone());
+    }
+
+    @Override
+    public synchronized void save(String stream, Checkpoint checkpoint) {
+        byte[] hash = checkpoint.getHash() == null ? new byte[0] : checkpoint.getHash().clone();
+        checkpoints.put(stream, new Checkpoint(checkpoint.getHeight(), hash));
+        long now = System.currentTimeMillis();
+        if (pending++ == 0) {
+            firstPendingMillis = now;
+        }
+        if (pending >= batchSize || now - firstPendingMillis >= maxDelayMillis) {
+            write();
+        }
+    }
+
+    @Override
+    public synchronized void remove(String stream) {
+        if (checkpoints.remove(stream) != null) {
+            write();
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (pending > 0) {
+            write();
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+    }
+
+    private void write() {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Checkpoint> entry : checkpoints.entrySet()) {
+            Checkpoint checkpoint = entry.getValue();
+            properties.setProperty(entry.getKey(), checkpoint.getHeight() + "," + ByteUtil.toHex(checkpoint.getHash()));
+        }
+        try {
+            Path dir = file.getParent();
+            if (dir != null) {
+                Files.createDirectories(dir);
+            }
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                OutputStream out = Channels.newOutputStream(channel);
+                properties.store(out, null);
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            if (dir != null) {
+                syncDirectory(dir);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("write checkpoints to " + file + " failed", e);
+        }
+        pending = 0;
+    }
+
+    /**
+     * Persist the rename, not every platform can open a directory for that.
+     */
+    static void syncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            log.debug("fsync directory {} failed: {}", dir, e.getMessage());
+        }
+    }
+}
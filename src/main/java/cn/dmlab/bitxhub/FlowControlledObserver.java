@@ -0,0 +1,111 @@
+package cn.dmlab.bitxhub;
+
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * Observer of a server stream whose messages are only delivered on demand.
+ * <p>
+ * Pass it to any streaming method of {@link GrpcClient}, like {@link GrpcClient#subscribe} or
+ * {@link GrpcClient#getBlockHeaders(Long, Long, StreamObserver)}. Automatic inbound flow
+ * control is disabled for the call: the server only sends as many messages as were asked for
+ * with {@link #request(int)}, the rest waits in the server and in the transport window instead
+ * of piling up in the client. A consumer that hands messages to another thread calls
+ * {@code request} once it has room for more, so memory stays bounded by the demand.
+ * <p>
+ * grpc asks for the first message when the call starts, the rest of the initial demand is asked
+ * for when it arrives. {@code request} may be called from any thread, also before the call has
+ * started.
+ *
+ * @param <T> message type
+ */
+public abstract class FlowControlledObserver<T> implements ClientResponseObserver<Object, T> {
+    private final int initialRequest;
+    private ClientCallStreamObserver<?> call;
+    private boolean started;
+    private int pending;
+    private boolean cancelled;
+    private String cancelMessage;
+
+    /**
+     * @param initialRequest number of messages to ask for when the call starts, at least 1
+     */
+    protected FlowControlledObserver(int initialRequest) {
+        if (initialRequest <= 0) {
+            throw new IllegalArgumentException("Initial request must be positive");
+        }
+        this.initialRequest = initialRequest;
+    }
+
+    /**
+     * Handle the next message. More messages only come after {@link #request(int)}.
+     */
+    protected abstract void onMessage(T value);
+
+    /**
+     * Ask for n more messages.
+     */
+    public final void request(int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("Request must be positive");
+        }
+        ClientCallStreamObserver<?> c;
+        synchronized (this) {
+            if (!started) {
+                pending += n;
+                return;
+            }
+            c = call;
+        }
+        c.request(n);
+    }
+
+    /**
+     * Cancel the call, {@link #onError} gets a {@code CANCELLED} status.
+     */
+    public final void cancel(String message) {
+        ClientCallStreamObserver<?> c;
+        synchronized (this) {
+            c = call;
+            if (c == null) {
+                cancelled = true;
+                cancelMessage = message;
+                return;
+            }
+        }
+        c.cancel(message, null);
+    }
+
+    @Override
+    public final void beforeStart(ClientCallStreamObserver<Object> requestStream) {
+        requestStream.disableAutoInboundFlowControl();
+        boolean cancel;
+        synchronized (this) {
+            call = requestStream;
+            cancel = cancelled;
+        }
+        if (cancel) {
+            requestStream.cancel(cancelMessage, null);
+        }
+    }
+
+    @Override
+    public final void onNext(T value) {
+        int n = 0;
+        ClientCallStreamObserver<?> c = null;
+        synchronized (this) {
+            if (!started) {
+                started = true;
+                // the first message was asked for by grpc
+                n = initialRequest - 1 + pending;
+                pending = 0;
+                c = call;
+            }
+        }
+        if (n > 0) {
+            c.request(n);
+        }
+        onMessage(value);
+    }
+}
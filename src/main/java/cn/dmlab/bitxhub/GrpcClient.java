@@ -5,6 +5,7 @@ import io.grpc.stub.StreamObserver;
 import pb.*;
 
 import java.util.Map;
+import java.util.function.Consumer;
 
 
 public interface GrpcClient {
@@ -19,7 +20,8 @@ public interface GrpcClient {
      * Subscribe to event notifications from BitXHub.
      *
      * @param type     subscribe type
-     * @param observer contain methods of the onNext(), onComplete(), OnError().
+     * @param observer contain methods of the onNext(), onComplete(), OnError(),
+     *                 a {@link FlowControlledObserver} only receives the messages it asks for.
      */
     void subscribe(pb.Broker.SubscriptionRequest.Type type, StreamObserver<Broker.Response> observer);
 
@@ -28,7 +30,8 @@ public interface GrpcClient {
      *
      * @param type     subscribe type
      * @param blockHeight the starting block height of the subscription data
-     * @param observer contain methods of the onNext(), onComplete(), OnError().
+     * @param observer contain methods of the onNext(), onComplete(), OnError(),
+     *                 a {@link FlowControlledObserver} only receives the messages it asks for.
      */
     void subscribeAuditInfo(AuditInfo.AuditSubscriptionRequest.Type type, Long blockHeight, StreamObserver<Broker.Response> observer);
 
@@ -42,6 +45,8 @@ public interface GrpcClient {
     /**
      * Send a unsign transaction to BitXHub. If the signature is illegal,
      * the transaction hash will be obtained but the transaction receipt is illegal.
+     * If neither nonce is set in opts, the nonce is allocated by the client side
+     * nonce manager, which only asks BitXHub for the pending nonce of an account once.
      *
      * @param transaction Unsigned transaction
      * @return tx hash
@@ -66,6 +71,16 @@ public interface GrpcClient {
      * @return
      */
     long getPendingNonceByAccount(String account);
+
+    /**
+     * Drop the locally allocated nonce of an account, the next transaction
+     * will fetch the pending nonce from BitXHub again. Call this after the
+     * account sent transactions through another client.
+     *
+     * @param account account address
+     */
+    void resetNonce(String account);
+
     /**
      * Get the receipt by transaction hash,
      * the status of the receipt is a sign of whether the transaction is successful.
@@ -128,6 +143,17 @@ public interface GrpcClient {
      */
     Broker.GetBlocksResponse getBlocks(Long start, Long end);
 
+    /**
+     * Get blocks of the specified block height range, decoding the response one block at a time.
+     * Only one decoded block is held at once, the consumer runs while the response is decoded.
+     *
+     * @param start    start signal
+     * @param end      end signal
+     * @param consumer called for every block in order
+     * @return number of blocks
+     */
+    long getBlocks(Long start, Long end, Consumer<BlockOuterClass.Block> consumer);
+
 
     /**
      * Get happy blocks of the specified block height range.
@@ -138,6 +164,17 @@ public interface GrpcClient {
      */
     Broker.GetHappyBlocksResponse getHappyBlocks(Long start, Long end);
 
+    /**
+     * Get happy blocks of the specified block height range, decoding the response one block at a time.
+     * Only one decoded block is held at once, the consumer runs while the response is decoded.
+     *
+     * @param start    start signal
+     * @param end      end signal
+     * @param consumer called for every happy block in order
+     * @return number of blocks
+     */
+    long getHappyBlocks(Long start, Long end, Consumer<BlockOuterClass.HappyBlock> consumer);
+
     /**
      * Get the status of the blockchain from BitXHub, normal or abnormal.
      *
@@ -181,7 +218,8 @@ public interface GrpcClient {
      * @param pid            app-chain id.
      * @param begin          begin signal
      * @param end            end signal
-     * @param streamObserver contain methods of the onNext(), onComplete(), OnError().
+     * @param streamObserver contain methods of the onNext(), onComplete(), OnError(),
+     *                       a {@link FlowControlledObserver} only receives the messages it asks for.
      * @return merkle wrappers
      */
     void getInterchainTxWrappers(String pid, Long begin, Long end, StreamObserver<Broker.InterchainTxWrappers> streamObserver);
@@ -191,7 +229,8 @@ public interface GrpcClient {
      *
      * @param begin          begin signal
      * @param end            end signal
-     * @param streamObserver contain methods of the onNext(), onComplete(), OnError().
+     * @param streamObserver contain methods of the onNext(), onComplete(), OnError(),
+     *                       a {@link FlowControlledObserver} only receives the messages it asks for.
      */
     void getBlockHeaders(Long begin, Long end, StreamObserver<BlockOuterClass.BlockHeader> streamObserver);
 
@@ -5,35 +5,59 @@ import cn.dmlab.utils.ByteUtil;
 import cn.dmlab.utils.SignUtils;
 import cn.dmlab.utils.Utils;
 import com.google.common.base.Strings;
+import com.google.common.net.HostAndPort;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.ByteString;
 import io.grpc.*;
 import io.grpc.netty.NegotiationType;
 import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.stub.ClientCalls;
 import io.grpc.stub.MetadataUtils;
 import io.grpc.stub.StreamObserver;
 import lombok.extern.slf4j.Slf4j;
-import net.jodah.failsafe.Failsafe;
-import net.jodah.failsafe.RetryPolicy;
-import net.jodah.failsafe.function.CheckedSupplier;
+import org.reactivestreams.Publisher;
 import org.web3j.crypto.Keys;
 import pb.*;
 
 import java.math.BigInteger;
-import java.time.Duration;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 
 
 @Slf4j
-public class GrpcClientImpl implements GrpcClient {
+public class GrpcClientImpl implements GrpcClient, AsyncGrpcClient, ReactiveGrpcClient {
 
-    private final ManagedChannel channel;
+    private final EndpointRouter channel;
     private final ChainBrokerGrpc.ChainBrokerBlockingStub blockingStub;
     private final ChainBrokerGrpc.ChainBrokerStub asyncStub;
-
+    private final ChainBrokerGrpc.ChainBrokerFutureStub futureStub;
+    private final NonceManager nonceManager;
+    private final ScheduledExecutorService scheduler;
+    private final ReceiptWaiter receiptWaiter;
+    private final ClientMetrics metrics = new ClientMetrics();
+    private final TxLifecycleStats txLifecycleStats = new TxLifecycleStats();
+    private final List<TxLifecycleListener> txLifecycleListeners = new CopyOnWriteArrayList<>();
+    private final AdaptiveLimit sendLimit;
+    private final TransactionOutbox outbox;
+    private final OutboxConfirmer outboxConfirmer;
 
     private Config config;
 
@@ -46,36 +70,215 @@ public class GrpcClientImpl implements GrpcClient {
         }
         config.checkConfig();
         this.config = config;
-        if (null == config.getSslContext()) {
-            this.channel = ManagedChannelBuilder.forAddress(config.getHost(), config.getPort())
-                    .usePlaintext()
-                    .build();
+        txLifecycleListeners.add(txLifecycleStats);
+        if (Boolean.TRUE.equals(config.getAdaptiveSendLimit())) {
+            sendLimit = new AdaptiveLimit();
+            metrics.gauge("SendLimit", sendLimit::getLimit);
+            metrics.gauge("SendInFlight", sendLimit::getInFlight);
         } else {
-            // 这里要注意下由于java版本的没有提供像go那样的可以指定域名
-            // java版本源代码中把host传入作为证书域名
-            // 域名是在证书生成的过程中自己输入的
-            this.channel = NettyChannelBuilder.forAddress(config.getHost(), config.getPort())
-                    .sslContext(config.getSslContext())
-                    .negotiationType(NegotiationType.TLS)
-                    .build();
+            sendLimit = null;
+        }
+        if (Strings.isNullOrEmpty(config.getOutboxDir())) {
+            outbox = null;
+        } else {
+            outbox = TransactionOutbox.open(Paths.get(config.getOutboxDir()));
+            metrics.gauge("OutboxUnconfirmed", outbox::getUnconfirmedCount);
         }
+        List<String> targets = new ArrayList<>();
+        List<ChannelPool> pools = new ArrayList<>();
+        for (HostAndPort target : config.targets()) {
+            List<ManagedChannel> channels = new ArrayList<>(config.getChannelPoolSize());
+            for (int i = 0; i < config.getChannelPoolSize(); i++) {
+                channels.add(newChannel(config, target));
+            }
+            targets.add(target.toString());
+            pools.add(new ChannelPool(channels));
+        }
+        this.channel = new EndpointRouter(targets, pools);
 
-        io.grpc.Channel channelTmp;
+        io.grpc.Channel channelTmp = ClientInterceptors.intercept(channel, metrics);
         if (config.getAccessSwitch()) {
             Metadata metadata = new Metadata();
             metadata.put(Metadata.Key.of("account", Metadata.ASCII_STRING_MARSHALLER), Keys.toChecksumAddress(ByteUtil.toHexStringWithOx(config.getAddress())));
             ClientInterceptor clientInterceptor = MetadataUtils.newAttachHeadersInterceptor(metadata);
-            channelTmp = ClientInterceptors.intercept(channel, clientInterceptor);
-        } else {
-            channelTmp = this.channel;
+            channelTmp = ClientInterceptors.intercept(channelTmp, clientInterceptor);
         }
 
         blockingStub = ChainBrokerGrpc.newBlockingStub(channelTmp);
         asyncStub = ChainBrokerGrpc.newStub(channelTmp);
+        futureStub = ChainBrokerGrpc.newFutureStub(channelTmp);
+        nonceManager = new NonceManager(this::getPendingNonceByAccount);
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("bitxhub-client-scheduler-%d")
+                .setDaemon(true)
+                .build());
+        receiptWaiter = new ReceiptWaiter(this::fetchReceipt,
+                observer -> subscribe(Broker.SubscriptionRequest.Type.BLOCK, observer),
+                scheduler, config.getReceiptTimeout());
+        channel.startProbing(channelTmp, scheduler, config.getProbeInterval());
+        if (outbox == null) {
+            outboxConfirmer = null;
+        } else {
+            outboxConfirmer = new OutboxConfirmer(outbox, () -> getChainMeta().getHeight(), this::getBlocks,
+                    txHash -> exists(fetchReceipt(txHash)), config.getOutboxCheckInterval());
+        }
+    }
+
+    private static ManagedChannel newChannel(Config config, HostAndPort target) {
+        if (null != config.getChannelFactory()) {
+            return config.getChannelFactory().apply(target);
+        }
+        if (null == config.getSslContext()) {
+            return ManagedChannelBuilder.forAddress(target.getHost(), target.getPort())
+                    .usePlaintext()
+                    .build();
+        }
+        // 这里要注意下由于java版本的没有提供像go那样的可以指定域名
+        // java版本源代码中把host传入作为证书域名
+        // 域名是在证书生成的过程中自己输入的
+        return NettyChannelBuilder.forAddress(target.getHost(), target.getPort())
+                .sslContext(config.getSslContext())
+                .negotiationType(NegotiationType.TLS)
+                .build();
+    }
+
+    /**
+     * Metrics of the calls of this client, by method.
+     */
+    public ClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Stage latencies of the transactions sent by this client.
+     */
+    public TxLifecycleStats getTxLifecycleStats() {
+        return txLifecycleStats;
+    }
+
+    /**
+     * Limit of the SendTransaction calls in flight, null unless
+     * {@link Config#getAdaptiveSendLimit()} is set.
+     */
+    public AdaptiveLimit getSendLimit() {
+        return sendLimit;
+    }
+
+    /**
+     * Log of the sent transactions, null unless {@link Config#getOutboxDir()} is set.
+     */
+    public TransactionOutbox getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * Resubmit the transactions of the outbox that did not reach the node, call it after a
+     * restart before sending new transactions.
+     * <p>
+     * A transaction with a receipt is confirmed, one the node knows is left to be minted and
+     * one it does not know is sent again. A transaction the node refuses, e.g. because its
+     * nonce was taken meanwhile, can never be minted and is confirmed too. The others are
+     * confirmed once they are found in a block.
+     *
+     * @return number of transactions sent again
+     * @throws IllegalStateException if no outbox is configured
+     */
+    public int recoverOutbox() {
+        if (outbox == null) {
+            throw new IllegalStateException("Outbox is not configured");
+        }
+        int resent = 0;
+        Set<String> senders = new HashSet<>();
+        for (Transaction.BxhTransaction transaction : outbox.unconfirmed()) {
+            String txHash = TransactionOutbox.hash(transaction);
+            if (exists(fetchReceipt(txHash))) {
+                outbox.confirm(txHash);
+                continue;
+            }
+            if (!exists(getTransactionAsync(txHash))) {
+                try {
+                    acquireSendSlot();
+                    send(transaction, null);
+                } catch (StatusRuntimeException e) {
+                    if (AdaptiveLimit.isOverload(e)) {
+                        throw e;
+                    }
+                    log.warn("outbox transaction {} refused: {}", txHash, e.getMessage());
+                    outbox.confirm(txHash);
+                    continue;
+                }
+                resent++;
+                senders.add(Keys.toChecksumAddress(ByteUtil.toHex(transaction.getFrom().toByteArray())));
+            }
+        }
+        // the nonces sent again are unknown to the nonce manager
+        senders.forEach(nonceManager::resync);
+        return resent;
+    }
+
+    /**
+     * Whether the query found what it looked for, errors of an unreachable node are thrown.
+     */
+    private static boolean exists(CompletableFuture<?> query) {
+        try {
+            query.get();
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while recovering the outbox", e);
+        } catch (ExecutionException e) {
+            if (AdaptiveLimit.isOverload(e.getCause())) {
+                throw Status.fromThrowable(e.getCause()).asRuntimeException();
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Trace the transactions sent with {@code sendTransaction} and
+     * {@code sendTransactionWithReceipt}, and their async variants.
+     */
+    public void addTxLifecycleListener(TxLifecycleListener listener) {
+        check(Objects.nonNull(listener), "Listener must not be null");
+        txLifecycleListeners.add(listener);
+    }
+
+    public void removeTxLifecycleListener(TxLifecycleListener listener) {
+        txLifecycleListeners.remove(listener);
+    }
+
+    /**
+     * Pipeline that assigns nonces, signs and sends the transactions of many producers, with
+     * the default sizes and a signing thread per core.
+     */
+    public TransactionPipeline newTransactionPipeline() {
+        return newTransactionPipeline(TransactionPipeline.DEFAULT_QUEUE_SIZE, TransactionPipeline.DEFAULT_MAX_IN_FLIGHT,
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Pipeline that assigns nonces, signs and sends the transactions of many producers.
+     *
+     * @param queueSize   max number of transactions waiting for a nonce
+     * @param maxInFlight max number of sends waiting for an answer
+     * @param signers     number of signing threads
+     */
+    public TransactionPipeline newTransactionPipeline(int queueSize, int maxInFlight, int signers) {
+        check(config.getEcKey() != null, "Ecdsa key must not be null");
+        return new TransactionPipeline(nonceManager, config::getEcKey, this::appendAndSendAsync,
+                txLifecycleListeners, queueSize, maxInFlight, signers);
     }
 
     public void shutdown() throws InterruptedException {
-        channel.shutdown().awaitTermination(5, TimeUnit.SECONDS);
+        metrics.unregisterMBean();
+        receiptWaiter.close();
+        if (outbox != null) {
+            outboxConfirmer.close();
+            outbox.close();
+        }
+        scheduler.shutdownNow();
+        channel.shutdown();
+        channel.awaitTermination(5, TimeUnit.SECONDS);
     }
 
     /**
@@ -96,6 +299,19 @@ public class GrpcClientImpl implements GrpcClient {
         asyncStub.subscribe(request, observer);
     }
 
+    @Override
+    public Publisher<Broker.Response> subscribePublisher(Broker.SubscriptionRequest.Type type) {
+        check(Objects.nonNull(type), "Subscription type must not be null");
+        return new StreamPublisher<>(observer -> subscribe(type, observer));
+    }
+
+    @Override
+    public Publisher<Broker.Response> subscribeAuditInfoPublisher(AuditInfo.AuditSubscriptionRequest.Type type, Long blockHeight) {
+        check(Objects.nonNull(type), "Subscription type must not be null");
+        check(Objects.nonNull(blockHeight), "Subscription blockHeight must not be null");
+        return new StreamPublisher<>(observer -> subscribeAuditInfo(type, blockHeight, observer));
+    }
+
     @Override
     public void subscribeAuditInfo(AuditInfo.AuditSubscriptionRequest.Type type, Long blockHeight, StreamObserver<Broker.Response> observer) {
         check(Objects.nonNull(observer), "Observer must not be null");
@@ -118,43 +334,147 @@ public class GrpcClientImpl implements GrpcClient {
 
     @Override
     public String sendTransaction(Transaction.BxhTransaction transaction, TransactOpts opts) {
+        return sendTransaction(transaction, opts, new TxTrace(txLifecycleListeners));
+    }
+
+    private String sendTransaction(Transaction.BxhTransaction transaction, TransactOpts opts, TxTrace trace) {
+        opts = checkTransactOpts(transaction, opts);
+        if (opts == null) {
+            return null;
+        }
+
+        Broker.TransactionHashMsg transactionHashMsg;
+        try {
+            if (opts.getNormalNonce() == 0 && opts.getIBTPNonce() == 0) {
+                String from = opts.getFrom();
+                long nonce = nonceManager.next(from);
+                try {
+                    transactionHashMsg = submit(signWithNonce(transaction, nonce, trace), trace);
+                } catch (RuntimeException e) {
+                    nonceManager.failed(from, nonce, e);
+                    throw e;
+                }
+                nonceManager.accepted(from);
+            } else {
+                transactionHashMsg = submit(signWithNonce(transaction, presetNonce(opts), trace), trace);
+            }
+        } catch (RuntimeException e) {
+            trace.fail(e);
+            throw e;
+        }
+
+        if (transactionHashMsg == null) {
+            log.warn("transactionHashMsg is null");
+            return null;
+        }
+        return transactionHashMsg.getTxHash();
+    }
+
+    @Override
+    public CompletableFuture<String> sendTransactionAsync(Transaction.BxhTransaction transaction, TransactOpts opts) {
+        return sendTransactionAsync(transaction, opts, new TxTrace(txLifecycleListeners));
+    }
+
+    private CompletableFuture<String> sendTransactionAsync(Transaction.BxhTransaction transaction, TransactOpts opts, TxTrace trace) {
+        opts = checkTransactOpts(transaction, opts);
+        if (opts == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        if (opts.getNormalNonce() != 0 || opts.getIBTPNonce() != 0) {
+            try {
+                return submitAsync(signWithNonce(transaction, presetNonce(opts), trace), trace);
+            } catch (RuntimeException e) {
+                trace.fail(e);
+                throw e;
+            }
+        }
+        String from = opts.getFrom();
+        long nonce = nonceManager.next(from);
+        CompletableFuture<String> future;
+        try {
+            future = submitAsync(signWithNonce(transaction, nonce, trace), trace);
+        } catch (RuntimeException e) {
+            nonceManager.failed(from, nonce, e);
+            trace.fail(e);
+            throw e;
+        }
+        return future.whenComplete((txHash, e) -> {
+            if (e == null) {
+                nonceManager.accepted(from);
+            } else {
+                nonceManager.failed(from, nonce, e);
+            }
+        });
+    }
+
+    /**
+     * Check the transaction and fill the default transact options.
+     *
+     * @return transact options, or null if both nonce are set
+     */
+    private TransactOpts checkTransactOpts(Transaction.BxhTransaction transaction, TransactOpts opts) {
         check(!Objects.isNull(transaction.getFrom()), "From address must not be null");
         check(!Objects.isNull(transaction.getTo()), "To address must not be null");
         check(!Objects.isNull(transaction.getSignature()), "Signature must not be null");
-        
+
         if (opts == null) {
             opts = new TransactOpts();
             opts.setFrom(Keys.toChecksumAddress(ByteUtil.toHex(transaction.getFrom().toByteArray())));
         }
-
-        long nonce;
         if (opts.getNormalNonce() != 0 && opts.getIBTPNonce() != 0) {
             log.error("can't set ibtp nonce and normal nonce at the same time");
             return null;
         }
-        if (opts.getNormalNonce() == 0 && opts.getIBTPNonce() == 0) {
-            nonce = this.getPendingNonceByAccount(opts.getFrom());
-        } else {
-            if (opts.getIBTPNonce() != 0) {
-                nonce = opts.getIBTPNonce();
-            } else {
-                nonce = opts.getNormalNonce();
-            }
+        return opts;
+    }
+
+    private static long presetNonce(TransactOpts opts) {
+        if (opts.getIBTPNonce() != 0) {
+            return opts.getIBTPNonce();
         }
+        return opts.getNormalNonce();
+    }
+
+    /**
+     * Stub that sends to the node of the tx sender, which keeps its nonces in order.
+     */
+    private ChainBrokerGrpc.ChainBrokerBlockingStub blockingStub(Transaction.BxhTransaction transaction) {
+        return blockingStub.withOption(EndpointRouter.ACCOUNT, ByteUtil.toHex(transaction.getFrom().toByteArray()));
+    }
+
+    private ChainBrokerGrpc.ChainBrokerFutureStub futureStub(Transaction.BxhTransaction transaction) {
+        return futureStub.withOption(EndpointRouter.ACCOUNT, ByteUtil.toHex(transaction.getFrom().toByteArray()));
+    }
+
+    private Transaction.BxhTransaction signWithNonce(Transaction.BxhTransaction transaction, long nonce, TxTrace trace) {
+        trace.reach(TxTrace.Stage.SIGN_START);
         transaction = transaction.toBuilder().setNonce(nonce).build();
-        Transaction.BxhTransaction signedTx = SignUtils.sign(transaction, config.getEcKey());
-        Broker.TransactionHashMsg transactionHashMsg = blockingStub.sendTransaction(signedTx);
+        Transaction.BxhTransaction signed = SignUtils.sign(transaction, config.getEcKey());
+        trace.setTxHash(ByteUtil.toHexStringWithOx(SignUtils.txHash(signed)));
+        trace.reach(TxTrace.Stage.SIGN_END);
+        return signed;
+    }
 
-        if (transactionHashMsg == null) {
-            log.warn("transactionHashMsg is null");
-            return null;
-        }
-        return transactionHashMsg.getTxHash();
+    private Broker.TransactionHashMsg submit(Transaction.BxhTransaction transaction, TxTrace trace) {
+        Broker.TransactionHashMsg transactionHashMsg = appendAndSend(transaction, trace);
+        trace.reach(TxTrace.Stage.ACK);
+        return transactionHashMsg;
+    }
+
+    private CompletableFuture<String> submitAsync(Transaction.BxhTransaction transaction, TxTrace trace) {
+        return appendAndSendAsync(transaction, trace).whenComplete((txHash, e) -> {
+            if (e == null) {
+                trace.reach(TxTrace.Stage.ACK);
+            } else {
+                trace.fail(e);
+            }
+        });
     }
 
     @Override
     public String sendSignedTransaction(Transaction.BxhTransaction transaction) {
-        Broker.TransactionHashMsg transactionHashMsg = blockingStub.sendTransaction(transaction);
+        Broker.TransactionHashMsg transactionHashMsg = appendAndSend(transaction, null);
 
         if (transactionHashMsg == null) {
             log.warn("transactionHashMsg is null");
@@ -163,18 +483,158 @@ public class GrpcClientImpl implements GrpcClient {
         return transactionHashMsg.getTxHash();
     }
 
+    @Override
+    public CompletableFuture<String> sendSignedTransactionAsync(Transaction.BxhTransaction transaction) {
+        return appendAndSendAsync(transaction, null);
+    }
+
+    /**
+     * Send the signed transaction once it is in the outbox, if there is one. The slot of the
+     * send limit is taken before the append, like {@link #appendAndSendAsync}.
+     *
+     * @param trace trace of the transaction, null if it has none
+     */
+    private Broker.TransactionHashMsg appendAndSend(Transaction.BxhTransaction transaction, TxTrace trace) {
+        acquireSendSlot();
+        if (outbox != null) {
+            try {
+                outbox.append(transaction);
+            } catch (RuntimeException e) {
+                releaseSendSlot(System.nanoTime(), e);
+                throw e;
+            }
+        }
+        return send(transaction, trace);
+    }
+
+    /**
+     * Send the signed transaction once it is in the outbox, if there is one.
+     *
+     * @param trace trace of the transaction, null if it has none
+     */
+    private CompletableFuture<String> appendAndSendAsync(Transaction.BxhTransaction transaction, TxTrace trace) {
+        // blocks the caller while the limit is reached, never the outbox writer
+        acquireSendSlot();
+        if (outbox == null) {
+            return sendAsync(transaction, trace);
+        }
+        CompletableFuture<Void> appended;
+        try {
+            appended = outbox.appendAsync(transaction);
+        } catch (RuntimeException e) {
+            releaseSendSlot(System.nanoTime(), e);
+            throw e;
+        }
+        return appended.whenComplete((v, e) -> {
+            if (e != null) {
+                releaseSendSlot(System.nanoTime(), e);
+            }
+        }).thenCompose(v -> sendAsync(transaction, trace));
+    }
+
+    /**
+     * Call the node with a slot of the send limit taken, the slot is given back with the answer.
+     * The submit stage and the latency of the call start right before it.
+     *
+     * @param trace trace of the transaction, null if it has none
+     */
+    private CompletableFuture<String> sendAsync(Transaction.BxhTransaction transaction, TxTrace trace) {
+        if (trace != null) {
+            trace.reach(TxTrace.Stage.SUBMIT);
+        }
+        long start = System.nanoTime();
+        CompletableFuture<Broker.TransactionHashMsg> sent;
+        try {
+            sent = toCompletableFuture(futureStub(transaction).sendTransaction(transaction));
+        } catch (RuntimeException e) {
+            releaseSendSlot(start, e);
+            throw e;
+        }
+        if (sendLimit != null) {
+            sent.whenComplete((transactionHashMsg, e) -> sendLimit.release(start, e));
+        }
+        return sent
+                .thenApply(transactionHashMsg -> {
+                    if (transactionHashMsg == null) {
+                        log.warn("transactionHashMsg is null");
+                        return null;
+                    }
+                    return transactionHashMsg.getTxHash();
+                });
+    }
+
+    /**
+     * Blocking {@link #sendAsync}.
+     */
+    private Broker.TransactionHashMsg send(Transaction.BxhTransaction transaction, TxTrace trace) {
+        if (trace != null) {
+            trace.reach(TxTrace.Stage.SUBMIT);
+        }
+        long start = System.nanoTime();
+        Broker.TransactionHashMsg transactionHashMsg;
+        try {
+            transactionHashMsg = blockingStub(transaction).sendTransaction(transaction);
+        } catch (RuntimeException e) {
+            releaseSendSlot(start, e);
+            throw e;
+        }
+        releaseSendSlot(start, null);
+        return transactionHashMsg;
+    }
+
+    private void acquireSendSlot() {
+        if (sendLimit == null) {
+            return;
+        }
+        try {
+            sendLimit.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for the send limit", e);
+        }
+    }
+
+    private void releaseSendSlot(long start, Throwable error) {
+        if (sendLimit != null) {
+            sendLimit.release(start, error);
+        }
+    }
+
     @Override
     public long getPendingNonceByAccount(String account) {
-        Broker.Response pendingNonceByAccount = blockingStub.getPendingNonceByAccount(Broker.Address.newBuilder().setAddress(account).build());
+        Broker.Response pendingNonceByAccount = blockingStub
+                .withOption(EndpointRouter.ACCOUNT, EndpointRouter.accountKey(account))
+                .getPendingNonceByAccount(Broker.Address.newBuilder().setAddress(account).build());
         BigInteger nonce = new BigInteger(pendingNonceByAccount.getData().toStringUtf8());
         return nonce.longValue();
     }
 
+    @Override
+    public void resetNonce(String account) {
+        check(!Strings.isNullOrEmpty(account), "Account must not be null or empty");
+        nonceManager.resync(account);
+    }
+
+    @Override
+    public CompletableFuture<Long> getPendingNonceByAccountAsync(String account) {
+        return toCompletableFuture(futureStub
+                .withOption(EndpointRouter.ACCOUNT, EndpointRouter.accountKey(account))
+                .getPendingNonceByAccount(Broker.Address.newBuilder().setAddress(account).build()))
+                .thenApply(response -> new BigInteger(response.getData().toStringUtf8()).longValue());
+    }
+
 
     @Override
     public ReceiptOuterClass.Receipt sendTransactionWithReceipt(Transaction.BxhTransaction transaction, TransactOpts opts) {
-        String txHash = this.sendTransaction(transaction, opts);
-        return this.getReceipt(txHash);
+        TxTrace trace = new TxTrace(txLifecycleListeners);
+        String txHash = this.sendTransaction(transaction, opts, trace);
+        return receipt(getReceiptAsync(txHash, trace), txHash);
+    }
+
+    @Override
+    public CompletableFuture<ReceiptOuterClass.Receipt> sendTransactionWithReceiptAsync(Transaction.BxhTransaction transaction, TransactOpts opts) {
+        TxTrace trace = new TxTrace(txLifecycleListeners);
+        return this.sendTransactionAsync(transaction, opts, trace).thenCompose(txHash -> getReceiptAsync(txHash, trace));
     }
 
     @Override
@@ -214,25 +674,60 @@ public class GrpcClientImpl implements GrpcClient {
         return this.blockingStub.sendView(transaction);
     }
 
+    @Override
+    public CompletableFuture<ReceiptOuterClass.Receipt> sendViewAsync(Transaction.BxhTransaction transaction) {
+        return toCompletableFuture(futureStub.sendView(transaction));
+    }
+
 
     @Override
     public ReceiptOuterClass.Receipt getReceipt(String hash) {
-        check(!Strings.isNullOrEmpty(hash), "Hash must not be null or empty");
+        return receipt(getReceiptAsync(hash), hash);
+    }
 
-        Broker.TransactionHashMsg transactionHashMsg = Broker.TransactionHashMsg.newBuilder()
-                .setTxHash(hash)
-                .build();
+    private static ReceiptOuterClass.Receipt receipt(CompletableFuture<ReceiptOuterClass.Receipt> future, String hash) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while waiting for receipt of " + hash, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<ReceiptOuterClass.Receipt> getReceiptAsync(String hash) {
+        check(!Strings.isNullOrEmpty(hash), "Hash must not be null or empty");
 
         // The newest transaction may not get the receipt. waiting for block mint
-        RetryPolicy<Object> retryPolicy = new RetryPolicy<>()
-                .handle(StatusRuntimeException.class)
-                .withDelay(Duration.ofMillis(500L))
-                .withMaxRetries(5);
+        return receiptWaiter.await(hash);
+    }
 
-        return (ReceiptOuterClass.Receipt) Failsafe.with(retryPolicy)
-                .get((CheckedSupplier<Object>) () -> blockingStub.getReceipt(transactionHashMsg));
+    private CompletableFuture<ReceiptOuterClass.Receipt> getReceiptAsync(String hash, TxTrace trace) {
+        check(!Strings.isNullOrEmpty(hash), "Hash must not be null or empty");
+
+        return receiptWaiter.await(hash, trace).whenComplete((receipt, e) -> {
+            if (e == null) {
+                if (outbox != null) {
+                    outbox.confirm(hash);
+                }
+                trace.reach(TxTrace.Stage.RECEIPT);
+            } else {
+                trace.fail(e);
+            }
+        });
     }
 
+    private CompletableFuture<ReceiptOuterClass.Receipt> fetchReceipt(String hash) {
+        Broker.TransactionHashMsg transactionHashMsg = Broker.TransactionHashMsg.newBuilder()
+                .setTxHash(hash)
+                .build();
+        return toCompletableFuture(futureStub.getReceipt(transactionHashMsg));
+    }
 
     @Override
     public Broker.GetTransactionResponse getTransaction(String hash) {
@@ -245,6 +740,17 @@ public class GrpcClientImpl implements GrpcClient {
         return blockingStub.getTransaction(transactionHashMsg);
     }
 
+    @Override
+    public CompletableFuture<Broker.GetTransactionResponse> getTransactionAsync(String hash) {
+        check(!Strings.isNullOrEmpty(hash), "Hash must not be null or empty");
+
+        Broker.TransactionHashMsg transactionHashMsg = Broker.TransactionHashMsg.newBuilder()
+                .setTxHash(hash)
+                .build();
+
+        return toCompletableFuture(futureStub.getTransaction(transactionHashMsg));
+    }
+
     @Override
     public BlockOuterClass.Block getBlock(String value, Broker.GetBlockRequest.Type type) {
         check(!Strings.isNullOrEmpty(value), "Value must not be null or empty");
@@ -256,6 +762,17 @@ public class GrpcClientImpl implements GrpcClient {
         return blockingStub.getBlock(request);
     }
 
+    @Override
+    public CompletableFuture<BlockOuterClass.Block> getBlockAsync(String value, Broker.GetBlockRequest.Type type) {
+        check(!Strings.isNullOrEmpty(value), "Value must not be null or empty");
+        check(!Objects.isNull(type), "Type must not be null");
+        Broker.GetBlockRequest request = Broker.GetBlockRequest.newBuilder()
+                .setValue(value)
+                .setType(type)
+                .build();
+        return toCompletableFuture(futureStub.getBlock(request));
+    }
+
 
     @Override
     public Broker.Response getChainStatus() {
@@ -265,6 +782,14 @@ public class GrpcClientImpl implements GrpcClient {
         return blockingStub.getInfo(request);
     }
 
+    @Override
+    public CompletableFuture<Broker.Response> getChainStatusAsync() {
+        Broker.Request request = Broker.Request.newBuilder()
+                .setType(Broker.Request.Type.CHAIN_STATUS)
+                .build();
+        return toCompletableFuture(futureStub.getInfo(request));
+    }
+
     @Override
     public Broker.Response getValidators() {
         Broker.Request request = Broker.Request.newBuilder()
@@ -273,6 +798,14 @@ public class GrpcClientImpl implements GrpcClient {
         return blockingStub.getInfo(request);
     }
 
+    @Override
+    public CompletableFuture<Broker.Response> getValidatorsAsync() {
+        Broker.Request request = Broker.Request.newBuilder()
+                .setType(Broker.Request.Type.VALIDATORS)
+                .build();
+        return toCompletableFuture(futureStub.getInfo(request));
+    }
+
     @Override
     public String deployContract(byte[] contract) {
         check(contract != null, "Contract bytes must not be null");
@@ -329,6 +862,48 @@ public class GrpcClientImpl implements GrpcClient {
         return blockingStub.getBlocks(request);
     }
 
+    @Override
+    public CompletableFuture<Broker.GetBlocksResponse> getBlocksAsync(Long start, Long end) {
+        check(start >= 0, "Start must not be negative");
+        check(end >= start, "End must not be negative");
+
+        Broker.GetBlocksRequest request = Broker.GetBlocksRequest.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .build();
+        return toCompletableFuture(futureStub.getBlocks(request));
+    }
+
+    @Override
+    public long getBlocks(Long start, Long end, Consumer<BlockOuterClass.Block> consumer) {
+        check(start >= 0, "Start must not be negative");
+        check(end >= start, "End must not be negative");
+        check(Objects.nonNull(consumer), "Consumer must not be null");
+
+        Broker.GetBlocksRequest request = Broker.GetBlocksRequest.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .build();
+        return ClientCalls.blockingUnaryCall(blockingStub.getChannel(),
+                StreamingBlocksMarshaller.streaming(ChainBrokerGrpc.getGetBlocksMethod(), BlockOuterClass.Block.parser(), consumer),
+                blockingStub.getCallOptions(), request);
+    }
+
+    @Override
+    public CompletableFuture<Long> getBlocksAsync(Long start, Long end, Consumer<BlockOuterClass.Block> consumer) {
+        check(start >= 0, "Start must not be negative");
+        check(end >= start, "End must not be negative");
+        check(Objects.nonNull(consumer), "Consumer must not be null");
+
+        Broker.GetBlocksRequest request = Broker.GetBlocksRequest.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .build();
+        return toCompletableFuture(ClientCalls.futureUnaryCall(futureStub.getChannel().newCall(
+                StreamingBlocksMarshaller.streaming(ChainBrokerGrpc.getGetBlocksMethod(), BlockOuterClass.Block.parser(), consumer),
+                futureStub.getCallOptions()), request));
+    }
+
 
     @Override
     public Broker.GetHappyBlocksResponse getHappyBlocks(Long start, Long end) {
@@ -342,6 +917,48 @@ public class GrpcClientImpl implements GrpcClient {
         return blockingStub.getHappyBlocks(request);
     }
 
+    @Override
+    public CompletableFuture<Broker.GetHappyBlocksResponse> getHappyBlocksAsync(Long start, Long end) {
+        check(start >= 0, "Start must not be negative");
+        check(end >= start, "End must not be negative");
+
+        Broker.GetBlocksRequest request = Broker.GetBlocksRequest.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .build();
+        return toCompletableFuture(futureStub.getHappyBlocks(request));
+    }
+
+    @Override
+    public long getHappyBlocks(Long start, Long end, Consumer<BlockOuterClass.HappyBlock> consumer) {
+        check(start >= 0, "Start must not be negative");
+        check(end >= start, "End must not be negative");
+        check(Objects.nonNull(consumer), "Consumer must not be null");
+
+        Broker.GetBlocksRequest request = Broker.GetBlocksRequest.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .build();
+        return ClientCalls.blockingUnaryCall(blockingStub.getChannel(),
+                StreamingBlocksMarshaller.streaming(ChainBrokerGrpc.getGetHappyBlocksMethod(), BlockOuterClass.HappyBlock.parser(), consumer),
+                blockingStub.getCallOptions(), request);
+    }
+
+    @Override
+    public CompletableFuture<Long> getHappyBlocksAsync(Long start, Long end, Consumer<BlockOuterClass.HappyBlock> consumer) {
+        check(start >= 0, "Start must not be negative");
+        check(end >= start, "End must not be negative");
+        check(Objects.nonNull(consumer), "Consumer must not be null");
+
+        Broker.GetBlocksRequest request = Broker.GetBlocksRequest.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .build();
+        return toCompletableFuture(ClientCalls.futureUnaryCall(futureStub.getChannel().newCall(
+                StreamingBlocksMarshaller.streaming(ChainBrokerGrpc.getGetHappyBlocksMethod(), BlockOuterClass.HappyBlock.parser(), consumer),
+                futureStub.getCallOptions()), request));
+    }
+
 
     @Override
     public Broker.Response getNetworkMeta() {
@@ -351,6 +968,14 @@ public class GrpcClientImpl implements GrpcClient {
         return blockingStub.getInfo(request);
     }
 
+    @Override
+    public CompletableFuture<Broker.Response> getNetworkMetaAsync() {
+        Broker.Request request = Broker.Request.newBuilder()
+                .setType(Broker.Request.Type.NETWORK)
+                .build();
+        return toCompletableFuture(futureStub.getInfo(request));
+    }
+
     @Override
     public Broker.Response getAccountBalance(String address) {
         check(!Strings.isNullOrEmpty(address), "Address must not be null or empty");
@@ -360,12 +985,27 @@ public class GrpcClientImpl implements GrpcClient {
         return blockingStub.getAccountBalance(request);
     }
 
+    @Override
+    public CompletableFuture<Broker.Response> getAccountBalanceAsync(String address) {
+        check(!Strings.isNullOrEmpty(address), "Address must not be null or empty");
+        Broker.Address request = Broker.Address.newBuilder()
+                .setAddress(address)
+                .build();
+        return toCompletableFuture(futureStub.getAccountBalance(request));
+    }
+
     @Override
     public Chain.ChainMeta getChainMeta() {
         Broker.Request request = Broker.Request.newBuilder().build();
         return blockingStub.getChainMeta(request);
     }
 
+    @Override
+    public CompletableFuture<Chain.ChainMeta> getChainMetaAsync() {
+        Broker.Request request = Broker.Request.newBuilder().build();
+        return toCompletableFuture(futureStub.getChainMeta(request));
+    }
+
     @Override
     public void getInterchainTxWrappers(String pid, Long begin, Long end, StreamObserver<Broker.InterchainTxWrappers> streamObserver) {
         check(!Strings.isNullOrEmpty(pid), "Id must not be null or empty");
@@ -380,6 +1020,13 @@ public class GrpcClientImpl implements GrpcClient {
         asyncStub.getInterchainTxWrappers(request, streamObserver);
     }
 
+    @Override
+    public CompletableFuture<List<Broker.InterchainTxWrappers>> getInterchainTxWrappersAsync(String pid, Long begin, Long end) {
+        CollectingObserver<Broker.InterchainTxWrappers> observer = new CollectingObserver<>();
+        getInterchainTxWrappers(pid, begin, end, observer);
+        return observer.future;
+    }
+
     @Override
     public void getBlockHeaders(Long begin, Long end, StreamObserver<BlockOuterClass.BlockHeader> streamObserver) {
         check(Objects.nonNull(streamObserver), "StreamObserver must not be null");
@@ -393,6 +1040,28 @@ public class GrpcClientImpl implements GrpcClient {
         asyncStub.getBlockHeader(request, streamObserver);
     }
 
+    @Override
+    public CompletableFuture<List<BlockOuterClass.BlockHeader>> getBlockHeaderStreamAsync(Long begin, Long end) {
+        CollectingObserver<BlockOuterClass.BlockHeader> observer = new CollectingObserver<>();
+        getBlockHeaders(begin, end, observer);
+        return observer.future;
+    }
+
+    @Override
+    public Publisher<Broker.InterchainTxWrappers> getInterchainTxWrappersPublisher(String pid, Long begin, Long end) {
+        check(!Strings.isNullOrEmpty(pid), "Id must not be null or empty");
+        check(begin >= 0, "begin must not be negative");
+        check(end >= begin, "End must not be negative");
+        return new StreamPublisher<>(observer -> getInterchainTxWrappers(pid, begin, end, observer));
+    }
+
+    @Override
+    public Publisher<BlockOuterClass.BlockHeader> getBlockHeadersPublisher(Long begin, Long end) {
+        check(begin >= 0, "begin must not be negative");
+        check(end >= begin, "end must greater than begin");
+        return new StreamPublisher<>(observer -> getBlockHeaders(begin, end, observer));
+    }
+
     private static void check(boolean test, String message) {
         if (!test) {
             throw new IllegalArgumentException(message);
@@ -411,6 +1080,18 @@ public class GrpcClientImpl implements GrpcClient {
         return blockingStub.getBlockHeaders(request);
     }
 
+    @Override
+    public CompletableFuture<Broker.GetBlockHeadersResponse> getBlockHeadersAsync(Long start, Long end) {
+        check(start >= 0, "start must not be negative");
+        check(end >= start, "end must greater than start");
+
+        Broker.GetBlockHeadersRequest request = Broker.GetBlockHeadersRequest.newBuilder()
+                .setStart(start)
+                .setEnd(end)
+                .build();
+        return toCompletableFuture(futureStub.getBlockHeaders(request));
+    }
+
     @Override
     public Map<String, String> getMultiSigns(Broker.GetMultiSignsRequest.Type type, String content) {
         pb.Broker.GetMultiSignsRequest request = pb.Broker.GetMultiSignsRequest.newBuilder()
@@ -425,12 +1106,33 @@ public class GrpcClientImpl implements GrpcClient {
         return result;
     }
 
+    @Override
+    public CompletableFuture<Map<String, String>> getMultiSignsAsync(Broker.GetMultiSignsRequest.Type type, String content) {
+        pb.Broker.GetMultiSignsRequest request = pb.Broker.GetMultiSignsRequest.newBuilder()
+                .setContent(content)
+                .setType(type)
+                .build();
+        return toCompletableFuture(futureStub.getMultiSigns(request)).thenApply(multiSigns -> {
+            Map<String, String> result = new HashMap<>(32);
+            for (Map.Entry<String, ByteString> e: multiSigns.getSignMap().entrySet()) {
+                result.put(e.getKey(), e.getValue().toStringUtf8());
+            }
+            return result;
+        });
+    }
+
     @Override
     public String getChainID() {
         Broker.Response chainID = blockingStub.getChainID(Broker.Empty.newBuilder().build());
         return chainID.getData().toStringUtf8();
     }
 
+    @Override
+    public CompletableFuture<String> getChainIDAsync() {
+        return toCompletableFuture(futureStub.getChainID(Broker.Empty.newBuilder().build()))
+                .thenApply(chainID -> chainID.getData().toStringUtf8());
+    }
+
     @Override
     public String getTPS(long begin, long end) {
         Broker.GetTPSRequest request = Broker.GetTPSRequest.newBuilder()
@@ -440,5 +1142,94 @@ public class GrpcClientImpl implements GrpcClient {
         Broker.Response response = blockingStub.getTPS(request);
         return response.getData().toStringUtf8();
     }
+
+    @Override
+    public CompletableFuture<String> getTPSAsync(long begin, long end) {
+        Broker.GetTPSRequest request = Broker.GetTPSRequest.newBuilder()
+                .setBegin(begin)
+                .setEnd(end)
+                .build();
+        return toCompletableFuture(futureStub.getTPS(request))
+                .thenApply(response -> response.getData().toStringUtf8());
+    }
+
+    @Override
+    public CompletableFuture<Broker.Response> checkMasterPierAsync(String address) {
+        check(!Strings.isNullOrEmpty(address), "Address must not be null or empty");
+        Broker.Address request = Broker.Address.newBuilder()
+                .setAddress(address)
+                .build();
+        return toCompletableFuture(futureStub.checkMasterPier(request));
+    }
+
+    @Override
+    public CompletableFuture<Broker.Response> setMasterPierAsync(String address, String index, long timeout) {
+        check(!Strings.isNullOrEmpty(address), "Address must not be null or empty");
+        Broker.PierInfo request = Broker.PierInfo.newBuilder()
+                .setAddress(address)
+                .setIndex(index)
+                .setTimeout(timeout)
+                .build();
+        return toCompletableFuture(futureStub.setMasterPier(request));
+    }
+
+    @Override
+    public CompletableFuture<Broker.Response> heartBeatAsync(String address, String index) {
+        check(!Strings.isNullOrEmpty(address), "Address must not be null or empty");
+        Broker.PierInfo request = Broker.PierInfo.newBuilder()
+                .setAddress(address)
+                .setIndex(index)
+                .build();
+        return toCompletableFuture(futureStub.heartBeat(request));
+    }
+
+    /**
+     * Adapt a gRPC ListenableFuture to a CompletableFuture, cancelling the call
+     * when the returned future is cancelled.
+     */
+    private static <T> CompletableFuture<T> toCompletableFuture(ListenableFuture<T> listenableFuture) {
+        CompletableFuture<T> future = new CompletableFuture<T>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                listenableFuture.cancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        Futures.addCallback(listenableFuture, new FutureCallback<T>() {
+            @Override
+            public void onSuccess(T result) {
+                future.complete(result);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                future.completeExceptionally(t);
+            }
+        }, MoreExecutors.directExecutor());
+        return future;
+    }
+
+    /**
+     * Collect all messages of a server stream into a list.
+     */
+    private static class CollectingObserver<T> implements StreamObserver<T> {
+        private final List<T> values = new ArrayList<>();
+        private final CompletableFuture<List<T>> future = new CompletableFuture<>();
+
+        @Override
+        public void onNext(T value) {
+            values.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            future.completeExceptionally(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            future.complete(values);
+        }
+    }
 }
 
@@ -0,0 +1,184 @@
+package cn.dmlab.bitxhub;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+import pb.BlockOuterClass;
+import pb.Transaction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A read only view of a block that decodes its transactions on demand.
+ * <p>
+ * {@code Block.transactions} holds the transactions as a repeated length delimited field 1.
+ * The header, hash and signature are available right away, the offsets of the transactions are
+ * indexed on first access, and a transaction is only decoded when it is asked for. Transaction
+ * bytes are slices of the block's {@link ByteString} and a block parsed by
+ * {@link #parseFrom(ByteString)} shares the bytes of its input, so nothing is copied.
+ */
+public class LazyBlock {
+    private static final int[] EMPTY = new int[0];
+
+    private final BlockOuterClass.Block block;
+
+    /**
+     * Offset and length of every transaction, filled on first access.
+     */
+    private volatile int[] index;
+
+    public LazyBlock(BlockOuterClass.Block block) {
+        this.block = block;
+    }
+
+    /**
+     * Parse a block whose bytes fields share the input instead of copying it.
+     *
+     * @param bytes encoded block
+     * @return lazy block
+     * @throws InvalidProtocolBufferException if the bytes are not a block
+     */
+    public static LazyBlock parseFrom(ByteString bytes) throws InvalidProtocolBufferException {
+        CodedInputStream input = bytes.newCodedInput();
+        input.enableAliasing(true);
+        BlockOuterClass.Block block = BlockOuterClass.Block.parser().parseFrom(input);
+        return new LazyBlock(block);
+    }
+
+    public BlockOuterClass.Block getBlock() {
+        return block;
+    }
+
+    public BlockOuterClass.BlockHeader getBlockHeader() {
+        return block.getBlockHeader();
+    }
+
+    public long getNumber() {
+        return block.getBlockHeader().getNumber();
+    }
+
+    public ByteString getBlockHash() {
+        return block.getBlockHash();
+    }
+
+    public ByteString getSignature() {
+        return block.getSignature();
+    }
+
+    public int getTransactionCount() {
+        return index().length / 2;
+    }
+
+    /**
+     * Encoded bytes of the transaction at i, a slice of the block.
+     */
+    public ByteString getTransactionBytes(int i) {
+        int[] index = index();
+        if (i < 0 || 2 * i >= index.length) {
+            throw new IndexOutOfBoundsException("transaction " + i + " of " + index.length / 2);
+        }
+        return block.getTransactions().substring(index[2 * i], index[2 * i] + index[2 * i + 1]);
+    }
+
+    /**
+     * Decode the transaction at i. Its bytes fields share the block bytes.
+     *
+     * @throws InvalidProtocolBufferException if the entry is not a BxhTransaction
+     */
+    public Transaction.BxhTransaction getTransaction(int i) throws InvalidProtocolBufferException {
+        CodedInputStream input = getTransactionBytes(i).newCodedInput();
+        input.enableAliasing(true);
+        return Transaction.BxhTransaction.parser().parseFrom(input);
+    }
+
+    /**
+     * Read the transaction hash of the transaction at i without decoding the other fields.
+     *
+     * @return the hash, empty if the transaction has none
+     * @throws InvalidProtocolBufferException if the entry is not a BxhTransaction
+     */
+    public ByteString getTransactionHash(int i) throws InvalidProtocolBufferException {
+        CodedInputStream input = getTransactionBytes(i).newCodedInput();
+        input.enableAliasing(true);
+        ByteString hash = ByteString.EMPTY;
+        try {
+            int tag;
+            while ((tag = input.readTag()) != 0) {
+                if (WireFormat.getTagFieldNumber(tag) == Transaction.BxhTransaction.TRANSACTION_HASH_FIELD_NUMBER
+                        && WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                    // the last occurrence wins, as in a full decode
+                    hash = input.readBytes();
+                } else {
+                    input.skipField(tag);
+                }
+            }
+        } catch (InvalidProtocolBufferException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new InvalidProtocolBufferException(e);
+        }
+        return hash;
+    }
+
+    /**
+     * Hashes of the transactions, entries that are not BxhTransactions or carry no hash are skipped.
+     */
+    public List<ByteString> getTransactionHashes() {
+        int count = getTransactionCount();
+        List<ByteString> hashes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            try {
+                ByteString hash = getTransactionHash(i);
+                if (!hash.isEmpty()) {
+                    hashes.add(hash);
+                }
+            } catch (InvalidProtocolBufferException e) {
+                // not a BxhTransaction
+            }
+        }
+        return hashes;
+    }
+
+    private int[] index() {
+        int[] index = this.index;
+        if (index == null) {
+            index = buildIndex(block);
+            this.index = index;
+        }
+        return index;
+    }
+
+    private static int[] buildIndex(BlockOuterClass.Block block) {
+        ByteString transactions = block.getTransactions();
+        if (transactions.isEmpty()) {
+            return EMPTY;
+        }
+        int[] index = new int[16];
+        int size = 0;
+        CodedInputStream input = transactions.newCodedInput();
+        try {
+            int tag;
+            while ((tag = input.readTag()) != 0) {
+                if (WireFormat.getTagFieldNumber(tag) != 1
+                        || WireFormat.getTagWireType(tag) != WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                    input.skipField(tag);
+                    continue;
+                }
+                int length = input.readRawVarint32();
+                if (size == index.length) {
+                    index = Arrays.copyOf(index, size * 2);
+                }
+                index[size++] = input.getTotalBytesRead();
+                index[size++] = length;
+                input.skipRawBytes(length);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("malformed transactions in block " + block.getBlockHeader().getNumber(), e);
+        }
+        return Arrays.copyOf(index, size);
+    }
+}
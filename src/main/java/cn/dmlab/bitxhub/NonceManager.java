@@ -0,0 +1,251 @@
+package cn.dmlab.bitxhub;
+
+import io.grpc.Status;
+import io.grpc.StatusException;
+import io.grpc.StatusRuntimeException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
+import java.util.regex.Pattern;
+
+/**
+ * Client side nonce allocator.
+ * <p>
+ * The pending nonce of an account is fetched from BitXHub once, after that nonces
+ * are handed out by an atomic increment. The fetch only blocks callers of the same account.
+ * Every allocated nonce is in flight until its send is reported with {@link #accepted} or
+ * {@link #failed}. Nonces of transactions that certainly never reached the node are
+ * reclaimed and handed out again before new ones. After a nonce error, or a failure that
+ * leaves open whether the node took the transaction, the account is stale: new callers
+ * wait until the nonces in flight settled and the account is re-seeded from BitXHub, so no
+ * nonce the node may hold is handed out twice and the bad sequence is not extended.
+ */
+@Slf4j
+public class NonceManager {
+
+    /**
+     * Description of the status BitXHub answers a wrong nonce with, e.g. nonce too low.
+     */
+    private static final Pattern NONCE_ERROR = Pattern.compile("\\binvalid nonce\\b", Pattern.CASE_INSENSITIVE);
+
+    private final ToLongFunction<String> pendingNonce;
+    private final ConcurrentMap<String, AccountNonce> accounts = new ConcurrentHashMap<>();
+
+    /**
+     * @param pendingNonce returns the pending nonce of an account from BitXHub
+     */
+    public NonceManager(ToLongFunction<String> pendingNonce) {
+        this.pendingNonce = pendingNonce;
+    }
+
+    /**
+     * Allocate the next nonce of the account, its send must be reported with
+     * {@link #accepted} or {@link #failed}. Blocks while the account is fetched from BitXHub
+     * or waits for a resync.
+     *
+     * @param account account address
+     * @return nonce
+     */
+    public long next(String account) {
+        while (true) {
+            AccountNonce state = accounts.computeIfAbsent(key(account), k -> new AccountNonce());
+            if (!state.seeded) {
+                seed(account, state);
+            }
+            if (state.stale) {
+                awaitDropped(state);
+                continue;
+            }
+            state.inFlight.incrementAndGet();
+            // a resync that missed this allocation must not drop the state under it
+            if (state.stale) {
+                settle(account, state);
+                continue;
+            }
+            Long reclaimed = state.reclaimed.pollFirst();
+            if (reclaimed != null) {
+                return reclaimed;
+            }
+            return state.next.getAndIncrement();
+        }
+    }
+
+    /**
+     * The node accepted the transaction of an allocated nonce.
+     *
+     * @param account account address
+     */
+    public void accepted(String account) {
+        AccountNonce state = accounts.get(key(account));
+        if (state != null) {
+            settle(account, state);
+        }
+    }
+
+    /**
+     * Give back a nonce whose transaction was not accepted by BitXHub,
+     * so that it is allocated again instead of leaving a gap.
+     *
+     * @param account account address
+     * @param nonce   allocated nonce
+     */
+    public void release(String account, long nonce) {
+        AccountNonce state = accounts.get(key(account));
+        if (state == null) {
+            return;
+        }
+        if (nonce < state.next.get() && !state.next.compareAndSet(nonce + 1, nonce)) {
+            state.reclaimed.add(nonce);
+        }
+        settle(account, state);
+    }
+
+    /**
+     * Fetch the pending nonce of the account from BitXHub again, new allocations wait until
+     * no nonce of the account is in flight.
+     *
+     * @param account account address
+     */
+    public void resync(String account) {
+        AccountNonce state = accounts.get(key(account));
+        if (state == null) {
+            return;
+        }
+        state.stale = true;
+        dropIfSettled(account, state);
+    }
+
+    /**
+     * Handle a failed send of a transaction carrying an allocated nonce.
+     * The nonce is released if the call certainly never reached the node: it failed before
+     * it was sent, or the node rejected it for another reason than the nonce. Otherwise the
+     * node may hold the nonce, and the account is stale until the sends in flight settled.
+     *
+     * @param account account address
+     * @param nonce   allocated nonce
+     * @param cause   send failure
+     */
+    public void failed(String account, long nonce, Throwable cause) {
+        if (isNonceError(cause)) {
+            log.warn("nonce {} of {} is rejected, resync from BitXHub: {}", nonce, account, cause.getMessage());
+        } else if (neverReachedNode(cause)) {
+            release(account, nonce);
+            return;
+        } else {
+            log.warn("send of nonce {} of {} failed, resync from BitXHub: {}", nonce, account, cause.getMessage());
+        }
+        AccountNonce state = accounts.get(key(account));
+        if (state != null) {
+            state.stale = true;
+            settle(account, state);
+        }
+    }
+
+    /**
+     * Whether the node rejected the nonce of the transaction, e.g. nonce too low or too high.
+     *
+     * @param cause send failure
+     * @return is nonce error
+     */
+    public static boolean isNonceError(Throwable cause) {
+        Status status = status(cause);
+        return status != null && status.getDescription() != null
+                && NONCE_ERROR.matcher(status.getDescription()).find();
+    }
+
+    /**
+     * Whether the failed call certainly did not hand the transaction to the node.
+     */
+    static boolean neverReachedNode(Throwable cause) {
+        Status status = status(cause);
+        if (status == null) {
+            // thrown before the call, e.g. by signing
+            return true;
+        }
+        switch (status.getCode()) {
+            case INVALID_ARGUMENT:
+            case FAILED_PRECONDITION:
+            case PERMISSION_DENIED:
+            case UNAUTHENTICATED:
+            case UNIMPLEMENTED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Status of the grpc failure in the causes, null if the failure did not come from a call.
+     */
+    private static Status status(Throwable cause) {
+        for (Throwable t = cause; t != null; t = t.getCause()) {
+            if (t instanceof StatusRuntimeException) {
+                return ((StatusRuntimeException) t).getStatus();
+            }
+            if (t instanceof StatusException) {
+                return ((StatusException) t).getStatus();
+            }
+        }
+        return null;
+    }
+
+    private void seed(String account, AccountNonce state) {
+        synchronized (state) {
+            if (!state.seeded) {
+                state.next.set(pendingNonce.applyAsLong(account));
+                state.seeded = true;
+            }
+        }
+    }
+
+    private void awaitDropped(AccountNonce state) {
+        synchronized (state) {
+            while (!state.dropped) {
+                try {
+                    state.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrupted while waiting for the nonce resync", e);
+                }
+            }
+        }
+    }
+
+    private void settle(String account, AccountNonce state) {
+        state.inFlight.decrementAndGet();
+        dropIfSettled(account, state);
+    }
+
+    private void dropIfSettled(String account, AccountNonce state) {
+        if (state.stale && state.inFlight.get() <= 0) {
+            synchronized (state) {
+                if (!state.dropped) {
+                    state.dropped = true;
+                    accounts.remove(key(account), state);
+                    state.notifyAll();
+                }
+            }
+        }
+    }
+
+    private static String key(String account) {
+        return account.toLowerCase(Locale.ROOT);
+    }
+
+    private static class AccountNonce {
+        private final AtomicLong next = new AtomicLong();
+        private final ConcurrentSkipListSet<Long> reclaimed = new ConcurrentSkipListSet<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        // Set once, seeding is guarded by this.
+        private volatile boolean seeded;
+        private volatile boolean stale;
+        // Guarded by this.
+        private boolean dropped;
+    }
+}
@@ -0,0 +1,105 @@
+package cn.dmlab.bitxhub;
+
+import cn.dmlab.utils.ByteUtil;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.ByteString;
+import lombok.extern.slf4j.Slf4j;
+import pb.BlockOuterClass;
+import pb.Transaction;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Confirms the transactions of a {@link TransactionOutbox} once they are minted.
+ * <p>
+ * Every interval the blocks minted since the last check are fetched and the transactions in
+ * them are confirmed, however late they were minted and without a receipt poll per send.
+ * The first check does not know where to start, it fetches the receipts of the unconfirmed
+ * transactions once instead. A failed check is retried at the next interval, nothing is
+ * given up.
+ */
+@Slf4j
+class OutboxConfirmer implements Closeable {
+
+    /**
+     * Heights fetched per call.
+     */
+    static final int CHUNK = 100;
+
+    /**
+     * Fetches the blocks of a range of heights.
+     */
+    interface Blocks {
+        void fetch(long start, long end, Consumer<BlockOuterClass.Block> consumer);
+    }
+
+    private final TransactionOutbox outbox;
+    private final LongSupplier head;
+    private final Blocks blocks;
+    private final Predicate<String> minted;
+    private final ScheduledExecutorService executor;
+
+    // Only touched on the executor, -1 until the first check.
+    private long checked = -1;
+
+    /**
+     * @param outbox   outbox to confirm
+     * @param head     height of the chain
+     * @param blocks   fetch the blocks of a range
+     * @param minted   whether the tx hash has a receipt
+     * @param interval time between two checks, in milliseconds
+     */
+    OutboxConfirmer(TransactionOutbox outbox, LongSupplier head, Blocks blocks, Predicate<String> minted,
+                    long interval) {
+        this.outbox = outbox;
+        this.head = head;
+        this.blocks = blocks;
+        this.minted = minted;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("bitxhub-outbox-confirmer-%d")
+                .setDaemon(true)
+                .build());
+        executor.scheduleWithFixedDelay(this::check, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void check() {
+        try {
+            // read first, a transaction appended after it is minted above it
+            long height = head.getAsLong();
+            if (checked < 0) {
+                for (Transaction.BxhTransaction transaction : outbox.unconfirmed()) {
+                    String txHash = TransactionOutbox.hash(transaction);
+                    if (minted.test(txHash)) {
+                        outbox.confirm(txHash);
+                    }
+                }
+            } else if (outbox.getUnconfirmedCount() > 0) {
+                for (long from = checked + 1; from <= height; from = checked + 1) {
+                    long to = Math.min(height, from + CHUNK - 1);
+                    blocks.fetch(from, to, this::confirm);
+                    checked = to;
+                }
+            }
+            checked = Math.max(checked, height);
+        } catch (RuntimeException e) {
+            log.warn("outbox check after height {} failed: {}", checked, e.getMessage());
+        }
+    }
+
+    private void confirm(BlockOuterClass.Block block) {
+        for (ByteString hash : new LazyBlock(block).getTransactionHashes()) {
+            outbox.confirm(ByteUtil.toHexStringWithOx(hash.toByteArray()));
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
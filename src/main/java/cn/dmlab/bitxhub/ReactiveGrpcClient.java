@@ -0,0 +1,52 @@
+package cn.dmlab.bitxhub;
+
+import org.reactivestreams.Publisher;
+import pb.AuditInfo;
+import pb.BlockOuterClass;
+import pb.Broker;
+
+/**
+ * Reactive Streams counterpart of the streaming RPCs of {@link GrpcClient}.
+ * <p>
+ * Every subscriber of a returned publisher starts a call of its own. The demand of the
+ * subscriber is passed to grpc as inbound flow control, so the server only sends what was
+ * requested. Use {@link BatchingPublisher} to receive the items in lists.
+ */
+public interface ReactiveGrpcClient {
+
+    /**
+     * Publisher of event notifications from BitXHub.
+     *
+     * @param type subscribe type
+     * @return publisher of the notifications
+     */
+    Publisher<Broker.Response> subscribePublisher(Broker.SubscriptionRequest.Type type);
+
+    /**
+     * Publisher of audit info from BitXHub.
+     *
+     * @param type        subscribe type
+     * @param blockHeight the starting block height of the subscription data
+     * @return publisher of the audit info
+     */
+    Publisher<Broker.Response> subscribeAuditInfoPublisher(AuditInfo.AuditSubscriptionRequest.Type type, Long blockHeight);
+
+    /**
+     * Publisher of the interchain tx wrappers of a range of blocks.
+     *
+     * @param pid   app-chain id.
+     * @param begin begin signal
+     * @param end   end signal
+     * @return publisher of the wrappers
+     */
+    Publisher<Broker.InterchainTxWrappers> getInterchainTxWrappersPublisher(String pid, Long begin, Long end);
+
+    /**
+     * Publisher of the block headers of a range of blocks.
+     *
+     * @param begin begin signal
+     * @param end   end signal
+     * @return publisher of the headers
+     */
+    Publisher<BlockOuterClass.BlockHeader> getBlockHeadersPublisher(Long begin, Long end);
+}
@@ -0,0 +1,314 @@
+package cn.dmlab.bitxhub;
+
+import cn.dmlab.utils.ByteUtil;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import lombok.extern.slf4j.Slf4j;
+import pb.Broker;
+import pb.ReceiptOuterClass;
+
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Waits for transaction receipts on one shared block subscription.
+ * <p>
+ * Every incoming block is matched against the pending tx hashes and the receipt is
+ * fetched as soon as the block carrying the tx arrives. Polling with exponential
+ * backoff is kept as a fallback for txs the subscription does not deliver, e.g. while
+ * the stream is reconnecting or when the tx was minted before it was registered.
+ */
+@Slf4j
+class ReceiptWaiter {
+    private static final long MIN_POLL_DELAY = 200L;
+    private static final long MAX_POLL_DELAY = 5000L;
+    private static final long RESUBSCRIBE_DELAY = 1000L;
+
+    private final Function<String, CompletableFuture<ReceiptOuterClass.Receipt>> fetcher;
+    private final Consumer<StreamObserver<Broker.Response>> subscriber;
+    private final ScheduledExecutorService scheduler;
+    private final long timeout;
+
+    private final ConcurrentMap<String, Pending> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+    private volatile ClientCallStreamObserver<?> stream;
+    private volatile boolean closed;
+
+    // Smoothed interval between two blocks, used to pace the fallback polling.
+    private volatile long blockInterval = MIN_POLL_DELAY;
+    private volatile long lastBlockTime;
+
+    /**
+     * @param fetcher    fetch the receipt of a tx hash once
+     * @param subscriber open a BLOCK subscription with the observer
+     * @param scheduler  scheduler of the fallback polling
+     * @param timeout    how long to wait for a receipt, in milliseconds
+     */
+    ReceiptWaiter(Function<String, CompletableFuture<ReceiptOuterClass.Receipt>> fetcher,
+                  Consumer<StreamObserver<Broker.Response>> subscriber,
+                  ScheduledExecutorService scheduler,
+                  long timeout) {
+        this.fetcher = fetcher;
+        this.subscriber = subscriber;
+        this.scheduler = scheduler;
+        this.timeout = timeout;
+    }
+
+    /**
+     * Wait for the receipt of the tx.
+     *
+     * @param hash tx hash
+     * @return future of the receipt, completed with the last query error or a
+     * {@link TimeoutException} if the receipt is not available in time.
+     */
+    CompletableFuture<ReceiptOuterClass.Receipt> await(String hash) {
+        return await(hash, null);
+    }
+
+    /**
+     * Wait for the receipt of the tx, the trace reaches {@link TxTrace.Stage#BLOCK_OBSERVED}
+     * when the block of the tx arrives.
+     *
+     * @param hash  tx hash
+     * @param trace trace of the tx, or null
+     * @return future of the receipt
+     */
+    CompletableFuture<ReceiptOuterClass.Receipt> await(String hash, TxTrace trace) {
+        if (closed) {
+            CompletableFuture<ReceiptOuterClass.Receipt> future = new CompletableFuture<>();
+            future.completeExceptionally(new IllegalStateException("Receipt waiter is closed"));
+            return future;
+        }
+        String key = normalize(hash);
+        Pending created = new Pending(key, hash, trace);
+        Pending p = pending.putIfAbsent(key, created);
+        if (p != null) {
+            return p.future;
+        }
+
+        subscribe();
+        created.timeoutTask = scheduler.schedule(() -> expire(created), timeout, TimeUnit.MILLISECONDS);
+        schedulePoll(created, subscribed.get() ? Math.max(MIN_POLL_DELAY, 2 * blockInterval) : MIN_POLL_DELAY);
+        return created.future;
+    }
+
+    /**
+     * Cancel the block subscription and fail all pending waits.
+     */
+    void close() {
+        closed = true;
+        ClientCallStreamObserver<?> s = stream;
+        if (s != null) {
+            s.cancel("receipt waiter closed", null);
+        }
+        for (Pending p : pending.values()) {
+            fail(p, new IllegalStateException("Receipt waiter is closed"));
+        }
+    }
+
+    int pendingCount() {
+        return pending.size();
+    }
+
+    private void subscribe() {
+        if (closed || !subscribed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            subscriber.accept(new BlockObserver());
+        } catch (RuntimeException e) {
+            log.warn("subscribe block for receipts failed: {}", e.getMessage());
+            resubscribeLater();
+        }
+    }
+
+    private void resubscribeLater() {
+        stream = null;
+        subscribed.set(false);
+        if (closed) {
+            return;
+        }
+        scheduler.schedule(() -> {
+            if (!pending.isEmpty()) {
+                subscribe();
+            }
+        }, RESUBSCRIBE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    private void onBlock(LazyBlock block) {
+        long now = System.currentTimeMillis();
+        if (lastBlockTime != 0) {
+            blockInterval = (blockInterval * 7 + (now - lastBlockTime)) / 8;
+        }
+        lastBlockTime = now;
+
+        if (pending.isEmpty()) {
+            return;
+        }
+        for (ByteString txHash : block.getTransactionHashes()) {
+            Pending p = pending.get(normalize(ByteUtil.toHexStringWithOx(txHash.toByteArray())));
+            if (p != null) {
+                if (p.trace != null) {
+                    p.trace.reach(TxTrace.Stage.BLOCK_OBSERVED);
+                }
+                fetch(p, MIN_POLL_DELAY);
+            }
+        }
+    }
+
+    /**
+     * Replace the scheduled poll of the tx, there is at most one.
+     */
+    private void schedulePoll(Pending p, long delay) {
+        synchronized (p) {
+            if (p.future.isDone() || p.fetching) {
+                return;
+            }
+            if (p.pollTask != null) {
+                p.pollTask.cancel(false);
+            }
+            long d = Math.min(delay, MAX_POLL_DELAY);
+            p.pollTask = scheduler.schedule(() -> fetch(p, d * 2), d, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Fetch the receipt, unless a fetch of the tx is in flight already. The scheduled poll is
+     * cancelled and the next one is scheduled after the fetch failed, so a tx has one fetch or
+     * one poll at a time.
+     */
+    private void fetch(Pending p, long retryDelay) {
+        synchronized (p) {
+            if (p.future.isDone()) {
+                return;
+            }
+            if (p.fetching) {
+                // the fetch in flight retries that soon if it fails
+                p.retryDelay = Math.min(p.retryDelay, retryDelay);
+                return;
+            }
+            p.fetching = true;
+            p.retryDelay = retryDelay;
+            if (p.pollTask != null) {
+                p.pollTask.cancel(false);
+                p.pollTask = null;
+            }
+        }
+        CompletableFuture<ReceiptOuterClass.Receipt> fetched;
+        try {
+            fetched = fetcher.apply(p.hash);
+        } catch (RuntimeException e) {
+            fetched = new CompletableFuture<>();
+            fetched.completeExceptionally(e);
+        }
+        fetched.whenComplete((receipt, e) -> {
+            if (receipt != null) {
+                complete(p, receipt);
+                return;
+            }
+            p.lastError = e;
+            long delay;
+            synchronized (p) {
+                p.fetching = false;
+                delay = p.retryDelay;
+            }
+            schedulePoll(p, delay);
+        });
+    }
+
+    private void complete(Pending p, ReceiptOuterClass.Receipt receipt) {
+        if (pending.remove(p.key, p)) {
+            cancelTasks(p);
+            p.future.complete(receipt);
+        }
+    }
+
+    private void expire(Pending p) {
+        Throwable cause = p.lastError;
+        if (cause == null) {
+            cause = new TimeoutException("Receipt of " + p.hash + " is not available in " + timeout + "ms");
+        }
+        fail(p, cause);
+    }
+
+    private void fail(Pending p, Throwable cause) {
+        if (pending.remove(p.key, p)) {
+            cancelTasks(p);
+            p.future.completeExceptionally(cause);
+        }
+    }
+
+    private static void cancelTasks(Pending p) {
+        if (p.pollTask != null) {
+            p.pollTask.cancel(false);
+        }
+        if (p.timeoutTask != null) {
+            p.timeoutTask.cancel(false);
+        }
+    }
+
+    private static String normalize(String hash) {
+        String lower = hash.toLowerCase(Locale.ROOT);
+        return lower.startsWith("0x") ? lower.substring(2) : lower;
+    }
+
+    private class BlockObserver implements ClientResponseObserver<Broker.SubscriptionRequest, Broker.Response> {
+        @Override
+        public void beforeStart(ClientCallStreamObserver<Broker.SubscriptionRequest> requestStream) {
+            stream = requestStream;
+        }
+
+        @Override
+        public void onNext(Broker.Response response) {
+            try {
+                onBlock(LazyBlock.parseFrom(response.getData()));
+            } catch (InvalidProtocolBufferException | IllegalStateException e) {
+                log.warn("decode subscribed block failed: {}", e.getMessage());
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (!closed) {
+                log.warn("block subscription for receipts broken: {}", t.getMessage());
+            }
+            resubscribeLater();
+        }
+
+        @Override
+        public void onCompleted() {
+            resubscribeLater();
+        }
+    }
+
+    private static class Pending {
+        private final String key;
+        private final String hash;
+        private final TxTrace trace;
+        private final CompletableFuture<ReceiptOuterClass.Receipt> future = new CompletableFuture<>();
+        private volatile Throwable lastError;
+        // Guarded by this.
+        private boolean fetching;
+        private long retryDelay;
+        private volatile ScheduledFuture<?> pollTask;
+        private volatile ScheduledFuture<?> timeoutTask;
+
+        private Pending(String key, String hash, TxTrace trace) {
+            this.key = key;
+            this.hash = hash;
+            this.trace = trace;
+        }
+    }
+}
@@ -0,0 +1,436 @@
+package cn.dmlab.bitxhub;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Parser;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import lombok.extern.slf4j.Slf4j;
+import pb.AuditInfo;
+import pb.BlockOuterClass;
+import pb.Broker;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToLongFunction;
+
+/**
+ * A subscription that survives broken streams.
+ * <p>
+ * The height of the last delivered item is tracked. When the stream fails or ends, it is opened
+ * again after a jittered exponential backoff, and the observer sees every height exactly once
+ * and in order:
+ * <ul>
+ * <li>block and block header streams start at the chain head, a gap between the last delivered
+ * height and the first live item is fetched with {@code GetBlocks} or {@code GetBlockHeaders}
+ * before the live item is delivered;</li>
+ * <li>the audit info stream starts at a given height, it is opened again at the last delivered
+ * height and the items of that height that were already delivered are skipped.</li>
+ * </ul>
+ * Items the observer already got are dropped. A gap is fetched asynchronously, live items that
+ * arrive meanwhile wait in a bounded buffer. When the buffer is full further live items are
+ * dropped, the gap they leave is fetched once the buffer is delivered. The observer is called on one
+ * thread of the subscription. It only gets {@code onError} for errors that a retry does not
+ * fix, like {@code PERMISSION_DENIED}, and {@code onCompleted} once the subscription is closed.
+ *
+ * @param <T> item type
+ */
+@Slf4j
+public class ResilientSubscription<T> implements Closeable {
+
+    static final long MIN_BACKOFF_MILLIS = 500;
+    static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    /**
+     * Heights fetched per call while filling a gap.
+     */
+    static final int BACKFILL_CHUNK = 100;
+
+    /**
+     * Live items kept while a gap is fetched.
+     */
+    static final int MAX_BUFFERED = 1024;
+
+    /**
+     * Opens the server stream.
+     */
+    interface Subscriber {
+        /**
+         * @param height   first height the stream should deliver, ignored by streams that start at the head
+         * @param observer observer of the stream
+         */
+        void subscribe(long height, StreamObserver<Broker.Response> observer);
+    }
+
+    /**
+     * Fetches the items of a range of heights.
+     */
+    interface Backfill<T> {
+        CompletableFuture<List<T>> fetch(long start, long end);
+    }
+
+    private final Subscriber subscriber;
+    private final Parser<T> parser;
+    private final ToLongFunction<T> heightOf;
+    private final Backfill<T> backfill;
+    private final StreamObserver<? super T> observer;
+    private final long minBackoffMillis;
+    private final long maxBackoffMillis;
+    private final int maxBuffered;
+    private final ScheduledExecutorService executor;
+
+    // Only touched on the executor.
+    private long lastHeight;
+    private int deliveredAtLast;
+    private int skip;
+    private int attempts;
+    private Stream stream;
+    private boolean filling;
+    private final Deque<T> buffered = new ArrayDeque<>();
+    private boolean closed;
+
+    ResilientSubscription(Subscriber subscriber, Parser<T> parser, ToLongFunction<T> heightOf, Backfill<T> backfill,
+                          long startHeight, StreamObserver<? super T> observer,
+                          long minBackoffMillis, long maxBackoffMillis) {
+        this(subscriber, parser, heightOf, backfill, startHeight, observer, minBackoffMillis, maxBackoffMillis,
+                MAX_BUFFERED);
+    }
+
+    ResilientSubscription(Subscriber subscriber, Parser<T> parser, ToLongFunction<T> heightOf, Backfill<T> backfill,
+                          long startHeight, StreamObserver<? super T> observer,
+                          long minBackoffMillis, long maxBackoffMillis, int maxBuffered) {
+        this.subscriber = subscriber;
+        this.parser = parser;
+        this.heightOf = heightOf;
+        this.backfill = backfill;
+        this.observer = observer;
+        this.minBackoffMillis = minBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        this.maxBuffered = maxBuffered;
+        this.lastHeight = startHeight - 1;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("bitxhub-resilient-subscription-%d")
+                .setDaemon(true)
+                .build());
+        executor.execute(this::connect);
+    }
+
+    /**
+     * Subscribe to blocks.
+     *
+     * @param client      client to subscribe and backfill with
+     * @param startHeight first height to deliver, 0 to start with the next new block
+     * @param observer    observer of the blocks
+     */
+    public static <C extends GrpcClient & AsyncGrpcClient> ResilientSubscription<BlockOuterClass.Block> blocks(
+            C client, long startHeight, StreamObserver<? super BlockOuterClass.Block> observer) {
+        return new ResilientSubscription<>(
+                (height, o) -> client.subscribe(Broker.SubscriptionRequest.Type.BLOCK, o),
+                BlockOuterClass.Block.parser(),
+                block -> block.getBlockHeader().getNumber(),
+                (start, end) -> {
+                    List<BlockOuterClass.Block> blocks = new ArrayList<>();
+                    return client.getBlocksAsync(start, end, blocks::add)
+                            .thenApply(count -> blocks);
+                },
+                startHeight, observer, MIN_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Subscribe to block headers.
+     *
+     * @param client      client to subscribe and backfill with
+     * @param startHeight first height to deliver, 0 to start with the next new header
+     * @param observer    observer of the headers
+     */
+    public static <C extends GrpcClient & AsyncGrpcClient> ResilientSubscription<BlockOuterClass.BlockHeader> blockHeaders(
+            C client, long startHeight, StreamObserver<? super BlockOuterClass.BlockHeader> observer) {
+        return new ResilientSubscription<>(
+                (height, o) -> client.subscribe(Broker.SubscriptionRequest.Type.BLOCK_HEADER, o),
+                BlockOuterClass.BlockHeader.parser(),
+                BlockOuterClass.BlockHeader::getNumber,
+                (start, end) -> client.getBlockHeadersAsync(start, end)
+                        .thenApply(Broker.GetBlockHeadersResponse::getBlockHeadersList),
+                startHeight, observer, MIN_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Subscribe to audit info.
+     *
+     * @param client      client to subscribe with
+     * @param type        audit subscription type
+     * @param startHeight first height to deliver
+     * @param observer    observer of the audit tx infos
+     */
+    public static ResilientSubscription<AuditInfo.AuditTxInfo> auditInfo(
+            GrpcClient client, AuditInfo.AuditSubscriptionRequest.Type type, long startHeight,
+            StreamObserver<? super AuditInfo.AuditTxInfo> observer) {
+        return new ResilientSubscription<>(
+                (height, o) -> client.subscribeAuditInfo(type, height, o),
+                AuditInfo.AuditTxInfo.parser(),
+                AuditInfo.AuditTxInfo::getBlockHeight,
+                null,
+                startHeight, observer, MIN_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+    }
+
+    /**
+     * Cancel the stream, the observer gets {@code onCompleted}.
+     */
+    @Override
+    public void close() {
+        try {
+            executor.execute(() -> finish(null));
+        } catch (RejectedExecutionException e) {
+            // already finished
+        }
+    }
+
+    private void connect() {
+        if (closed) {
+            return;
+        }
+        Stream s = new Stream();
+        stream = s;
+        long from;
+        if (backfill != null) {
+            from = lastHeight + 1;
+        } else {
+            // the stream replays the last height, skip what was delivered of it
+            from = deliveredAtLast > 0 ? lastHeight : lastHeight + 1;
+            skip = deliveredAtLast;
+        }
+        try {
+            subscriber.subscribe(from, s);
+        } catch (RuntimeException e) {
+            reconnect(s, e);
+        }
+    }
+
+    private void reconnect(Stream s, Throwable t) {
+        if (closed || stream != s) {
+            return;
+        }
+        stream = null;
+        s.cancel();
+        if (t != null && !retryable(Status.fromThrowable(t).getCode())) {
+            finish(t);
+            return;
+        }
+        long delay = Math.min(maxBackoffMillis, minBackoffMillis << Math.min(attempts, 20));
+        delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        attempts++;
+        log.warn("subscription broken at height {}, reconnect in {}ms: {}", lastHeight, delay,
+                t == null ? "stream completed" : t.getMessage());
+        executor.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void onItem(Stream s, T item) {
+        if (closed || stream != s) {
+            return;
+        }
+        accept(item);
+    }
+
+    private void accept(T item) {
+        long height = heightOf.applyAsLong(item);
+        if (backfill != null) {
+            if (filling) {
+                if (buffered.size() < maxBuffered) {
+                    buffered.addLast(item);
+                } else {
+                    log.debug("subscription buffer full, drop live item at height {}", height);
+                }
+                return;
+            }
+            if (height <= lastHeight) {
+                return;
+            }
+            if (lastHeight >= 0 && height > lastHeight + 1) {
+                // while draining the buffer the item came from its head
+                buffered.addFirst(item);
+                filling = true;
+                fill(lastHeight + 1, height - 1);
+                return;
+            }
+        } else {
+            if (height < lastHeight) {
+                return;
+            }
+            if (height == lastHeight && skip > 0) {
+                skip--;
+                return;
+            }
+        }
+        deliver(item);
+        attempts = 0;
+    }
+
+    /**
+     * Fetch the next chunk of the range, the buffered live items follow once it is filled. A
+     * broken stream does not stop the fill, the fetched and buffered items are valid anyway.
+     */
+    private void fill(long from, long end) {
+        long to = Math.min(end, from + BACKFILL_CHUNK - 1);
+        CompletableFuture<List<T>> future;
+        try {
+            future = backfill.fetch(from, to);
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        future.whenComplete((items, t) -> {
+            try {
+                executor.execute(() -> onFilled(from, end, items, t));
+            } catch (RejectedExecutionException e) {
+                // the subscription is closed
+            }
+        });
+    }
+
+    private void onFilled(long from, long end, List<T> items, Throwable t) {
+        if (closed) {
+            return;
+        }
+        if (t == null) {
+            long reached = from - 1;
+            for (T item : items) {
+                long height = heightOf.applyAsLong(item);
+                if (height > lastHeight && height <= end) {
+                    deliver(item);
+                }
+                reached = Math.max(reached, height);
+            }
+            if (reached < from) {
+                t = new IllegalStateException("no items from height " + from);
+            } else if (reached < end) {
+                fill(reached + 1, end);
+                return;
+            }
+        }
+        if (t != null) {
+            Throwable cause = t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+            log.warn("backfill heights {} to {} failed: {}", from, end, cause.getMessage());
+            // the next stream finds the gap again
+            filling = false;
+            buffered.clear();
+            if (stream != null) {
+                reconnect(stream, Status.UNAVAILABLE.withCause(cause).asRuntimeException());
+            }
+            return;
+        }
+        filling = false;
+        while (!filling && !buffered.isEmpty()) {
+            accept(buffered.pollFirst());
+        }
+    }
+
+    private void deliver(T item) {
+        long height = heightOf.applyAsLong(item);
+        if (height == lastHeight) {
+            deliveredAtLast++;
+        } else {
+            lastHeight = height;
+            deliveredAtLast = 1;
+        }
+        try {
+            observer.onNext(item);
+        } catch (RuntimeException e) {
+            log.error("subscription observer failed at height {}", height, e);
+        }
+    }
+
+    private void finish(Throwable t) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (stream != null) {
+            stream.cancel();
+            stream = null;
+        }
+        executor.shutdown();
+        if (t == null) {
+            observer.onCompleted();
+        } else {
+            observer.onError(t);
+        }
+    }
+
+    private static boolean retryable(Status.Code code) {
+        switch (code) {
+            case INVALID_ARGUMENT:
+            case PERMISSION_DENIED:
+            case UNAUTHENTICATED:
+            case UNIMPLEMENTED:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * One server stream, callbacks of a replaced stream are ignored.
+     */
+    private class Stream implements ClientResponseObserver<Object, Broker.Response> {
+        private volatile ClientCallStreamObserver<?> call;
+        private volatile boolean cancelled;
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<Object> requestStream) {
+            call = requestStream;
+            if (cancelled) {
+                requestStream.cancel("subscription replaced", null);
+            }
+        }
+
+        @Override
+        public void onNext(Broker.Response response) {
+            T item;
+            try {
+                item = parser.parseFrom(response.getData());
+            } catch (InvalidProtocolBufferException e) {
+                log.warn("decode subscribed item failed: {}", e.getMessage());
+                return;
+            }
+            execute(() -> onItem(this, item));
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            execute(() -> reconnect(this, t));
+        }
+
+        @Override
+        public void onCompleted() {
+            execute(() -> reconnect(this, null));
+        }
+
+        void cancel() {
+            cancelled = true;
+            ClientCallStreamObserver<?> c = call;
+            if (c != null) {
+                c.cancel("subscription replaced", null);
+            }
+        }
+
+        private void execute(Runnable task) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // the subscription is closed
+            }
+        }
+    }
+}
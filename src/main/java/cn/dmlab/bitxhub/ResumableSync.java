@@ -0,0 +1,185 @@
+package cn.dmlab.bitxhub;
+
+import cn.dmlab.crypto.HashUtil;
+import pb.BlockOuterClass;
+import pb.Broker;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Sync streams that continue where the last run stopped.
+ * <p>
+ * After an item was handed to the consumer, its height is saved to the checkpoint store, so a
+ * restarted process resumes after the last processed item. Before resuming, the chain is checked
+ * against the checkpoint:
+ * <ul>
+ * <li>blocks: the parent hash of the first new block must be the hash of the checkpoint block;</li>
+ * <li>block headers: a header carries no hash of its own, the header at the checkpoint height is
+ * fetched again and its SHA-256 must match the one saved;</li>
+ * <li>interchain tx wrappers: no check, the wrappers carry no block hash.</li>
+ * </ul>
+ * A mismatch throws {@link CheckpointMismatchException}, the caller decides how far to roll back.
+ */
+public class ResumableSync {
+
+    public static final String BLOCKS = "blocks";
+    public static final String BLOCK_HEADERS = "block-headers";
+    public static final String INTERCHAIN_TX_WRAPPERS = "interchain-tx-wrappers:";
+
+    /**
+     * Heights fetched per call for headers and interchain tx wrappers.
+     */
+    static final int CHUNK = 100;
+
+    private final AsyncGrpcClient client;
+    private final BlockSyncer blockSyncer;
+    private final CheckpointStore store;
+
+    public ResumableSync(AsyncGrpcClient client, CheckpointStore store) {
+        this(client, new BlockSyncer(client), store);
+    }
+
+    public ResumableSync(AsyncGrpcClient client, BlockSyncer blockSyncer, CheckpointStore store) {
+        this.client = client;
+        this.blockSyncer = blockSyncer;
+        this.store = store;
+    }
+
+    /**
+     * Sync blocks up to end.
+     *
+     * @param start    first height if the stream has no checkpoint
+     * @param end      last height
+     * @param consumer called for every new block in height order
+     * @return last processed height
+     */
+    public long syncBlocks(long start, long end, Consumer<BlockOuterClass.Block> consumer) {
+        Checkpoint checkpoint = store.load(BLOCKS);
+        long from = checkpoint == null ? start : checkpoint.getHeight() + 1;
+        if (from > end) {
+            return from - 1;
+        }
+        boolean[] first = {checkpoint != null && checkpoint.getHash().length > 0};
+        try {
+            return blockSyncer.sync(from, end, block -> {
+                BlockOuterClass.BlockHeader header = block.getBlockHeader();
+                if (first[0]) {
+                    first[0] = false;
+                    if (!Arrays.equals(checkpoint.getHash(), header.getParentHash().toByteArray())) {
+                        throw new CheckpointMismatchException(BLOCKS, checkpoint.getHeight(),
+                                "parent hash of block " + header.getNumber() + " does not match checkpoint");
+                    }
+                }
+                consumer.accept(block);
+                store.save(BLOCKS, new Checkpoint(header.getNumber(), block.getBlockHash().toByteArray()));
+            });
+        } finally {
+            store.flush();
+        }
+    }
+
+    /**
+     * Sync block headers up to end.
+     *
+     * @param start    first height if the stream has no checkpoint
+     * @param end      last height
+     * @param consumer called for every new header in height order
+     * @return last processed height
+     */
+    public long syncBlockHeaders(long start, long end, Consumer<BlockOuterClass.BlockHeader> consumer) {
+        Checkpoint checkpoint = store.load(BLOCK_HEADERS);
+        if (checkpoint != null && checkpoint.getHeight() >= end) {
+            return checkpoint.getHeight();
+        }
+        long last = checkpoint == null ? start - 1 : checkpoint.getHeight();
+        // fetch the checkpoint header again to check it is still on the chain
+        long from = checkpoint == null ? start : checkpoint.getHeight();
+        try {
+            while (from <= end) {
+                long to = Math.min(end, from + CHUNK - 1);
+                List<BlockOuterClass.BlockHeader> headers = await(client.getBlockHeadersAsync(from, to)).getBlockHeadersList();
+                if (headers.isEmpty()) {
+                    break;
+                }
+                for (BlockOuterClass.BlockHeader header : headers) {
+                    if (checkpoint != null && header.getNumber() == checkpoint.getHeight()) {
+                        if (!Arrays.equals(checkpoint.getHash(), HashUtil.sha3(header.toByteArray()))) {
+                            throw new CheckpointMismatchException(BLOCK_HEADERS, checkpoint.getHeight(),
+                                    "header " + header.getNumber() + " does not match checkpoint");
+                        }
+                        continue;
+                    }
+                    consumer.accept(header);
+                    store.save(BLOCK_HEADERS, new Checkpoint(header.getNumber(), HashUtil.sha3(header.toByteArray())));
+                    last = header.getNumber();
+                }
+                long reached = headers.get(headers.size() - 1).getNumber();
+                if (reached < from) {
+                    break;
+                }
+                from = reached + 1;
+            }
+            return last;
+        } finally {
+            store.flush();
+        }
+    }
+
+    /**
+     * Sync the interchain tx wrappers of a pier up to end, or up to the chain height if end is
+     * above it. The heights without wrappers are only checkpointed up to the chain height, the
+     * node does not answer for the ones above.
+     *
+     * @param pid      pier id, every pier is a stream of its own
+     * @param start    first height if the stream has no checkpoint
+     * @param end      last height
+     * @param consumer called for every wrapper in height order
+     * @return last processed height
+     */
+    public long syncInterchainTxWrappers(String pid, long start, long end, Consumer<Broker.InterchainTxWrapper> consumer) {
+        String stream = INTERCHAIN_TX_WRAPPERS + pid;
+        Checkpoint checkpoint = store.load(stream);
+        long from = checkpoint == null ? start : checkpoint.getHeight() + 1;
+        if (from > end) {
+            return from - 1;
+        }
+        end = Math.min(end, await(client.getChainMetaAsync()).getHeight());
+        try {
+            while (from <= end) {
+                long to = Math.min(end, from + CHUNK - 1);
+                List<Broker.InterchainTxWrappers> batches = await(client.getInterchainTxWrappersAsync(pid, from, to));
+                for (Broker.InterchainTxWrappers batch : batches) {
+                    for (Broker.InterchainTxWrapper wrapper : batch.getInterchainTxWrappersList()) {
+                        // BitXHub sends one wrapper per block
+                        consumer.accept(wrapper);
+                        store.save(stream, new Checkpoint(wrapper.getHeight(), new byte[0]));
+                    }
+                }
+                // the whole range was answered, heights without wrappers are done as well
+                store.save(stream, new Checkpoint(to, new byte[0]));
+                from = to + 1;
+            }
+            return from - 1;
+        } finally {
+            store.flush();
+        }
+    }
+
+    private static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while syncing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package cn.dmlab.bitxhub;
+
+import io.grpc.stub.StreamObserver;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Publisher of a server stream, every subscriber gets a call of its own.
+ * <p>
+ * The demand of the subscriber is passed to grpc with manual inbound flow control, see
+ * {@link FlowControlledObserver}. grpc asks for one message on its own when the call starts,
+ * so at most one message more than the demand is held by the subscription.
+ *
+ * @param <T> message type
+ */
+class StreamPublisher<T> implements Publisher<T> {
+    private final Consumer<StreamObserver<T>> call;
+
+    /**
+     * @param call starts the call with the observer
+     */
+    StreamPublisher(Consumer<StreamObserver<T>> call) {
+        this.call = call;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber, "Subscriber must not be null");
+        StreamSubscription<T> subscription = new StreamSubscription<>(subscriber);
+        subscriber.onSubscribe(subscription);
+        if (subscription.cancelled) {
+            return;
+        }
+        try {
+            call.accept(subscription.observer);
+        } catch (RuntimeException e) {
+            subscription.terminate(e);
+        }
+    }
+
+    private static class StreamSubscription<T> implements Subscription {
+        private final Subscriber<? super T> subscriber;
+        private final Queue<T> queue = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger wip = new AtomicInteger();
+        private final Observer observer = new Observer();
+
+        // Guarded by this.
+        private long demand;
+        private long outstanding = 1;
+
+        private volatile boolean done;
+        private volatile Throwable error;
+        private volatile boolean cancelled;
+
+        StreamSubscription(Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                terminate(new IllegalArgumentException("Request must be positive, rule 3.9"));
+                observer.cancel("invalid request");
+                return;
+            }
+            synchronized (this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            replenish();
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                observer.cancel("cancelled by subscriber");
+                drain();
+            }
+        }
+
+        /**
+         * The first terminal signal wins.
+         */
+        void terminate(Throwable t) {
+            synchronized (this) {
+                if (done) {
+                    return;
+                }
+                error = t;
+                done = true;
+            }
+            drain();
+        }
+
+        /**
+         * Ask grpc for what the demand does not cover yet, grpc takes an int.
+         */
+        private void replenish() {
+            int n;
+            synchronized (this) {
+                long missing = demand - queue.size() - outstanding;
+                n = (int) Math.min(missing, Integer.MAX_VALUE - outstanding);
+                if (n <= 0) {
+                    return;
+                }
+                outstanding += n;
+            }
+            observer.request(n);
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                while (!cancelled) {
+                    synchronized (this) {
+                        if (demand == 0 || queue.isEmpty()) {
+                            break;
+                        }
+                        if (demand != Long.MAX_VALUE) {
+                            demand--;
+                        }
+                    }
+                    subscriber.onNext(queue.poll());
+                }
+                if (cancelled) {
+                    queue.clear();
+                } else if (done && (queue.isEmpty() || error != null)) {
+                    cancelled = true;
+                    queue.clear();
+                    Throwable t = error;
+                    if (t == null) {
+                        subscriber.onComplete();
+                    } else {
+                        subscriber.onError(t);
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private class Observer extends FlowControlledObserver<T> {
+            Observer() {
+                super(1);
+            }
+
+            @Override
+            protected void onMessage(T value) {
+                queue.offer(value);
+                synchronized (StreamSubscription.this) {
+                    outstanding--;
+                }
+                drain();
+                replenish();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                terminate(t);
+            }
+
+            @Override
+            public void onCompleted() {
+                terminate(null);
+            }
+        }
+    }
+}
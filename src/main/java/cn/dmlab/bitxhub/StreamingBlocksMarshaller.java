@@ -0,0 +1,79 @@
+package cn.dmlab.bitxhub;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import com.google.protobuf.WireFormat;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Consumer;
+
+/**
+ * Response marshaller of {@code GetBlocks} and {@code GetHappyBlocks} that decodes the
+ * repeated field 1 one block at a time and hands each block to a consumer, instead of
+ * building the whole response message. The response of the call is the number of blocks.
+ * <p>
+ * grpc still receives the encoded response as a whole, but only one decoded block is alive
+ * at a time. The consumer runs while the response is parsed, on the thread that parses it,
+ * an exception of the consumer fails the call.
+ * <p>
+ * A count is encoded as an empty response, its blocks went to the consumer already. It is
+ * what a server would answer for a range without blocks, and it parses back to 0.
+ */
+class StreamingBlocksMarshaller<T extends MessageLite> implements MethodDescriptor.Marshaller<Long> {
+    private final Parser<T> parser;
+    private final Consumer<? super T> consumer;
+
+    private StreamingBlocksMarshaller(Parser<T> parser, Consumer<? super T> consumer) {
+        this.parser = parser;
+        this.consumer = consumer;
+    }
+
+    /**
+     * A copy of the method whose response is decoded block by block into the consumer.
+     *
+     * @param method   GetBlocks or GetHappyBlocks
+     * @param parser   parser of the blocks in field 1 of the response
+     * @param consumer called for every block in order
+     */
+    static <ReqT, T extends MessageLite> MethodDescriptor<ReqT, Long> streaming(
+            MethodDescriptor<ReqT, ?> method, Parser<T> parser, Consumer<? super T> consumer) {
+        return method.toBuilder(method.getRequestMarshaller(), new StreamingBlocksMarshaller<>(parser, consumer))
+                .build();
+    }
+
+    @Override
+    public InputStream stream(Long value) {
+        // an empty GetBlocksResponse or GetHappyBlocksResponse
+        return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public Long parse(InputStream stream) {
+        CodedInputStream input = CodedInputStream.newInstance(stream);
+        // the size is already limited by the max inbound message size of the channel
+        input.setSizeLimit(Integer.MAX_VALUE);
+        ExtensionRegistryLite registry = ExtensionRegistryLite.getEmptyRegistry();
+        long count = 0;
+        try {
+            int tag;
+            while ((tag = input.readTag()) != 0) {
+                if (WireFormat.getTagFieldNumber(tag) == 1
+                        && WireFormat.getTagWireType(tag) == WireFormat.WIRETYPE_LENGTH_DELIMITED) {
+                    consumer.accept(input.readMessage(parser, registry));
+                    count++;
+                } else {
+                    input.skipField(tag);
+                }
+            }
+        } catch (IOException e) {
+            throw Status.INTERNAL.withDescription("Invalid protobuf byte sequence").withCause(e).asRuntimeException();
+        }
+        return count;
+    }
+}
@@ -0,0 +1,419 @@
+package cn.dmlab.bitxhub;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.Parser;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import lombok.extern.slf4j.Slf4j;
+import pb.Broker;
+
+import java.io.Closeable;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Shares one server stream per subscription type between many listeners.
+ * <p>
+ * The first listener of a type opens the stream and the last one to leave closes it. Every
+ * response is fanned out to the listeners of its type, each listener has a bounded queue of its
+ * own that is drained on the hub's executor, so a slow listener does not hold up the others.
+ * What happens when a queue is full is decided per listener by its {@link OverflowPolicy}.
+ * <p>
+ * Listeners that subscribe with the same parser share the decoded message: the data of a
+ * response is decoded at most once per parser, by the first listener that needs it.
+ */
+@Slf4j
+public class SubscriptionHub implements Closeable {
+
+    public static final int DEFAULT_QUEUE_SIZE = 256;
+
+    /**
+     * What to do with a response for a listener whose queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * Drop the oldest queued response to make room.
+         */
+        DROP_OLDEST,
+        /**
+         * Wait for room. This holds up the stream, and with it every listener of the type.
+         */
+        BLOCK,
+        /**
+         * Drop the listener, it gets {@code RESOURCE_EXHAUSTED}.
+         */
+        DISCONNECT
+    }
+
+    /**
+     * A registered listener, cancel it to stop receiving responses.
+     */
+    public interface Subscription extends Closeable {
+        /**
+         * Number of responses dropped for this listener by {@link OverflowPolicy#DROP_OLDEST}.
+         */
+        long getDropped();
+
+        @Override
+        void close();
+    }
+
+    private final BiConsumer<Broker.SubscriptionRequest.Type, StreamObserver<Broker.Response>> subscriber;
+    private final ExecutorService executor;
+    private final Map<Broker.SubscriptionRequest.Type, Upstream> upstreams =
+            new EnumMap<>(Broker.SubscriptionRequest.Type.class);
+    private boolean closed;
+
+    public SubscriptionHub(GrpcClient client) {
+        this(client::subscribe);
+    }
+
+    /**
+     * @param subscriber opens a server stream of the type, e.g. {@link GrpcClient#subscribe}
+     */
+    public SubscriptionHub(BiConsumer<Broker.SubscriptionRequest.Type, StreamObserver<Broker.Response>> subscriber) {
+        this.subscriber = subscriber;
+        this.executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("bitxhub-subscription-hub-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Listen to the raw responses of the type.
+     */
+    public Subscription subscribe(Broker.SubscriptionRequest.Type type, StreamObserver<? super Broker.Response> observer) {
+        return subscribe(type, null, observer, DEFAULT_QUEUE_SIZE, OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Listen to the decoded data of the responses of the type.
+     */
+    public <T> Subscription subscribe(Broker.SubscriptionRequest.Type type, Parser<T> parser, StreamObserver<? super T> observer) {
+        return subscribe(type, parser, observer, DEFAULT_QUEUE_SIZE, OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Listen to the responses of the type.
+     *
+     * @param type      subscription type
+     * @param parser    parser of the response data, null to get the {@link Broker.Response} itself
+     * @param observer  listener, called on a thread of the hub, one call at a time
+     * @param queueSize max number of responses queued for the listener
+     * @param policy    what to do when the queue is full
+     * @return subscription of the listener
+     */
+    public <T> Subscription subscribe(Broker.SubscriptionRequest.Type type, Parser<T> parser, StreamObserver<? super T> observer,
+                                      int queueSize, OverflowPolicy policy) {
+        if (queueSize <= 0) {
+            throw new IllegalArgumentException("Queue size must be positive");
+        }
+        Objects.requireNonNull(type, "Subscription type must not be null");
+        Objects.requireNonNull(observer, "Observer must not be null");
+        Objects.requireNonNull(policy, "Overflow policy must not be null");
+        Listener<T> listener = new Listener<>(parser, observer, queueSize, policy);
+        Upstream upstream;
+        boolean open;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("subscription hub is closed");
+            }
+            upstream = upstreams.get(type);
+            open = upstream == null;
+            if (open) {
+                upstream = new Upstream(type);
+                upstreams.put(type, upstream);
+            }
+            listener.upstream = upstream;
+            upstream.listeners.add(listener);
+        }
+        if (open) {
+            subscriber.accept(type, upstream);
+        }
+        return listener;
+    }
+
+    /**
+     * Number of open server streams.
+     */
+    public synchronized int upstreamCount() {
+        return upstreams.size();
+    }
+
+    /**
+     * Close every stream, the listeners get {@code onCompleted}.
+     */
+    @Override
+    public void close() {
+        Upstream[] open;
+        synchronized (this) {
+            closed = true;
+            open = upstreams.values().toArray(new Upstream[0]);
+            upstreams.clear();
+        }
+        for (Upstream upstream : open) {
+            upstream.cancel();
+            for (Listener<?> listener : upstream.listeners) {
+                listener.terminate(null);
+            }
+        }
+        executor.shutdown();
+    }
+
+    private void remove(Listener<?> listener) {
+        Upstream upstream = listener.upstream;
+        boolean last;
+        synchronized (this) {
+            upstream.listeners.remove(listener);
+            last = upstream.listeners.isEmpty() && upstreams.get(upstream.type) == upstream;
+            if (last) {
+                upstreams.remove(upstream.type);
+            }
+        }
+        if (last) {
+            upstream.cancel();
+        }
+    }
+
+    /**
+     * A response and its data as decoded by the last parser asked.
+     */
+    private static class Message {
+        private final Broker.Response response;
+        private Parser<?> parser;
+        private Object decoded;
+
+        Message(Broker.Response response) {
+            this.response = response;
+        }
+
+        @SuppressWarnings("unchecked")
+        synchronized <T> T decode(Parser<T> parser) throws InvalidProtocolBufferException {
+            if (parser == null) {
+                return (T) response;
+            }
+            if (this.parser == parser) {
+                return (T) decoded;
+            }
+            T value = parser.parseFrom(response.getData());
+            // listeners of one type nearly always share a parser, keep the last one
+            this.parser = parser;
+            this.decoded = value;
+            return value;
+        }
+    }
+
+    /**
+     * The server stream of one type.
+     */
+    private class Upstream implements ClientResponseObserver<Broker.SubscriptionRequest, Broker.Response> {
+        private final Broker.SubscriptionRequest.Type type;
+        private final CopyOnWriteArrayList<Listener<?>> listeners = new CopyOnWriteArrayList<>();
+        private volatile ClientCallStreamObserver<Broker.SubscriptionRequest> stream;
+        private volatile boolean cancelled;
+
+        Upstream(Broker.SubscriptionRequest.Type type) {
+            this.type = type;
+        }
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<Broker.SubscriptionRequest> requestStream) {
+            stream = requestStream;
+            if (cancelled) {
+                requestStream.cancel("no listener left", null);
+            }
+        }
+
+        @Override
+        public void onNext(Broker.Response response) {
+            Message message = new Message(response);
+            for (Listener<?> listener : listeners) {
+                listener.offer(message);
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            end(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            end(null);
+        }
+
+        private void end(Throwable t) {
+            synchronized (SubscriptionHub.this) {
+                if (upstreams.get(type) == this) {
+                    upstreams.remove(type);
+                }
+            }
+            if (cancelled) {
+                return;
+            }
+            if (t != null) {
+                log.warn("{} subscription broken: {}", type, t.getMessage());
+            }
+            for (Listener<?> listener : listeners) {
+                listener.terminate(t);
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            ClientCallStreamObserver<Broker.SubscriptionRequest> stream = this.stream;
+            if (stream != null) {
+                stream.cancel("no listener left", null);
+            }
+        }
+    }
+
+    private class Listener<T> implements Subscription, Runnable {
+        private final Parser<T> parser;
+        private final StreamObserver<? super T> observer;
+        private final BlockingQueue<Message> queue;
+        private final OverflowPolicy policy;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicLong dropped = new AtomicLong();
+        private Upstream upstream;
+        private volatile boolean terminated;
+        private volatile boolean removed;
+        private volatile Throwable error;
+        /**
+         * Only touched by the drain, which runs on one thread at a time.
+         */
+        private boolean finished;
+
+        Listener(Parser<T> parser, StreamObserver<? super T> observer, int queueSize, OverflowPolicy policy) {
+            this.parser = parser;
+            this.observer = observer;
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+            this.policy = policy;
+        }
+
+        void offer(Message message) {
+            if (terminated) {
+                return;
+            }
+            while (!queue.offer(message)) {
+                switch (policy) {
+                    case DROP_OLDEST:
+                        if (queue.poll() != null) {
+                            dropped.incrementAndGet();
+                        }
+                        break;
+                    case BLOCK:
+                        try {
+                            if (queue.offer(message, 100, TimeUnit.MILLISECONDS)) {
+                                schedule();
+                                return;
+                            }
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                        if (terminated) {
+                            return;
+                        }
+                        break;
+                    default:
+                        log.warn("disconnect slow {} listener, {} responses queued", upstream.type, queue.size());
+                        queue.clear();
+                        remove();
+                        terminate(Status.RESOURCE_EXHAUSTED
+                                .withDescription("listener too slow for " + upstream.type + " subscription")
+                                .asRuntimeException());
+                        return;
+                }
+            }
+            schedule();
+        }
+
+        void terminate(Throwable t) {
+            if (terminated) {
+                return;
+            }
+            error = t;
+            terminated = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RuntimeException e) {
+                    // the hub is closed
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            do {
+                Message message;
+                while ((message = queue.poll()) != null) {
+                    deliver(message);
+                }
+                if (terminated && !finished) {
+                    finished = true;
+                    Throwable t = error;
+                    if (t == null) {
+                        observer.onCompleted();
+                    } else {
+                        observer.onError(t);
+                    }
+                }
+                scheduled.set(false);
+            } while ((!queue.isEmpty() || (terminated && !finished)) && scheduled.compareAndSet(false, true));
+        }
+
+        private void deliver(Message message) {
+            T value;
+            try {
+                value = message.decode(parser);
+            } catch (InvalidProtocolBufferException e) {
+                log.warn("decode {} response failed: {}", upstream.type, e.getMessage());
+                return;
+            }
+            try {
+                observer.onNext(value);
+            } catch (RuntimeException e) {
+                log.error("{} listener failed", upstream.type, e);
+            }
+        }
+
+        private void remove() {
+            if (!removed) {
+                removed = true;
+                SubscriptionHub.this.remove(this);
+            }
+        }
+
+        @Override
+        public long getDropped() {
+            return dropped.get();
+        }
+
+        @Override
+        public void close() {
+            remove();
+            queue.clear();
+            terminate(null);
+        }
+    }
+}
@@ -0,0 +1,505 @@
+package cn.dmlab.bitxhub;
+
+import cn.dmlab.utils.ByteUtil;
+import cn.dmlab.utils.SignUtils;
+import com.google.protobuf.InvalidProtocolBufferException;
+import lombok.extern.slf4j.Slf4j;
+import pb.Transaction;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of signed transactions, so the transactions sent before a crash can be
+ * resubmitted after the restart.
+ * <p>
+ * A transaction is appended before it is sent and confirmed once it is minted. The log
+ * is a directory of memory-mapped segment files, each record is
+ * {@code [length][crc32][type][payload]} where the payload is the transaction or the hash
+ * of a confirmed one. Appends are committed in groups: a writer thread takes every record
+ * queued since the last commit, writes them and forces the segment once, so concurrent
+ * senders share one fsync. A crash in the middle of a commit leaves a record with a bad
+ * checksum at the tail, which is dropped on {@link #open}.
+ * <p>
+ * The oldest segments are deleted once every transaction in them is confirmed. A new log
+ * always starts a new segment, the old ones are only read.
+ * <p>
+ * Used by {@link GrpcClientImpl} when {@link Config#getOutboxDir()} is set, see
+ * {@link GrpcClientImpl#recoverOutbox()}.
+ */
+@Slf4j
+public class TransactionOutbox implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+
+    static final byte APPEND = 1;
+    static final byte CONFIRM = 2;
+
+    /**
+     * Length, checksum and type of a record.
+     */
+    static final int HEADER_SIZE = 9;
+
+    private static final String PREFIX = "outbox-";
+    private static final String SUFFIX = ".log";
+    private static final Record POISON = new Record((byte) 0, null, null, null);
+
+    private final Path dir;
+    private final int segmentSize;
+    private final BlockingQueue<Record> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    // Guarded by this.
+    private final Map<String, Entry> unconfirmed = new LinkedHashMap<>();
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private long nextIndex;
+    private long commits;
+
+    // Only used by the writer thread.
+    private Segment active;
+
+    private TransactionOutbox(Path dir, int segmentSize) {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.writer = new Thread(this::writeAll, "bitxhub-outbox-writer");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Open the log in the directory with the default segment size.
+     */
+    public static TransactionOutbox open(Path dir) {
+        return open(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Open the log in the directory, the unconfirmed transactions of its segments are read
+     * back.
+     *
+     * @param dir         directory of the segments, created if missing
+     * @param segmentSize size of a segment file in bytes, a larger record gets a segment of
+     *                    its size
+     */
+    public static TransactionOutbox open(Path dir, int segmentSize) {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException("Segment size must be larger than " + HEADER_SIZE);
+        }
+        TransactionOutbox outbox = new TransactionOutbox(dir.toAbsolutePath(), segmentSize);
+        outbox.read();
+        outbox.writer.start();
+        return outbox;
+    }
+
+    /**
+     * Append the signed transaction and wait until it is durable.
+     *
+     * @throws UncheckedIOException  if the log could not be written
+     * @throws IllegalStateException if the outbox is closed
+     */
+    public void append(Transaction.BxhTransaction transaction) {
+        try {
+            appendAsync(transaction).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while appending to the outbox", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * Append the signed transaction.
+     *
+     * @return future completed on the writer thread once the transaction is durable, or failed
+     * with an {@link UncheckedIOException}
+     * @throws IllegalStateException if the outbox is closed
+     */
+    public CompletableFuture<Void> appendAsync(Transaction.BxhTransaction transaction) {
+        Objects.requireNonNull(transaction, "Transaction must not be null");
+        if (transaction.getTransactionHash().isEmpty()) {
+            throw new IllegalArgumentException("Transaction must be signed");
+        }
+        Record record = new Record(APPEND, transaction.toByteArray(), hash(transaction), transaction);
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Transaction outbox is closed");
+            }
+            queue.add(record);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return record.future;
+    }
+
+    /**
+     * Mark the transaction confirmed, it is not resubmitted anymore. Unknown hashes and
+     * confirms after {@link #close()} are ignored.
+     *
+     * @param txHash hash of the transaction, in any case
+     */
+    public void confirm(String txHash) {
+        txHash = txHash.toLowerCase(Locale.ROOT);
+        synchronized (this) {
+            if (!unconfirmed.containsKey(txHash)) {
+                return;
+            }
+        }
+        closeLock.readLock().lock();
+        try {
+            if (!closed) {
+                queue.add(new Record(CONFIRM, txHash.getBytes(StandardCharsets.UTF_8), txHash, null));
+            }
+        } finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Transactions appended and not confirmed yet, in the order they were appended.
+     */
+    public synchronized List<Transaction.BxhTransaction> unconfirmed() {
+        List<Transaction.BxhTransaction> transactions = new ArrayList<>(unconfirmed.size());
+        for (Entry entry : unconfirmed.values()) {
+            transactions.add(entry.transaction);
+        }
+        return transactions;
+    }
+
+    /**
+     * Number of transactions appended and not confirmed yet.
+     */
+    public synchronized int getUnconfirmedCount() {
+        return unconfirmed.size();
+    }
+
+    /**
+     * Number of segment files.
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Number of group commits so far.
+     */
+    synchronized long getCommits() {
+        return commits;
+    }
+
+    /**
+     * Hash the outbox knows the transaction by, the one BitXHub reports for it.
+     */
+    public static String hash(Transaction.BxhTransaction transaction) {
+        return ByteUtil.toHexStringWithOx(SignUtils.txHash(transaction)).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Commit the queued records and stop taking new ones.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        queue.add(POISON);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void read() {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try {
+            Files.createDirectories(dir);
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+                for (Path file : stream) {
+                    String name = file.getFileName().toString();
+                    try {
+                        files.put(Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length())), file);
+                    } catch (NumberFormatException e) {
+                        log.warn("skip {} in outbox {}", name, dir);
+                    }
+                }
+            }
+            for (Map.Entry<Long, Path> file : files.entrySet()) {
+                Segment segment = new Segment(file.getValue());
+                segments.add(segment);
+                readSegment(segment);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("read outbox " + dir + " failed", e);
+        }
+        nextIndex = files.isEmpty() ? 0 : files.lastKey() + 1;
+        prune();
+        if (!unconfirmed.isEmpty()) {
+            log.info("outbox {} has {} unconfirmed transactions", dir, unconfirmed.size());
+        }
+    }
+
+    private void readSegment(Segment segment) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(segment.path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int position = buffer.position();
+            int length = buffer.getInt();
+            int crc = buffer.getInt();
+            byte type = buffer.get();
+            if (length == 0 && type == 0) {
+                // the zeroed rest of the segment
+                return;
+            }
+            if (length < 0 || length > buffer.remaining()) {
+                log.warn("outbox segment {} is torn at {}", segment.path, position);
+                return;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            if (crc != checksum(type, payload)) {
+                log.warn("outbox segment {} has a bad record at {}", segment.path, position);
+                return;
+            }
+            if (type == APPEND) {
+                Transaction.BxhTransaction transaction;
+                try {
+                    transaction = Transaction.BxhTransaction.parseFrom(payload);
+                } catch (InvalidProtocolBufferException e) {
+                    log.warn("outbox segment {} has a bad transaction at {}", segment.path, position);
+                    return;
+                }
+                apply(new Record(APPEND, payload, hash(transaction), transaction), segment);
+            } else if (type == CONFIRM) {
+                apply(new Record(CONFIRM, payload, new String(payload, StandardCharsets.UTF_8), null), segment);
+            }
+        }
+    }
+
+    private void writeAll() {
+        List<Record> batch = new ArrayList<>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                log.warn("outbox writer interrupted");
+                return;
+            }
+            queue.drainTo(batch);
+            // nothing is queued after the poison
+            boolean last = batch.get(batch.size() - 1) == POISON;
+            if (last) {
+                batch.remove(batch.size() - 1);
+            }
+            if (!batch.isEmpty()) {
+                commit(batch);
+            }
+            batch.clear();
+            if (last) {
+                closeActive();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Write the records and force them to disk, then apply them.
+     */
+    private void commit(List<Record> batch) {
+        List<Segment> written = new ArrayList<>(batch.size());
+        try {
+            for (Record record : batch) {
+                written.add(write(record));
+            }
+            active.buffer.force();
+        } catch (IOException | RuntimeException e) {
+            UncheckedIOException error = e instanceof UncheckedIOException ? (UncheckedIOException) e
+                    : new UncheckedIOException("write outbox " + dir + " failed",
+                    e instanceof IOException ? (IOException) e : new IOException(e));
+            log.warn("write outbox {} failed: {}", dir, e.getMessage());
+            // the next commit starts a new segment
+            closeActive();
+            for (Record record : batch) {
+                record.future.completeExceptionally(error);
+            }
+            return;
+        }
+        synchronized (this) {
+            commits++;
+            for (int i = 0; i < batch.size(); i++) {
+                apply(batch.get(i), written.get(i));
+            }
+            prune();
+        }
+        for (Record record : batch) {
+            record.future.complete(null);
+        }
+    }
+
+    /**
+     * Write the record to the active segment, rolls to a new one if it does not fit.
+     *
+     * @return the segment written to
+     */
+    private Segment write(Record record) throws IOException {
+        int size = HEADER_SIZE + record.payload.length;
+        if (active == null || active.buffer.remaining() < size) {
+            roll(size);
+        }
+        active.buffer.putInt(record.payload.length);
+        active.buffer.putInt(checksum(record.type, record.payload));
+        active.buffer.put(record.type);
+        active.buffer.put(record.payload);
+        return active;
+    }
+
+    private void roll(int size) throws IOException {
+        if (active != null) {
+            // the records written to it so far are part of this commit
+            active.buffer.force();
+            closeActive();
+        }
+        Segment segment;
+        synchronized (this) {
+            segment = new Segment(dir.resolve(String.format("%s%020d%s", PREFIX, nextIndex, SUFFIX)));
+            nextIndex++;
+        }
+        segment.channel = FileChannel.open(segment.path, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment.buffer = segment.channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, size));
+        FileCheckpointStore.syncDirectory(dir);
+        synchronized (this) {
+            segments.add(segment);
+        }
+        active = segment;
+    }
+
+    private void closeActive() {
+        if (active == null) {
+            return;
+        }
+        try {
+            active.channel.close();
+        } catch (IOException e) {
+            log.debug("close outbox segment {} failed: {}", active.path, e.getMessage());
+        }
+        active.channel = null;
+        active.buffer = null;
+        active = null;
+    }
+
+    private void apply(Record record, Segment segment) {
+        if (record.type == APPEND) {
+            Entry previous = unconfirmed.put(record.txHash, new Entry(record.transaction, segment));
+            if (previous != null) {
+                previous.segment.live--;
+            }
+            segment.live++;
+        } else {
+            Entry entry = unconfirmed.remove(record.txHash);
+            if (entry != null) {
+                entry.segment.live--;
+            }
+        }
+    }
+
+    /**
+     * Delete the oldest segments while all their transactions are confirmed. Only the oldest,
+     * so no segment holding the confirms of a remaining one is deleted.
+     */
+    private void prune() {
+        while (!segments.isEmpty()) {
+            Segment segment = segments.peekFirst();
+            if (segment.live > 0 || segment.channel != null) {
+                return;
+            }
+            try {
+                Files.deleteIfExists(segment.path);
+            } catch (IOException e) {
+                log.warn("delete outbox segment {} failed: {}", segment.path, e.getMessage());
+                return;
+            }
+            segments.removeFirst();
+        }
+    }
+
+    private static int checksum(byte type, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload, 0, payload.length);
+        return (int) crc.getValue();
+    }
+
+    private static class Segment {
+        private final Path path;
+        private int live;
+        private FileChannel channel;
+        private MappedByteBuffer buffer;
+
+        Segment(Path path) {
+            this.path = path;
+        }
+    }
+
+    private static class Entry {
+        private final Transaction.BxhTransaction transaction;
+        private final Segment segment;
+
+        Entry(Transaction.BxhTransaction transaction, Segment segment) {
+            this.transaction = transaction;
+            this.segment = segment;
+        }
+    }
+
+    private static class Record {
+        private final byte type;
+        private final byte[] payload;
+        private final String txHash;
+        private final Transaction.BxhTransaction transaction;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        Record(byte type, byte[] payload, String txHash, Transaction.BxhTransaction transaction) {
+            this.type = type;
+            this.payload = payload;
+            this.txHash = txHash;
+            this.transaction = transaction;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package cn.dmlab.bitxhub;
+
+import cn.dmlab.crypto.ecdsa.ECKeyS256;
+import cn.dmlab.utils.ByteUtil;
+import cn.dmlab.utils.SignUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.web3j.crypto.Keys;
+import pb.Transaction;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+/**
+ * Sends transactions of many producer threads through three stages:
+ * <ol>
+ * <li>nonce assignment, in the order the transactions were submitted;</li>
+ * <li>signing, batches of transactions are signed in parallel on a pool of its own;</li>
+ * <li>submission with async calls, at most {@code maxInFlight} unanswered at a time.</li>
+ * </ol>
+ * Nonce assignment and signing run on the assembler thread, which hands each batch to the
+ * signing pool, and submission runs on a thread of its own. Producers only pay for a queue
+ * insertion and the throughput is limited by the node. The queue is bounded, {@link #submit} blocks while it is
+ * full. Nonces are handled like {@link GrpcClient#sendTransaction}: the transaction is signed
+ * with the key of the client, and a failed send releases or re-syncs its nonce.
+ * <p>
+ * Created by {@link GrpcClientImpl#newTransactionPipeline(int, int, int)}.
+ */
+@Slf4j
+public class TransactionPipeline implements Closeable {
+
+    public static final int DEFAULT_QUEUE_SIZE = 1024;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 256;
+
+    /**
+     * Max number of transactions signed together.
+     */
+    static final int MAX_BATCH = 64;
+
+    private static final Entry POISON = new Entry(null, null, null);
+
+    private final NonceManager nonceManager;
+    private final Supplier<ECKeyS256> key;
+    private final BiFunction<Transaction.BxhTransaction, TxTrace, CompletableFuture<String>> sender;
+    private final List<TxLifecycleListener> listeners;
+    private final BlockingQueue<Entry> queue;
+    private final BlockingQueue<Entry> signed;
+    private final int maxInFlight;
+    private final Semaphore window;
+    private final ForkJoinPool signPool;
+    private final Thread assembler;
+    private final Thread submitter;
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    /**
+     * @param nonceManager allocates the nonces
+     * @param key          key to sign with
+     * @param sender       sends a signed transaction, returns its hash, reaches the submit stage
+     *                     of the trace right before the call
+     * @param listeners    listeners of the traces of the transactions
+     * @param queueSize    max number of transactions waiting for a nonce
+     * @param maxInFlight  max number of sends waiting for an answer
+     * @param signers      number of signing threads
+     */
+    TransactionPipeline(NonceManager nonceManager, Supplier<ECKeyS256> key,
+                        BiFunction<Transaction.BxhTransaction, TxTrace, CompletableFuture<String>> sender,
+                        List<TxLifecycleListener> listeners, int queueSize, int maxInFlight, int signers) {
+        if (queueSize <= 0 || maxInFlight <= 0 || signers <= 0) {
+            throw new IllegalArgumentException("Queue size, max in flight and signers must be positive");
+        }
+        this.nonceManager = nonceManager;
+        this.key = key;
+        this.sender = sender;
+        this.listeners = listeners;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        // signing runs ahead of the submission by at most one window
+        this.signed = new ArrayBlockingQueue<>(maxInFlight);
+        this.maxInFlight = maxInFlight;
+        this.window = new Semaphore(maxInFlight);
+        this.signPool = new ForkJoinPool(signers);
+        this.assembler = new Thread(this::assemble, "bitxhub-pipeline-assembler");
+        this.submitter = new Thread(this::submitAll, "bitxhub-pipeline-submitter");
+        assembler.setDaemon(true);
+        submitter.setDaemon(true);
+        assembler.start();
+        submitter.start();
+    }
+
+    /**
+     * Queue the transaction, blocks while the queue is full.
+     *
+     * @param transaction unsigned transaction, its nonce is assigned by the pipeline
+     * @return future of the tx hash, failed with the error of signing or sending
+     * @throws IllegalStateException if the pipeline is closed
+     */
+    public CompletableFuture<String> submit(Transaction.BxhTransaction transaction) throws InterruptedException {
+        Objects.requireNonNull(transaction, "Transaction must not be null");
+        String from = Keys.toChecksumAddress(ByteUtil.toHex(transaction.getFrom().toByteArray()));
+        Entry entry = new Entry(transaction, from, new TxTrace(listeners));
+        closeLock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Transaction pipeline is closed");
+            }
+            queue.put(entry);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        return entry.future;
+    }
+
+    /**
+     * Number of transactions waiting for a nonce.
+     */
+    public int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * Number of sends waiting for an answer.
+     */
+    public int getInFlight() {
+        return maxInFlight - window.availablePermits();
+    }
+
+    /**
+     * Stop taking transactions and wait until the queued ones are answered or failed.
+     */
+    @Override
+    public void close() {
+        closeLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        try {
+            queue.put(POISON);
+            submitter.join();
+            window.acquire(maxInFlight);
+            window.release(maxInFlight);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            signPool.shutdown();
+        }
+    }
+
+    private void assemble() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH - 1);
+                // nothing is queued after the poison
+                boolean last = batch.get(batch.size() - 1) == POISON;
+                if (last) {
+                    batch.remove(batch.size() - 1);
+                }
+                for (Entry entry : sign(batch)) {
+                    signed.put(entry);
+                }
+                batch.clear();
+                if (last) {
+                    signed.put(POISON);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            log.warn("transaction pipeline assembler interrupted");
+        }
+    }
+
+    /**
+     * Assign the nonces and sign the batch.
+     *
+     * @return the signed entries, in order
+     */
+    private List<Entry> sign(List<Entry> batch) {
+        List<Entry> assigned = new ArrayList<>(batch.size());
+        List<Transaction.BxhTransaction> unsigned = new ArrayList<>(batch.size());
+        for (Entry entry : batch) {
+            try {
+                entry.nonce = nonceManager.next(entry.from);
+            } catch (RuntimeException e) {
+                entry.fail(e);
+                continue;
+            }
+            entry.trace.reach(TxTrace.Stage.SIGN_START);
+            assigned.add(entry);
+            unsigned.add(entry.transaction.toBuilder().setNonce(entry.nonce).build());
+        }
+        if (assigned.isEmpty()) {
+            return assigned;
+        }
+        List<Transaction.BxhTransaction> signedTxs;
+        try {
+            signedTxs = SignUtils.signAll(unsigned, key.get(), signPool);
+        } catch (RuntimeException e) {
+            for (Entry entry : assigned) {
+                failed(entry, e);
+            }
+            return new ArrayList<>();
+        }
+        for (int i = 0; i < assigned.size(); i++) {
+            Entry entry = assigned.get(i);
+            entry.signed = signedTxs.get(i);
+            entry.trace.setTxHash(ByteUtil.toHexStringWithOx(SignUtils.txHash(entry.signed)));
+            entry.trace.reach(TxTrace.Stage.SIGN_END);
+        }
+        return assigned;
+    }
+
+    private void submitAll() {
+        try {
+            while (true) {
+                Entry entry = signed.take();
+                if (entry == POISON) {
+                    return;
+                }
+                window.acquire();
+                CompletableFuture<String> sent;
+                try {
+                    sent = sender.apply(entry.signed, entry.trace);
+                } catch (RuntimeException e) {
+                    window.release();
+                    failed(entry, e);
+                    continue;
+                }
+                sent.whenComplete((txHash, e) -> {
+                    if (e == null) {
+                        nonceManager.accepted(entry.from);
+                        entry.trace.reach(TxTrace.Stage.ACK);
+                        entry.future.complete(txHash);
+                    } else {
+                        failed(entry, e);
+                    }
+                    // after the future, so close returns with every future done
+                    window.release();
+                });
+            }
+        } catch (InterruptedException e) {
+            log.warn("transaction pipeline submitter interrupted");
+        }
+    }
+
+    private void failed(Entry entry, Throwable cause) {
+        nonceManager.failed(entry.from, entry.nonce, cause);
+        entry.fail(cause);
+    }
+
+    private static class Entry {
+        private final Transaction.BxhTransaction transaction;
+        private final String from;
+        private final TxTrace trace;
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+        private long nonce;
+        private Transaction.BxhTransaction signed;
+
+        Entry(Transaction.BxhTransaction transaction, String from, TxTrace trace) {
+            this.transaction = transaction;
+            this.from = from;
+            this.trace = trace;
+        }
+
+        void fail(Throwable cause) {
+            trace.fail(cause);
+            future.completeExceptionally(cause);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package cn.dmlab.bitxhub;
+
+/**
+ * Listener of the stages of the transactions sent by {@link GrpcClientImpl}, see
+ * {@link GrpcClientImpl#addTxLifecycleListener(TxLifecycleListener)}.
+ * <p>
+ * Called on the thread that reached the stage, which may be a grpc thread, so it must be
+ * quick and must not block.
+ */
+public interface TxLifecycleListener {
+
+    /**
+     * The trace reached the stage.
+     */
+    void onStage(TxTrace trace, TxTrace.Stage stage);
+
+    /**
+     * Signing, sending or waiting for the receipt failed, no more stages follow.
+     */
+    default void onFailed(TxTrace trace, Throwable cause) {
+    }
+}
@@ -0,0 +1,71 @@
+package cn.dmlab.bitxhub;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograms of the time spent in every stage of the transactions.
+ * <p>
+ * The time of a stage is measured from the last stage reached before it, so
+ * {@link TxTrace.Stage#SIGN_END} is the signing time, {@link TxTrace.Stage#ACK} the round
+ * trip of SendTransaction and {@link TxTrace.Stage#BLOCK_OBSERVED} the wait for the block.
+ * The total is the time from {@link TxTrace.Stage#SIGN_START} to
+ * {@link TxTrace.Stage#RECEIPT}. {@link GrpcClientImpl} always keeps one, see
+ * {@link GrpcClientImpl#getTxLifecycleStats()}.
+ */
+public class TxLifecycleStats implements TxLifecycleListener {
+    private final Map<TxTrace.Stage, Histogram> stages = new EnumMap<>(TxTrace.Stage.class);
+    private final Histogram total = new Histogram();
+    private final LongAdder failed = new LongAdder();
+
+    public TxLifecycleStats() {
+        for (TxTrace.Stage stage : TxTrace.Stage.values()) {
+            if (stage != TxTrace.Stage.SIGN_START) {
+                stages.put(stage, new Histogram());
+            }
+        }
+    }
+
+    @Override
+    public void onStage(TxTrace trace, TxTrace.Stage stage) {
+        long nanos = trace.getStageNanos(stage);
+        if (nanos >= 0) {
+            stages.get(stage).record(nanos);
+        }
+        if (stage == TxTrace.Stage.RECEIPT && trace.reached(TxTrace.Stage.SIGN_START)) {
+            total.record(trace.getNanos(stage) - trace.getNanos(TxTrace.Stage.SIGN_START));
+        }
+    }
+
+    @Override
+    public void onFailed(TxTrace trace, Throwable cause) {
+        failed.increment();
+    }
+
+    /**
+     * Time spent in every stage but the first, in nanoseconds.
+     */
+    public Map<TxTrace.Stage, Histogram.Snapshot> snapshot() {
+        Map<TxTrace.Stage, Histogram.Snapshot> snapshot = new EnumMap<>(TxTrace.Stage.class);
+        for (Map.Entry<TxTrace.Stage, Histogram> entry : stages.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return Collections.unmodifiableMap(snapshot);
+    }
+
+    /**
+     * Time from signing to the receipt, in nanoseconds.
+     */
+    public Histogram.Snapshot getTotal() {
+        return total.snapshot();
+    }
+
+    /**
+     * Number of failed transactions.
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+}
@@ -0,0 +1,137 @@
+package cn.dmlab.bitxhub;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timestamps of one transaction sent by {@link GrpcClientImpl}, from signing to its receipt.
+ * <p>
+ * Every stage is reached at most once, the listeners are told on the thread that reached it.
+ * Stages can be skipped: a tx sent without waiting for the receipt ends at {@link Stage#ACK},
+ * and {@link Stage#BLOCK_OBSERVED} is missing when the receipt was found by polling before
+ * the block arrived on the subscription.
+ */
+@Slf4j
+public class TxTrace {
+
+    public enum Stage {
+        /**
+         * Signing started, the nonce is assigned.
+         */
+        SIGN_START,
+        SIGN_END,
+        /**
+         * The SendTransaction call is started.
+         */
+        SUBMIT,
+        /**
+         * The node accepted the tx and returned its hash.
+         */
+        ACK,
+        /**
+         * The block carrying the tx arrived on the block subscription.
+         */
+        BLOCK_OBSERVED,
+        /**
+         * The receipt was fetched.
+         */
+        RECEIPT
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final List<TxLifecycleListener> listeners;
+    private final long startMillis = System.currentTimeMillis();
+    private final AtomicLongArray nanos = new AtomicLongArray(STAGES.length);
+    private final AtomicBoolean failed = new AtomicBoolean();
+    private volatile String txHash;
+
+    TxTrace(List<TxLifecycleListener> listeners) {
+        this.listeners = listeners;
+    }
+
+    /**
+     * Wall clock time the trace was created, in milliseconds.
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Hash of the tx, null before it is signed.
+     */
+    public String getTxHash() {
+        return txHash;
+    }
+
+    /**
+     * {@link System#nanoTime()} when the stage was reached, 0 if it was not.
+     */
+    public long getNanos(Stage stage) {
+        return nanos.get(stage.ordinal());
+    }
+
+    public boolean reached(Stage stage) {
+        return getNanos(stage) != 0;
+    }
+
+    /**
+     * Time from the last stage reached before this one to this one, -1 if this one was not
+     * reached or it is the first.
+     */
+    public long getStageNanos(Stage stage) {
+        long at = getNanos(stage);
+        if (at == 0) {
+            return -1;
+        }
+        for (int i = stage.ordinal() - 1; i >= 0; i--) {
+            long before = nanos.get(i);
+            if (before != 0) {
+                return at - before;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Whether the tx failed, see {@link TxLifecycleListener#onFailed}.
+     */
+    public boolean isFailed() {
+        return failed.get();
+    }
+
+    void setTxHash(String txHash) {
+        this.txHash = txHash;
+    }
+
+    void reach(Stage stage) {
+        long now = System.nanoTime();
+        // 0 means not reached
+        if (!nanos.compareAndSet(stage.ordinal(), 0, now == 0 ? 1 : now)) {
+            return;
+        }
+        for (TxLifecycleListener listener : listeners) {
+            try {
+                listener.onStage(this, stage);
+            } catch (RuntimeException e) {
+                log.warn("tx lifecycle listener failed at {}: {}", stage, e.getMessage());
+            }
+        }
+    }
+
+    void fail(Throwable cause) {
+        if (!failed.compareAndSet(false, true)) {
+            return;
+        }
+        for (TxLifecycleListener listener : listeners) {
+            try {
+                listener.onFailed(this, cause);
+            } catch (RuntimeException e) {
+                log.warn("tx lifecycle listener failed: {}", e.getMessage());
+            }
+        }
+    }
+}
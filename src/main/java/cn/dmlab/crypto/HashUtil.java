@@ -1,12 +1,41 @@
 package cn.dmlab.crypto;
 
-import com.google.common.hash.Hashing;
-import org.web3j.crypto.Hash;
+import cn.dmlab.crypto.cryptohash.Keccak256;
 
-import static java.util.Arrays.copyOfRange;
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 public class HashUtil {
 
+    /**
+     * Length in bytes of the SHA-256 and Keccak-256 hashes.
+     */
+    public static final int HASH_LENGTH = 32;
+
+    /**
+     * Length in bytes of an address.
+     */
+    public static final int ADDRESS_LENGTH = 20;
+
+    private static final int SCRATCH_LENGTH = 256;
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+    });
+
+    private static final ThreadLocal<Keccak256> KECCAK256 = ThreadLocal.withInitial(Keccak256::new);
+
+    /**
+     * Per thread buffer for Keccak output that is truncated and for input of direct buffers.
+     */
+    private static final ThreadLocal<byte[]> SCRATCH = ThreadLocal.withInitial(() -> new byte[SCRATCH_LENGTH]);
+
     /**
      * MessageDigest use SHA256Digest.
      *
@@ -14,9 +43,99 @@ public class HashUtil {
      * @return result bytes
      */
     public static byte[] sha3(byte[] data) {
-        return Hashing.sha256().hashBytes(data).asBytes();
+        // digest() resets the per-thread instance after use.
+        return SHA256.get().digest(data);
+    }
+
+    /**
+     * SHA-256 of data[off, off + len) written to out[outOff, outOff + 32).
+     *
+     * @param data   data for hash
+     * @param off    offset of the data
+     * @param len    length of the data
+     * @param out    output array
+     * @param outOff offset of the output
+     */
+    public static void sha3(byte[] data, int off, int len, byte[] out, int outOff) {
+        checkOutput(out, outOff, HASH_LENGTH);
+        MessageDigest digest = SHA256.get();
+        try {
+            digest.update(data, off, len);
+            finish(digest, out, outOff);
+        } catch (RuntimeException e) {
+            digest.reset();
+            throw e;
+        }
+    }
+
+    /**
+     * SHA-256 of the remaining bytes of data written to out[outOff, outOff + 32).
+     * The position of data is moved to its limit.
+     *
+     * @param data   data for hash
+     * @param out    output array
+     * @param outOff offset of the output
+     */
+    public static void sha3(ByteBuffer data, byte[] out, int outOff) {
+        checkOutput(out, outOff, HASH_LENGTH);
+        MessageDigest digest = SHA256.get();
+        try {
+            digest.update(data);
+            finish(digest, out, outOff);
+        } catch (RuntimeException e) {
+            digest.reset();
+            throw e;
+        }
+    }
+
+    private static void finish(MessageDigest digest, byte[] out, int outOff) {
+        try {
+            digest.digest(out, outOff, HASH_LENGTH);
+        } catch (DigestException e) {
+            throw new IllegalArgumentException("output too short for hash", e);
+        }
+    }
+
+    /**
+     * Keccak-256 of data.
+     *
+     * @param data data for hash
+     * @return 32 bytes hash
+     */
+    public static byte[] keccak256(byte[] data) {
+        return KECCAK256.get().digest(data);
     }
 
+    /**
+     * Keccak-256 of data[off, off + len) written to out[outOff, outOff + 32).
+     *
+     * @param data   data for hash
+     * @param off    offset of the data
+     * @param len    length of the data
+     * @param out    output array
+     * @param outOff offset of the output
+     */
+    public static void keccak256(byte[] data, int off, int len, byte[] out, int outOff) {
+        checkOutput(out, outOff, HASH_LENGTH);
+        Keccak256 keccak = KECCAK256.get();
+        keccak.update(data, off, len);
+        keccak.digest(out, outOff, HASH_LENGTH);
+    }
+
+    /**
+     * Keccak-256 of the remaining bytes of data written to out[outOff, outOff + 32).
+     * The position of data is moved to its limit.
+     *
+     * @param data   data for hash
+     * @param out    output array
+     * @param outOff offset of the output
+     */
+    public static void keccak256(ByteBuffer data, byte[] out, int outOff) {
+        checkOutput(out, outOff, HASH_LENGTH);
+        Keccak256 keccak = KECCAK256.get();
+        update(keccak, data);
+        keccak.digest(out, outOff, HASH_LENGTH);
+    }
 
     /**
      * Calculates RIGTMOST160(SHA3(input)). This is used in address calculations.
@@ -26,9 +145,46 @@ public class HashUtil {
      * @return - 20 right bytes of the hash keccak of the data
      */
     public static byte[] sha3omit12(byte[] input) {
-        byte[] hash = Hash.sha3(input);
-        return copyOfRange(hash, 12, hash.length);
+        byte[] address = new byte[ADDRESS_LENGTH];
+        sha3omit12(input, 0, input.length, address, 0);
+        return address;
     }
 
+    /**
+     * RIGTMOST160(SHA3(input[off, off + len))) written to out[outOff, outOff + 20).
+     *
+     * @param input  data
+     * @param off    offset of the data
+     * @param len    length of the data
+     * @param out    output array
+     * @param outOff offset of the output
+     */
+    public static void sha3omit12(byte[] input, int off, int len, byte[] out, int outOff) {
+        checkOutput(out, outOff, ADDRESS_LENGTH);
+        Keccak256 keccak = KECCAK256.get();
+        byte[] hash = SCRATCH.get();
+        keccak.update(input, off, len);
+        keccak.digest(hash, 0, HASH_LENGTH);
+        System.arraycopy(hash, HASH_LENGTH - ADDRESS_LENGTH, out, outOff, ADDRESS_LENGTH);
+    }
 
+    private static void update(Keccak256 keccak, ByteBuffer data) {
+        if (data.hasArray()) {
+            keccak.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            data.position(data.limit());
+            return;
+        }
+        byte[] chunk = SCRATCH.get();
+        while (data.hasRemaining()) {
+            int len = Math.min(chunk.length, data.remaining());
+            data.get(chunk, 0, len);
+            keccak.update(chunk, 0, len);
+        }
+    }
+
+    private static void checkOutput(byte[] out, int outOff, int len) {
+        if (outOff < 0 || out.length - outOff < len) {
+            throw new IllegalArgumentException("output too short for hash");
+        }
+    }
 }
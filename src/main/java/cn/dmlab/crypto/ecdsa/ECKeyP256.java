@@ -40,7 +40,9 @@ import org.bouncycastle.jce.spec.ECPrivateKeySpec;
 import org.bouncycastle.jce.spec.ECPublicKeySpec;
 import org.bouncycastle.math.ec.ECAlgorithms;
 import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECMultiplier;
 import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
 import org.bouncycastle.util.BigIntegers;
 import org.bouncycastle.util.encoders.Base64;
 import org.bouncycastle.util.encoders.Hex;
@@ -88,6 +90,12 @@ public class ECKeyP256 implements Serializable {
     private static final long serialVersionUID = 0L;
     private static final String CURVE_NAME = "secp256r1";
 
+    /**
+     * RFC 6979 nonce generator of the current thread, it is fully reset by every init.
+     */
+    private static final ThreadLocal<HMacDSAKCalculator> K_CALCULATOR =
+            ThreadLocal.withInitial(() -> new HMacDSAKCalculator(new SHA512Digest()));
+
 
     static {
         X9ECParameters params = SECNamedCurves.getByName(CURVE_NAME);
@@ -417,8 +425,9 @@ public class ECKeyP256 implements Serializable {
      * @return 20-byte address
      */
     public static byte[] computeAddress(byte[] pubBytes) {
-        return HashUtil.sha3omit12(
-                Arrays.copyOfRange(pubBytes, 1, pubBytes.length));
+        byte[] address = new byte[HashUtil.ADDRESS_LENGTH];
+        HashUtil.sha3omit12(pubBytes, 1, pubBytes.length - 1, address, 0);
+        return address;
     }
 
     /**
@@ -700,11 +709,7 @@ public class ECKeyP256 implements Serializable {
         if (privKey == null)
             throw new MissingPrivateKeyException();
         if (privKey instanceof BCECPrivateKey) {
-            ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA512Digest()));
-            ECPrivateKeyParameters privKeyParams = new ECPrivateKeyParameters(((BCECPrivateKey) privKey).getD(), CURVE);
-            signer.init(true, privKeyParams);
-            BigInteger[] components = signer.generateSignature(input);
-            return new ECDSASignature(components[0], components[1]).toCanonicalised();
+            return doSignRecoverable(((BCECPrivateKey) privKey).getD(), input);
         } else {
             try {
                 final Signature ecSig = ECSignatureFactory.getRawInstance(provider);
@@ -720,6 +725,46 @@ public class ECKeyP256 implements Serializable {
         }
     }
 
+    /**
+     * Deterministic ECDSA signing (RFC 6979), the same as {@link ECDSASigner} with a
+     * {@link HMacDSAKCalculator}. The recovery id is taken from the nonce point R while
+     * signing: bit 0 is the parity of R.y, bit 1 is set when R.x overflowed the curve order.
+     * Canonicalising S negates R, so it flips the parity bit.
+     *
+     * @param d     private key
+     * @param input 32 bytes hash to sign
+     * @return canonical signature with v set
+     */
+    private static ECDSASignature doSignRecoverable(BigInteger d, byte[] input) {
+        BigInteger n = CURVE.getN();
+        BigInteger e = new BigInteger(1, input);
+        HMacDSAKCalculator kCalculator = K_CALCULATOR.get();
+        kCalculator.init(n, d, input);
+        ECMultiplier basePointMultiplier = new FixedPointCombMultiplier();
+
+        BigInteger r, s;
+        int recId;
+        do {
+            BigInteger k;
+            do {
+                k = kCalculator.nextK();
+                ECPoint p = basePointMultiplier.multiply(CURVE.getG(), k).normalize();
+                BigInteger x = p.getAffineXCoord().toBigInteger();
+                r = x.mod(n);
+                recId = (p.getAffineYCoord().testBitZero() ? 1 : 0) | (x.compareTo(n) >= 0 ? 2 : 0);
+            } while (r.signum() == 0);
+            s = k.modInverse(n).multiply(e.add(d.multiply(r))).mod(n);
+        } while (s.signum() == 0);
+
+        if (s.compareTo(HALF_CURVE_ORDER) > 0) {
+            s = n.subtract(s);
+            recId ^= 1;
+        }
+        ECDSASignature signature = new ECDSASignature(r, s);
+        signature.v = (byte) (recId + 27);
+        return signature;
+    }
+
 
     /**
      * Takes the keccak hash (32 bytes) of data and returns the ECDSA signature
@@ -730,6 +775,10 @@ public class ECKeyP256 implements Serializable {
      */
     public ECDSASignature sign(byte[] messageHash) {
         ECDSASignature sig = doSign(messageHash);
+        if (sig.v != 0) {
+            // The recId has been derived while signing.
+            return sig;
+        }
         // Now we have to work backwards to figure out the recId needed to recover the signature.
         int recId = -1;
         byte[] thisKey = this.pub.getEncoded(/* compressed */ false);
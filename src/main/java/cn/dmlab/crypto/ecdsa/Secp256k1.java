@@ -0,0 +1,180 @@
+package cn.dmlab.crypto.ecdsa;
+
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.crypto.signers.HMacDSAKCalculator;
+import org.bouncycastle.math.ec.ECAlgorithms;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECMultiplier;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+import org.bouncycastle.math.ec.FixedPointUtil;
+
+import java.math.BigInteger;
+
+/**
+ * secp256k1 arithmetic used by {@link ECKeyS256}.
+ * <p>
+ * It runs on Bouncy Castle's dedicated secp256k1 curve, which has a specialised field
+ * implementation and the GLV endomorphism configured, instead of the generic prime curve
+ * of {@link ECKeyS256#CURVE}. Multiplications of the generator use a comb table that is
+ * built once per JVM on first use, variable base multiplications in verification and
+ * public key recovery go through the GLV decomposition.
+ * <p>
+ * Points never leave this class, public keys are exchanged in their encoded form.
+ */
+public final class Secp256k1 {
+
+    private static final X9ECParameters PARAMS = CustomNamedCurves.getByName("secp256k1");
+    private static final ECCurve CURVE = PARAMS.getCurve();
+    private static final BigInteger N = PARAMS.getN();
+    private static final BigInteger HALF_N = N.shiftRight(1);
+
+    /**
+     * Width of the comb table of the generator, 2^8 points.
+     */
+    private static final int COMB_WIDTH = 8;
+
+    private static final ECMultiplier BASE_MULTIPLIER = new FixedPointCombMultiplier();
+
+    /**
+     * RFC 6979 nonce generator of the current thread, it is fully reset by every init.
+     */
+    private static final ThreadLocal<HMacDSAKCalculator> K_CALCULATOR =
+            ThreadLocal.withInitial(() -> new HMacDSAKCalculator(new SHA256Digest()));
+
+    private Secp256k1() {
+    }
+
+    /**
+     * The generator with its comb table, precomputed on first access.
+     */
+    private static class Generator {
+        private static final ECPoint G;
+
+        static {
+            G = PARAMS.getG();
+            FixedPointUtil.precompute(G, COMB_WIDTH);
+        }
+    }
+
+    /**
+     * Multiply the generator with the scalar.
+     *
+     * @param k scalar
+     * @return normalized point
+     */
+    static ECPoint multiplyG(BigInteger k) {
+        return BASE_MULTIPLIER.multiply(Generator.G, k).normalize();
+    }
+
+    /**
+     * Derive the public key from the private key.
+     *
+     * @param privKey    private key
+     * @param compressed whether to use the compressed encoding
+     * @return encoded public key
+     */
+    public static byte[] publicKeyFromPrivate(BigInteger privKey, boolean compressed) {
+        return multiplyG(privKey).getEncoded(compressed);
+    }
+
+    /**
+     * Deterministic ECDSA signing (RFC 6979). The recovery id is taken from the nonce point R
+     * while signing: bit 0 is the parity of R.y, bit 1 is set when R.x overflowed the curve
+     * order. Canonicalising S negates R, so it flips the parity bit.
+     *
+     * @param privKey     private key
+     * @param messageHash 32 bytes hash to sign
+     * @return canonical signature with v set
+     */
+    public static ECKeyS256.ECDSASignature sign(BigInteger privKey, byte[] messageHash) {
+        BigInteger e = new BigInteger(1, messageHash);
+        HMacDSAKCalculator kCalculator = K_CALCULATOR.get();
+        kCalculator.init(N, privKey, messageHash);
+
+        BigInteger r, s;
+        int recId;
+        do {
+            BigInteger k;
+            do {
+                k = kCalculator.nextK();
+                ECPoint p = multiplyG(k);
+                BigInteger x = p.getAffineXCoord().toBigInteger();
+                r = x.mod(N);
+                recId = (p.getAffineYCoord().testBitZero() ? 1 : 0) | (x.compareTo(N) >= 0 ? 2 : 0);
+            } while (r.signum() == 0);
+            s = k.modInverse(N).multiply(e.add(privKey.multiply(r))).mod(N);
+        } while (s.signum() == 0);
+
+        if (s.compareTo(HALF_N) > 0) {
+            s = N.subtract(s);
+            recId ^= 1;
+        }
+        ECKeyS256.ECDSASignature signature = new ECKeyS256.ECDSASignature(r, s);
+        signature.v = (byte) (recId + 27);
+        return signature;
+    }
+
+    /**
+     * Verify the signature of the hash with the encoded public key.
+     *
+     * @param messageHash hash of the signed data
+     * @param r           r component
+     * @param s           s component
+     * @param pub         encoded public key
+     * @return whether the signature is valid
+     */
+    public static boolean verify(byte[] messageHash, BigInteger r, BigInteger s, byte[] pub) {
+        if (r.signum() <= 0 || r.compareTo(N) >= 0 || s.signum() <= 0 || s.compareTo(N) >= 0) {
+            return false;
+        }
+        ECPoint q = CURVE.decodePoint(pub);
+        BigInteger e = new BigInteger(1, messageHash);
+        BigInteger c = s.modInverse(N);
+        BigInteger u1 = e.multiply(c).mod(N);
+        BigInteger u2 = r.multiply(c).mod(N);
+        ECPoint point = ECAlgorithms.sumOfTwoMultiplies(Generator.G, u1, q, u2).normalize();
+        if (point.isInfinity()) {
+            return false;
+        }
+        return point.getAffineXCoord().toBigInteger().mod(N).equals(r);
+    }
+
+    /**
+     * Recover the public key from the signature according to SEC1v2 section 4.1.6.
+     *
+     * @param recId       which possible key to recover
+     * @param r           r component
+     * @param s           s component
+     * @param messageHash hash of the signed data
+     * @return 65 bytes uncompressed public key, or null if recovery is not possible
+     */
+    public static byte[] recoverPublicKey(int recId, BigInteger r, BigInteger s, byte[] messageHash) {
+        BigInteger x = r.add(BigInteger.valueOf(recId / 2).multiply(N));
+        if (x.compareTo(CURVE.getField().getCharacteristic()) >= 0) {
+            return null;
+        }
+        byte[] compressed = new byte[33];
+        compressed[0] = (byte) ((recId & 1) == 1 ? 0x03 : 0x02);
+        byte[] xBytes = x.toByteArray();
+        int length = Math.min(xBytes.length, 32);
+        System.arraycopy(xBytes, xBytes.length - length, compressed, 33 - length, length);
+        ECPoint R;
+        try {
+            R = CURVE.decodePoint(compressed);
+        } catch (IllegalArgumentException ex) {
+            // x is not on the curve
+            return null;
+        }
+        // The cofactor of secp256k1 is 1, every point on the curve has order n, so nR is infinity.
+
+        BigInteger e = new BigInteger(1, messageHash);
+        BigInteger rInv = r.modInverse(N);
+        BigInteger srInv = rInv.multiply(s).mod(N);
+        BigInteger eInvrInv = rInv.multiply(N.subtract(e.mod(N))).mod(N);
+        ECPoint q = ECAlgorithms.sumOfTwoMultiplies(Generator.G, eInvrInv, R, srInv);
+        return q.getEncoded(false);
+    }
+}
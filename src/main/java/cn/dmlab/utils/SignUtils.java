@@ -4,13 +4,41 @@ import cn.dmlab.crypto.HashUtil;
 import cn.dmlab.crypto.ecdsa.ECKeyP256;
 import cn.dmlab.crypto.ecdsa.ECKeyS256;
 import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.UnsafeByteOperations;
 import org.web3j.crypto.ECKeyPair;
 import org.web3j.crypto.Sign;
 import pb.*;
 
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.UnaryOperator;
+
 public class SignUtils {
 
     private static byte Secp256k1_type = 3;
+
+    /**
+     * Per thread buffer of the hash to sign, signers do not keep a reference to it.
+     */
+    private static final ThreadLocal<byte[]> SIGN_MESSAGE = ThreadLocal.withInitial(() -> new byte[HashUtil.HASH_LENGTH]);
+
+    private static final int FROM_FIELD = Transaction.BxhTransaction.FROM_FIELD_NUMBER;
+    private static final int TO_FIELD = Transaction.BxhTransaction.TO_FIELD_NUMBER;
+    private static final int TIMESTAMP_FIELD = Transaction.BxhTransaction.TIMESTAMP_FIELD_NUMBER;
+    private static final int PAYLOAD_FIELD = Transaction.BxhTransaction.PAYLOAD_FIELD_NUMBER;
+    private static final int NONCE_FIELD = Transaction.BxhTransaction.NONCE_FIELD_NUMBER;
+    private static final int AMOUNT_FIELD = Transaction.BxhTransaction.AMOUNT_FIELD_NUMBER;
+    private static final int TYP_FIELD = Transaction.BxhTransaction.TYP_FIELD_NUMBER;
+
+    /**
+     * Number of transactions a sign task handles without splitting further.
+     */
+    private static final int SIGN_BATCH_THRESHOLD = 16;
+
     /**
      * Sign tx and return signed tx
      *
@@ -21,14 +49,31 @@ public class SignUtils {
     public static Transaction.BxhTransaction sign(Transaction.BxhTransaction unsignedTx
             , ECKeyS256 ecKeyS256) {
         byte[] txHash = needToHash(unsignedTx);
-        byte[] signMessage = HashUtil.sha3(txHash);
+        byte[] signMessage = hashToSign(txHash);
         ECKeyS256.ECDSASignature sig = ecKeyS256.sign(signMessage);
         return unsignedTx.toBuilder()
-                .setTransactionHash(ByteString.copyFrom(txHash))
+                .setTransactionHash(UnsafeByteOperations.unsafeWrap(txHash))
                 .setSignature(ByteString.copyFrom(concat(new byte[]{Secp256k1_type}, sig.toByteArray())))
                 .build();
     }
 
+    /**
+     * Hash BitXHub knows a signed tx by, the SHA-256 of the bytes {@code sign} stores as its
+     * transaction hash. SendTransaction answers, receipts and blocks carry this one.
+     *
+     * @param signedTx signed tx
+     * @return 32 bytes hash
+     */
+    public static byte[] txHash(Transaction.BxhTransaction signedTx) {
+        return HashUtil.sha3(signedTx.getTransactionHash().toByteArray());
+    }
+
+    private static byte[] hashToSign(byte[] txHash) {
+        byte[] signMessage = SIGN_MESSAGE.get();
+        HashUtil.sha3(txHash, 0, txHash.length, signMessage, 0);
+        return signMessage;
+    }
+
     public static byte[] concat(byte[] a, byte[] b) {
         byte[] c= new byte[a.length + b.length];
         System.arraycopy(a, 0, c, 0, a.length);
@@ -45,36 +90,95 @@ public class SignUtils {
      */
     public static Transaction.BxhTransaction sign(Transaction.BxhTransaction unsignedTx
             , ECKeyP256 ecKey) {
-        byte[] signMessage = HashUtil.sha3(needToHash(unsignedTx));
+        byte[] txHash = needToHash(unsignedTx);
+        byte[] signMessage = hashToSign(txHash);
         ECKeyP256.ECDSASignature sig = ecKey.sign(signMessage);
         return unsignedTx.toBuilder()
-                .setTransactionHash(ByteString.copyFrom(needToHash(unsignedTx))) //set tx hash
+                .setTransactionHash(UnsafeByteOperations.unsafeWrap(txHash)) //set tx hash
                 .setSignature(ByteString.copyFrom(sig.toByteArray(ecKey.getPubKey())))
                 .build();
     }
 
+    /**
+     * Serialize the signed fields of the tx, the bytes are the same as a BxhTransaction that
+     * only carries from, to, timestamp, payload, nonce, amount and typ.
+     * <p>
+     * The fields are written straight into an array of the exact encoded size, so no
+     * intermediate message or buffer is created.
+     *
+     * @param unsignedTx unsigned tx
+     * @return bytes to hash
+     */
     public static byte[] needToHash(Transaction.BxhTransaction unsignedTx) {
-        Transaction.BxhTransaction tx = Transaction.BxhTransaction.newBuilder()
-                .setFrom(unsignedTx.getFrom())
-                .setTo(unsignedTx.getTo())
-                .setTimestamp(unsignedTx.getTimestamp())
-                .setPayload(unsignedTx.getPayload())
-                .setNonce(unsignedTx.getNonce())
-                .setAmount(unsignedTx.getAmount())
-                .setTyp(unsignedTx.getTyp())
-                .build();
-        if (unsignedTx.getIBTP() != Ibtp.IBTP.getDefaultInstance()) {
-            tx.toBuilder().setIBTP(unsignedTx.getIBTP()).build();
+        ByteString from = unsignedTx.getFrom();
+        ByteString to = unsignedTx.getTo();
+        long timestamp = unsignedTx.getTimestamp();
+        ByteString payload = unsignedTx.getPayload();
+        long nonce = unsignedTx.getNonce();
+        String amount = unsignedTx.getAmount();
+        int typ = unsignedTx.getTyp();
+
+        int size = 0;
+        if (!from.isEmpty()) {
+            size += CodedOutputStream.computeBytesSize(FROM_FIELD, from);
+        }
+        if (!to.isEmpty()) {
+            size += CodedOutputStream.computeBytesSize(TO_FIELD, to);
+        }
+        if (timestamp != 0L) {
+            size += CodedOutputStream.computeInt64Size(TIMESTAMP_FIELD, timestamp);
+        }
+        if (!payload.isEmpty()) {
+            size += CodedOutputStream.computeBytesSize(PAYLOAD_FIELD, payload);
+        }
+        if (nonce != 0L) {
+            size += CodedOutputStream.computeUInt64Size(NONCE_FIELD, nonce);
+        }
+        if (!amount.isEmpty()) {
+            size += CodedOutputStream.computeStringSize(AMOUNT_FIELD, amount);
+        }
+        if (typ != 0) {
+            size += CodedOutputStream.computeUInt32Size(TYP_FIELD, typ);
         }
 
-        return tx.toByteArray();
+        byte[] result = new byte[size];
+        CodedOutputStream output = CodedOutputStream.newInstance(result);
+        try {
+            if (!from.isEmpty()) {
+                output.writeBytes(FROM_FIELD, from);
+            }
+            if (!to.isEmpty()) {
+                output.writeBytes(TO_FIELD, to);
+            }
+            if (timestamp != 0L) {
+                output.writeInt64(TIMESTAMP_FIELD, timestamp);
+            }
+            if (!payload.isEmpty()) {
+                output.writeBytes(PAYLOAD_FIELD, payload);
+            }
+            if (nonce != 0L) {
+                output.writeUInt64(NONCE_FIELD, nonce);
+            }
+            if (!amount.isEmpty()) {
+                output.writeString(AMOUNT_FIELD, amount);
+            }
+            if (typ != 0) {
+                output.writeUInt32(TYP_FIELD, typ);
+            }
+            output.checkNoSpaceLeft();
+        } catch (IOException e) {
+            // the array is sized from the same fields, running out of space is a bug
+            throw new IllegalStateException("serialize tx failed", e);
+        }
+        return result;
     }
 
     public static Transaction.BxhTransaction sign(Transaction.BxhTransaction unsignedTx, ECKeyPair ecKey) {
-        byte[] signMessage = HashUtil.sha3(needToHash(unsignedTx));
+        byte[] txHash = needToHash(unsignedTx);
+        byte[] signMessage = hashToSign(txHash);
         Sign.SignatureData sig = Sign.signMessage(signMessage, ecKey, false);
         return unsignedTx.toBuilder()
-                .setTransactionHash(ByteString.copyFrom(needToHash(unsignedTx))) //set tx hash
+                .setTransactionHash(UnsafeByteOperations.unsafeWrap(txHash)) //set tx hash
                 .setSignature(ByteString.copyFrom(toByteArray(sig)))
                 .build();
 
@@ -91,4 +195,110 @@ public class SignUtils {
                 sig.getS(),
                 new byte[]{fixedV});
     }
+
+    /**
+     * Sign txs in parallel on the common ForkJoinPool.
+     *
+     * @param unsignedTxs unsigned txs
+     * @param ecKeyS256   ecdsa key pair
+     * @return signed txs in the order of the input
+     */
+    public static List<Transaction.BxhTransaction> signAll(List<Transaction.BxhTransaction> unsignedTxs, ECKeyS256 ecKeyS256) {
+        return signAll(unsignedTxs, ecKeyS256, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Sign txs in parallel on the pool.
+     *
+     * @param unsignedTxs unsigned txs
+     * @param ecKeyS256   ecdsa key pair
+     * @param pool        pool to sign on
+     * @return signed txs in the order of the input
+     */
+    public static List<Transaction.BxhTransaction> signAll(List<Transaction.BxhTransaction> unsignedTxs, ECKeyS256 ecKeyS256, ForkJoinPool pool) {
+        return signAll(unsignedTxs, tx -> sign(tx, ecKeyS256), pool);
+    }
+
+    /**
+     * Sign txs in parallel on the common ForkJoinPool.
+     *
+     * @param unsignedTxs unsigned txs
+     * @param ecKey       ecdsa key pair
+     * @return signed txs in the order of the input
+     */
+    public static List<Transaction.BxhTransaction> signAll(List<Transaction.BxhTransaction> unsignedTxs, ECKeyP256 ecKey) {
+        return signAll(unsignedTxs, ecKey, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Sign txs in parallel on the pool.
+     *
+     * @param unsignedTxs unsigned txs
+     * @param ecKey       ecdsa key pair
+     * @param pool        pool to sign on
+     * @return signed txs in the order of the input
+     */
+    public static List<Transaction.BxhTransaction> signAll(List<Transaction.BxhTransaction> unsignedTxs, ECKeyP256 ecKey, ForkJoinPool pool) {
+        return signAll(unsignedTxs, tx -> sign(tx, ecKey), pool);
+    }
+
+    /**
+     * Sign txs in parallel on the common ForkJoinPool.
+     *
+     * @param unsignedTxs unsigned txs
+     * @param ecKey       ecdsa key pair
+     * @return signed txs in the order of the input
+     */
+    public static List<Transaction.BxhTransaction> signAll(List<Transaction.BxhTransaction> unsignedTxs, ECKeyPair ecKey) {
+        return signAll(unsignedTxs, ecKey, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Sign txs in parallel on the pool.
+     *
+     * @param unsignedTxs unsigned txs
+     * @param ecKey       ecdsa key pair
+     * @param pool        pool to sign on
+     * @return signed txs in the order of the input
+     */
+    public static List<Transaction.BxhTransaction> signAll(List<Transaction.BxhTransaction> unsignedTxs, ECKeyPair ecKey, ForkJoinPool pool) {
+        return signAll(unsignedTxs, tx -> sign(tx, ecKey), pool);
+    }
+
+    private static List<Transaction.BxhTransaction> signAll(List<Transaction.BxhTransaction> unsignedTxs,
+                                                            UnaryOperator<Transaction.BxhTransaction> signer,
+                                                            ForkJoinPool pool) {
+        Transaction.BxhTransaction[] txs = unsignedTxs.toArray(new Transaction.BxhTransaction[0]);
+        pool.invoke(new SignTask(txs, signer, 0, txs.length));
+        return Arrays.asList(txs);
+    }
+
+    /**
+     * Sign the txs of [from, to) in place, splitting the range until it is small enough.
+     */
+    private static class SignTask extends RecursiveAction {
+        private final Transaction.BxhTransaction[] txs;
+        private final UnaryOperator<Transaction.BxhTransaction> signer;
+        private final int from;
+        private final int to;
+
+        private SignTask(Transaction.BxhTransaction[] txs, UnaryOperator<Transaction.BxhTransaction> signer, int from, int to) {
+            this.txs = txs;
+            this.signer = signer;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SIGN_BATCH_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    txs[i] = signer.apply(txs[i]);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new SignTask(txs, signer, from, mid), new SignTask(txs, signer, mid, to));
+        }
+    }
 }
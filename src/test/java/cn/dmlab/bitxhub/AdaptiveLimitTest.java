@@ -0,0 +1,156 @@
+package cn.dmlab.bitxhub;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import pb.Transaction;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class AdaptiveLimitTest {
+
+    @Test
+    public void growsWhileSaturated() throws InterruptedException {
+        AdaptiveLimit limit = new AdaptiveLimit(4, 10);
+        for (int i = 0; i < 20; i++) {
+            long[] starts = new long[limit.getLimit()];
+            for (int j = 0; j < starts.length; j++) {
+                starts[j] = limit.acquire();
+            }
+            for (long start : starts) {
+                limit.release(start, null);
+            }
+        }
+        Assert.assertEquals(10, limit.getLimit());
+        Assert.assertEquals(0, limit.getInFlight());
+    }
+
+    @Test
+    public void idleLimitDoesNotGrow() throws InterruptedException {
+        AdaptiveLimit limit = new AdaptiveLimit(10, 100);
+        for (int i = 0; i < 100; i++) {
+            limit.release(limit.acquire(), null);
+        }
+        Assert.assertEquals(10, limit.getLimit());
+    }
+
+    @Test
+    public void oneCutPerRoundTrip() throws InterruptedException {
+        AdaptiveLimit limit = new AdaptiveLimit(20, 100);
+        long first = limit.acquire();
+        long second = limit.acquire();
+        limit.release(first, Status.RESOURCE_EXHAUSTED.asRuntimeException());
+        Assert.assertEquals(18, limit.getLimit());
+        // started before the cut
+        limit.release(second, Status.UNAVAILABLE.asRuntimeException());
+        Assert.assertEquals(18, limit.getLimit());
+
+        limit.release(limit.acquire(), Status.UNAVAILABLE.asRuntimeException());
+        Assert.assertEquals(16, limit.getLimit());
+    }
+
+    @Test
+    public void growsByAboutOnePerRoundTrip() throws InterruptedException {
+        AdaptiveLimit limit = new AdaptiveLimit(10, 100);
+        Deque<Long> starts = new ArrayDeque<>();
+        for (int i = 0; i < 10; i++) {
+            starts.add(limit.acquire());
+        }
+        // two round trips of ten calls with all slots in use
+        for (int i = 0; i < 20; i++) {
+            limit.release(starts.poll(), null);
+            starts.add(limit.acquire());
+        }
+        Assert.assertEquals(11, limit.getLimit());
+    }
+
+    @Test
+    public void overloadAmongSuccessesLowersLimit() throws InterruptedException {
+        AdaptiveLimit limit = new AdaptiveLimit(20, 100);
+        int before = limit.getLimit();
+        for (int i = 0; i < 5; i++) {
+            long[] starts = new long[limit.getLimit()];
+            for (int j = 0; j < starts.length; j++) {
+                starts[j] = limit.acquire();
+            }
+            // one call in ten is refused, the others succeed
+            for (int j = 0; j < starts.length; j++) {
+                limit.release(starts[j], j % 10 == 5 ? Status.RESOURCE_EXHAUSTED.asRuntimeException() : null);
+            }
+            Assert.assertTrue(limit.getLimit() < before);
+            before = limit.getLimit();
+        }
+    }
+
+    @Test
+    public void otherErrorsKeepLimit() throws InterruptedException {
+        AdaptiveLimit limit = new AdaptiveLimit(20, 100);
+        limit.release(limit.acquire(), Status.INVALID_ARGUMENT.withDescription("invalid nonce").asRuntimeException());
+        Assert.assertEquals(20, limit.getLimit());
+    }
+
+    @Test
+    public void latencySpikeCuts() throws InterruptedException {
+        AdaptiveLimit limit = new AdaptiveLimit(20, 100);
+        for (int i = 0; i < 10; i++) {
+            limit.release(limit.acquire(), null);
+        }
+        long start = limit.acquire();
+        int before = limit.getLimit();
+        // a call 10 seconds slower than the others
+        limit.release(start - TimeUnit.SECONDS.toNanos(10), null);
+        Assert.assertTrue(limit.getLimit() < before);
+    }
+
+    @Test
+    public void acquireBlocksAtLimit() throws InterruptedException {
+        AdaptiveLimit limit = new AdaptiveLimit(1, 1);
+        long start = limit.acquire();
+        CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                limit.release(limit.acquire(), null);
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        Assert.assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        limit.release(start, null);
+        Assert.assertTrue(acquired.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void clientSendsAreLimited() throws InterruptedException {
+        MockChainBroker mock = new MockChainBroker().start();
+        Config config = mock.config();
+        config.setAdaptiveSendLimit(true);
+        GrpcClientImpl client = new GrpcClientImpl(config);
+        try {
+            Transaction.BxhTransaction tx = mock.transfer();
+            Assert.assertNotNull(client.sendTransaction(tx, null));
+
+            mock.failureRate(1, Status.RESOURCE_EXHAUSTED);
+            try {
+                client.sendTransaction(tx, null);
+                Assert.fail();
+            } catch (StatusRuntimeException e) {
+                Assert.assertEquals(Status.Code.RESOURCE_EXHAUSTED, e.getStatus().getCode());
+            }
+            Assert.assertEquals(18, client.getSendLimit().getLimit());
+            Assert.assertEquals(18L, (long) client.getMetrics().getGauges().get("SendLimit"));
+            Assert.assertEquals(0, client.getSendLimit().getInFlight());
+        } finally {
+            client.stop();
+            mock.close();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package cn.dmlab.bitxhub;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+@RunWith(JUnit4.class)
+public class BatchingPublisherTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Source source = new Source();
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void bySize() {
+        Collector collector = subscribe(3, 10_000);
+        collector.subscription.request(2);
+        Assert.assertEquals(6, source.requested.get());
+        for (int i = 1; i <= 6; i++) {
+            source.subscriber.onNext(i);
+        }
+        Assert.assertEquals(Arrays.asList(Arrays.asList(1, 2, 3), Arrays.asList(4, 5, 6)), collector.batches);
+    }
+
+    @Test
+    public void byTime() throws InterruptedException {
+        Collector collector = subscribe(10, 50);
+        collector.subscription.request(1);
+        source.subscriber.onNext(1);
+        source.subscriber.onNext(2);
+        Assert.assertTrue(collector.batches.isEmpty());
+        Assert.assertTrue(collector.received.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Arrays.asList(Arrays.asList(1, 2)), collector.batches);
+    }
+
+    @Test
+    public void waitForDemand() throws InterruptedException {
+        Collector collector = subscribe(2, 20);
+        collector.subscription.request(1);
+        Assert.assertEquals(2, source.requested.get());
+        source.subscriber.onNext(1);
+        Assert.assertTrue(collector.received.await(5, TimeUnit.SECONDS));
+        // the list is published, the source was asked for the second item only
+        Assert.assertEquals(2, source.requested.get());
+        source.subscriber.onNext(2);
+        Thread.sleep(100);
+        Assert.assertEquals(1, collector.batches.size());
+
+        collector.subscription.request(1);
+        Assert.assertEquals(Arrays.asList(Arrays.asList(1), Arrays.asList(2)), collector.batches);
+        // the list that was due covered the demand
+        Assert.assertEquals(2, source.requested.get());
+    }
+
+    @Test
+    public void completeFlushes() {
+        Collector collector = subscribe(5, 10_000);
+        collector.subscription.request(Long.MAX_VALUE);
+        source.subscriber.onNext(1);
+        source.subscriber.onComplete();
+        Assert.assertEquals(Arrays.asList(Arrays.asList(1)), collector.batches);
+        Assert.assertEquals(0, collector.terminated.getCount());
+        Assert.assertNull(collector.error);
+    }
+
+    @Test
+    public void errorPassesThrough() {
+        Collector collector = subscribe(5, 10_000);
+        collector.subscription.request(1);
+        source.subscriber.onError(new IllegalStateException("broken"));
+        Assert.assertEquals(0, collector.terminated.getCount());
+        Assert.assertTrue(collector.error instanceof IllegalStateException);
+    }
+
+    private Collector subscribe(int maxSize, long maxDelayMillis) {
+        Collector collector = new Collector();
+        new BatchingPublisher<>(source, maxSize, maxDelayMillis, scheduler).subscribe(collector);
+        return collector;
+    }
+
+    private static class Source implements Publisher<Integer> {
+        private final AtomicLong requested = new AtomicLong();
+        private Subscriber<? super Integer> subscriber;
+
+        @Override
+        public void subscribe(Subscriber<? super Integer> s) {
+            subscriber = s;
+            s.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                    requested.addAndGet(n);
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+        }
+    }
+
+    private static class Collector implements Subscriber<List<Integer>> {
+        private final List<List<Integer>> batches = new CopyOnWriteArrayList<>();
+        private final CountDownLatch received = new CountDownLatch(1);
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private volatile Subscription subscription;
+        private volatile Throwable error;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(List<Integer> batch) {
+            batches.add(batch);
+            received.countDown();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            terminated.countDown();
+        }
+    }
+}
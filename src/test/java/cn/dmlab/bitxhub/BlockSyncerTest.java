@@ -0,0 +1,190 @@
+package cn.dmlab.bitxhub;
+
+import io.grpc.Status;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import pb.BlockOuterClass;
+import pb.Broker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class BlockSyncerTest {
+    private ScheduledExecutorService executor;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+    private final Random random = new Random(1);
+
+    @Before
+    public void setUp() {
+        executor = Executors.newScheduledThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void inOrderWithinWindow() {
+        BlockSyncer syncer = new BlockSyncer(this::fetchShuffled, 3);
+        List<Long> heights = new ArrayList<>();
+        long last = syncer.sync(1, 500, block -> heights.add(block.getBlockHeader().getNumber()));
+
+        Assert.assertEquals(500, last);
+        Assert.assertEquals(500, heights.size());
+        for (int i = 0; i < heights.size(); i++) {
+            Assert.assertEquals(i + 1, (long) heights.get(i));
+        }
+        Assert.assertTrue(maxInFlight.get() <= 3);
+        Assert.assertTrue(maxInFlight.get() > 1);
+    }
+
+    @Test
+    public void partialAndChainHead() {
+        // the node has 100 blocks and returns at most 7 per call
+        BlockSyncer syncer = new BlockSyncer((start, end) -> CompletableFuture.completedFuture(
+                blocks(start, Math.min(Math.min(end, start + 6), 100))), 4);
+        List<Long> heights = new ArrayList<>();
+        long last = syncer.sync(10, 1000, block -> heights.add(block.getBlockHeader().getNumber()));
+
+        Assert.assertEquals(100, last);
+        Assert.assertEquals(91, heights.size());
+        Assert.assertEquals(10, (long) heights.get(0));
+    }
+
+    @Test
+    public void splitTooLarge() {
+        BlockSyncer syncer = new BlockSyncer((start, end) -> {
+            CompletableFuture<Broker.GetBlocksResponse> future = new CompletableFuture<>();
+            if (end - start >= 4) {
+                future.completeExceptionally(Status.RESOURCE_EXHAUSTED.asRuntimeException());
+            } else {
+                future.complete(blocks(start, end));
+            }
+            return future;
+        }, 2);
+        List<Long> heights = new ArrayList<>();
+        Assert.assertEquals(40, syncer.sync(1, 40, block -> heights.add(block.getBlockHeader().getNumber())));
+        for (int i = 0; i < heights.size(); i++) {
+            Assert.assertEquals(i + 1, (long) heights.get(i));
+        }
+        Assert.assertEquals(40, heights.size());
+    }
+
+    @Test
+    public void refetchesStayInWindow() {
+        // a chunk of more than 5 blocks is too large, and the node returns at most 3 per call
+        BlockSyncer syncer = new BlockSyncer((start, end) -> {
+            if (end - start >= 5) {
+                CompletableFuture<Broker.GetBlocksResponse> future = new CompletableFuture<>();
+                future.completeExceptionally(Status.RESOURCE_EXHAUSTED.asRuntimeException());
+                return future;
+            }
+            return fetchShuffled(start, Math.min(end, start + 2));
+        }, 2);
+        List<Long> heights = new ArrayList<>();
+        Assert.assertEquals(200, syncer.sync(1, 200, block -> heights.add(block.getBlockHeader().getNumber())));
+        Assert.assertEquals(200, heights.size());
+        Assert.assertTrue(maxInFlight.get() <= 2);
+    }
+
+    @Test
+    public void gapFails() {
+        BlockSyncer syncer = new BlockSyncer((start, end) -> {
+            Broker.GetBlocksResponse.Builder response = blocks(start, end).toBuilder();
+            // height 5 is missing
+            if (start <= 5 && end >= 5) {
+                response.removeBlocks((int) (5 - start));
+            }
+            return CompletableFuture.completedFuture(response.build());
+        }, 2);
+        List<Long> heights = new ArrayList<>();
+        try {
+            syncer.sync(1, 10, block -> heights.add(block.getBlockHeader().getNumber()));
+            Assert.fail("sync must fail on a gap");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(4, heights.size());
+        }
+    }
+
+    @Test
+    public void retryThenFail() {
+        AtomicInteger attempts = new AtomicInteger();
+        BlockSyncer syncer = new BlockSyncer((start, end) -> {
+            CompletableFuture<Broker.GetBlocksResponse> future = new CompletableFuture<>();
+            if (start == 1 && attempts.incrementAndGet() < BlockSyncer.MAX_ATTEMPTS) {
+                future.completeExceptionally(Status.UNAVAILABLE.asRuntimeException());
+            } else if (start > 1) {
+                future.completeExceptionally(Status.INTERNAL.asRuntimeException());
+            } else {
+                future.complete(blocks(start, end));
+            }
+            return future;
+        }, 1);
+        List<Long> heights = new ArrayList<>();
+        try {
+            syncer.sync(1, 100, block -> heights.add(block.getBlockHeader().getNumber()));
+            Assert.fail("sync must fail");
+        } catch (RuntimeException e) {
+            Assert.assertEquals(Status.Code.INTERNAL, Status.fromThrowable(e).getCode());
+        }
+        Assert.assertEquals(BlockSyncer.INITIAL_CHUNK, heights.size());
+    }
+
+    @Test
+    public void chunkSizeBySize() {
+        // every block is 1 MiB, so a chunk should carry about two of them
+        BlockSyncer syncer = new BlockSyncer((start, end) -> {
+            Broker.GetBlocksResponse.Builder response = Broker.GetBlocksResponse.newBuilder();
+            for (long height = start; height <= end; height++) {
+                response.addBlocks(block(height).toBuilder()
+                        .setTransactions(com.google.protobuf.ByteString.copyFrom(new byte[1 << 20])));
+            }
+            return CompletableFuture.completedFuture(response.build());
+        }, 1);
+        syncer.sync(1, 30, block -> {
+        });
+        Assert.assertEquals(1, syncer.getChunkSize());
+    }
+
+    private CompletableFuture<Broker.GetBlocksResponse> fetchShuffled(long start, long end) {
+        int current = inFlight.incrementAndGet();
+        maxInFlight.accumulateAndGet(current, Math::max);
+        CompletableFuture<Broker.GetBlocksResponse> future = new CompletableFuture<>();
+        int delay;
+        synchronized (random) {
+            delay = random.nextInt(10);
+        }
+        executor.schedule(() -> {
+            inFlight.decrementAndGet();
+            future.complete(blocks(start, end));
+        }, delay, TimeUnit.MILLISECONDS);
+        return future;
+    }
+
+    private static Broker.GetBlocksResponse blocks(long start, long end) {
+        Broker.GetBlocksResponse.Builder response = Broker.GetBlocksResponse.newBuilder();
+        for (long height = start; height <= end; height++) {
+            response.addBlocks(block(height));
+        }
+        return response.build();
+    }
+
+    private static BlockOuterClass.Block block(long height) {
+        return BlockOuterClass.Block.newBuilder()
+                .setBlockHeader(BlockOuterClass.BlockHeader.newBuilder().setNumber(height))
+                .build();
+    }
+}
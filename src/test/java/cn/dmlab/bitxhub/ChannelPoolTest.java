@@ -0,0 +1,117 @@
+package cn.dmlab.bitxhub;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import pb.Broker;
+import pb.Chain;
+import pb.ChainBrokerGrpc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class ChannelPoolTest {
+    private final List<Server> servers = new ArrayList<>();
+    private final List<Queue<StreamObserver<Chain.ChainMeta>>> held = new ArrayList<>();
+    private ChannelPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        List<ManagedChannel> channels = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            String name = "channel-pool-" + i + "-" + System.nanoTime();
+            Queue<StreamObserver<Chain.ChainMeta>> calls = new ConcurrentLinkedQueue<>();
+            held.add(calls);
+            servers.add(InProcessServerBuilder.forName(name)
+                    .directExecutor()
+                    .addService(new ChainBrokerGrpc.ChainBrokerImplBase() {
+                        @Override
+                        public void getChainMeta(Broker.Request request, StreamObserver<Chain.ChainMeta> responseObserver) {
+                            calls.add(responseObserver);
+                        }
+                    })
+                    .build()
+                    .start());
+            channels.add(InProcessChannelBuilder.forName(name).directExecutor().build());
+        }
+        pool = new ChannelPool(channels);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        pool.shutdown();
+        pool.awaitTermination(5, TimeUnit.SECONDS);
+        for (Server server : servers) {
+            server.shutdownNow();
+        }
+    }
+
+    @Test
+    public void leastInFlight() throws Exception {
+        ChainBrokerGrpc.ChainBrokerFutureStub stub = ChainBrokerGrpc.newFutureStub(pool);
+        List<ListenableFuture<Chain.ChainMeta>> futures = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            futures.add(stub.getChainMeta(Broker.Request.getDefaultInstance()));
+        }
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(1, pool.inFlight(i));
+            Assert.assertEquals(1, held.get(i).size());
+        }
+
+        // free the second channel, the next call must go there
+        complete(held.get(1).poll());
+        Assert.assertEquals(0, pool.inFlight(1));
+        futures.add(stub.getChainMeta(Broker.Request.getDefaultInstance()));
+        Assert.assertEquals(1, pool.inFlight(1));
+        Assert.assertEquals(1, held.get(1).size());
+
+        for (Queue<StreamObserver<Chain.ChainMeta>> calls : held) {
+            StreamObserver<Chain.ChainMeta> call;
+            while ((call = calls.poll()) != null) {
+                complete(call);
+            }
+        }
+        for (ListenableFuture<Chain.ChainMeta> future : futures) {
+            Assert.assertEquals(7, future.get(5, TimeUnit.SECONDS).getHeight());
+        }
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(0, pool.inFlight(i));
+        }
+    }
+
+    @Test
+    public void roundRobinWhenIdle() {
+        ChainBrokerGrpc.ChainBrokerFutureStub stub = ChainBrokerGrpc.newFutureStub(pool);
+        int[] served = new int[3];
+        for (int i = 0; i < 6; i++) {
+            stub.getChainMeta(Broker.Request.getDefaultInstance());
+            for (int j = 0; j < 3; j++) {
+                StreamObserver<Chain.ChainMeta> call = held.get(j).poll();
+                if (call != null) {
+                    served[j]++;
+                    complete(call);
+                }
+            }
+        }
+        Assert.assertArrayEquals(new int[]{2, 2, 2}, served);
+    }
+
+    private static void complete(StreamObserver<Chain.ChainMeta> call) {
+        call.onNext(Chain.ChainMeta.newBuilder().setHeight(7).build());
+        call.onCompleted();
+    }
+}
@@ -0,0 +1,129 @@
+package cn.dmlab.bitxhub;
+
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.netty.NettyServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import pb.Broker;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class ClientMetricsTest {
+    private MockChainBroker mock;
+    private GrpcClientImpl client;
+    private Server server;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (client != null) {
+            client.stop();
+        }
+        if (server != null) {
+            server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        }
+        mock.close();
+    }
+
+    @Test
+    public void callsAndLatency() {
+        mock = new MockChainBroker().latency(50, 0).start();
+        client = new GrpcClientImpl(mock.config());
+        for (int i = 0; i < 3; i++) {
+            client.getChainMeta();
+        }
+        ClientMetrics.MethodSnapshot snapshot = client.getMetrics().snapshot("GetChainMeta");
+        Assert.assertEquals(3, snapshot.getCalls());
+        Assert.assertEquals(0, snapshot.getInFlight());
+        Assert.assertTrue(snapshot.getErrors().isEmpty());
+        Assert.assertEquals(3, snapshot.getLatencyNanos().getCount());
+        Assert.assertTrue(snapshot.getLatencyNanos().getP99() >= TimeUnit.MILLISECONDS.toNanos(50));
+        Assert.assertNull(client.getMetrics().snapshot("SendTransaction"));
+    }
+
+    @Test
+    public void errors() {
+        mock = new MockChainBroker().failureRate(1, Status.UNAVAILABLE).start();
+        client = new GrpcClientImpl(mock.config());
+        try {
+            client.getChainMeta();
+            Assert.fail();
+        } catch (StatusRuntimeException e) {
+            Assert.assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+        }
+        ClientMetrics.MethodSnapshot snapshot = client.getMetrics().snapshot("GetChainMeta");
+        Assert.assertEquals(1L, (long) snapshot.getErrors().get("UNAVAILABLE"));
+        Assert.assertEquals(1, snapshot.getLatencyNanos().getCount());
+    }
+
+    @Test
+    public void inFlight() {
+        mock = new MockChainBroker().start();
+        client = new GrpcClientImpl(mock.config());
+        client.subscribe(Broker.SubscriptionRequest.Type.BLOCK, new StreamObserver<Broker.Response>() {
+            @Override
+            public void onNext(Broker.Response value) {
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+        ClientMetrics.MethodSnapshot snapshot = client.getMetrics().snapshot("Subscribe");
+        Assert.assertEquals(1, snapshot.getInFlight());
+        Assert.assertEquals(0, snapshot.getLatencyNanos().getCount());
+    }
+
+    @Test
+    public void messageSizes() throws Exception {
+        mock = new MockChainBroker().start();
+        for (int i = 0; i < 4; i++) {
+            mock.mint();
+        }
+        server = NettyServerBuilder.forAddress(new InetSocketAddress("127.0.0.1", 0))
+                .addService(mock)
+                .build()
+                .start();
+        Config config = Config.defaultConfig();
+        config.setHost("127.0.0.1");
+        config.setPort(server.getPort());
+        client = new GrpcClientImpl(config);
+
+        Broker.GetBlocksResponse response = client.getBlocks(1L, 5L);
+        Assert.assertEquals(5, client.getBlocks(1L, 5L, block -> {
+        }));
+        ClientMetrics.MethodSnapshot snapshot = client.getMetrics().snapshot("GetBlocks");
+        Assert.assertEquals(2, snapshot.getCalls());
+        Assert.assertEquals(2, snapshot.getRequestBytes().getCount());
+        Assert.assertEquals(2, snapshot.getResponseBytes().getCount());
+        Assert.assertEquals(response.getSerializedSize(), snapshot.getResponseBytes().getMax());
+    }
+
+    @Test
+    public void jmx() throws Exception {
+        mock = new MockChainBroker().start();
+        client = new GrpcClientImpl(mock.config());
+        client.getChainMeta();
+        ObjectName name = client.getMetrics().registerMBean("jmx-test");
+        TabularData methods = (TabularData) ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Methods");
+        Assert.assertEquals(1, methods.size());
+
+        client.stop();
+        client = null;
+        Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+    }
+}
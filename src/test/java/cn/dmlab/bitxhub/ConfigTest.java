@@ -0,0 +1,24 @@
+package cn.dmlab.bitxhub;
+
+import cn.dmlab.crypto.ecdsa.ECKeyS256;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ConfigTest {
+
+    @Test
+    public void singleNodeConstructorKeepsDefaults() {
+        Config config = new Config("localhost", 60011, new ECKeyS256(), null, true);
+        config.checkConfig();
+        Config defaults = Config.builder().build();
+        Assert.assertEquals(defaults.getReceiptTimeout(), config.getReceiptTimeout());
+        Assert.assertEquals(defaults.getChannelPoolSize(), config.getChannelPoolSize());
+        Assert.assertEquals(defaults.getProbeInterval(), config.getProbeInterval());
+        Assert.assertEquals(defaults.getAdaptiveSendLimit(), config.getAdaptiveSendLimit());
+        Assert.assertEquals(defaults.getOutboxCheckInterval(), config.getOutboxCheckInterval());
+        Assert.assertEquals(1, config.targets().size());
+    }
+}
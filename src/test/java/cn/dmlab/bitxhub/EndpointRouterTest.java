@@ -0,0 +1,171 @@
+package cn.dmlab.bitxhub;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import pb.Broker;
+import pb.Chain;
+import pb.ChainBrokerGrpc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+@RunWith(JUnit4.class)
+public class EndpointRouterTest {
+    private final List<String> names = new ArrayList<>();
+    private final Server[] servers = new Server[2];
+    private final long[] delays = new long[2];
+    private final AtomicIntegerArray served = new AtomicIntegerArray(2);
+    private ScheduledExecutorService scheduler;
+    private EndpointRouter router;
+
+    @Before
+    public void setUp() throws IOException {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        List<ChannelPool> pools = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            names.add("endpoint-router-" + i + "-" + System.nanoTime());
+            ManagedChannel channel = InProcessChannelBuilder.forName(names.get(i)).directExecutor().build();
+            pools.add(new ChannelPool(Collections.singletonList(channel)));
+            start(i);
+        }
+        router = new EndpointRouter(names, pools);
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        router.shutdown();
+        router.awaitTermination(5, TimeUnit.SECONDS);
+        scheduler.shutdownNow();
+        for (Server server : servers) {
+            if (server != null) {
+                server.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    public void fastestNode() {
+        delays[0] = 30;
+        ChainBrokerGrpc.ChainBrokerBlockingStub stub = ChainBrokerGrpc.newBlockingStub(router);
+        for (int i = 0; i < 10; i++) {
+            stub.getChainMeta(Broker.Request.getDefaultInstance());
+        }
+        Assert.assertEquals(1, served.get(0));
+        Assert.assertEquals(9, served.get(1));
+        Assert.assertTrue(router.latency(0) > router.latency(1));
+    }
+
+    @Test
+    public void stickyAccount() {
+        delays[0] = 30;
+        ChainBrokerGrpc.ChainBrokerBlockingStub stub = ChainBrokerGrpc.newBlockingStub(router)
+                .withOption(EndpointRouter.ACCOUNT, EndpointRouter.accountKey("0xAbC"));
+        for (int i = 0; i < 5; i++) {
+            stub.getChainMeta(Broker.Request.getDefaultInstance());
+        }
+        Assert.assertEquals(5, Math.max(served.get(0), served.get(1)));
+    }
+
+    @Test
+    public void spreadReads() throws InterruptedException {
+        delays[0] = 50;
+        delays[1] = 50;
+        ChainBrokerGrpc.ChainBrokerBlockingStub stub = ChainBrokerGrpc.newBlockingStub(router);
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            readers.add(new Thread(() -> stub.getChainMeta(Broker.Request.getDefaultInstance())));
+        }
+        readers.forEach(Thread::start);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        // the calls in flight make the busier node the more expensive one
+        Assert.assertTrue(served.get(0) >= 2);
+        Assert.assertTrue(served.get(1) >= 2);
+    }
+
+    @Test
+    public void blockRangesAreNotSampled() {
+        delays[0] = 30;
+        ChainBrokerGrpc.newBlockingStub(router)
+                .withOption(EndpointRouter.ENDPOINT, 0)
+                .getBlocks(Broker.GetBlocksRequest.getDefaultInstance());
+        Assert.assertEquals(1, served.get(0));
+        Assert.assertEquals(0, router.latency(0), 0);
+    }
+
+    @Test
+    public void failoverAndProbe() throws Exception {
+        ChainBrokerGrpc.ChainBrokerBlockingStub stub = ChainBrokerGrpc.newBlockingStub(router)
+                .withOption(EndpointRouter.ACCOUNT, "abc");
+        stub.getChainMeta(Broker.Request.getDefaultInstance());
+        int first = served.get(0) == 1 ? 0 : 1;
+        int other = 1 - first;
+
+        servers[first].shutdownNow().awaitTermination();
+        try {
+            stub.getChainMeta(Broker.Request.getDefaultInstance());
+            Assert.fail("node " + first + " is down");
+        } catch (StatusRuntimeException e) {
+            Assert.assertFalse(router.isHealthy(first));
+        }
+        stub.getChainMeta(Broker.Request.getDefaultInstance());
+        Assert.assertEquals(1, served.get(other));
+
+        start(first);
+        router.startProbing(router, scheduler, 50);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!router.isHealthy(first) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        Assert.assertTrue(router.isHealthy(first));
+    }
+
+    private void start(int index) throws IOException {
+        servers[index] = InProcessServerBuilder.forName(names.get(index))
+                .directExecutor()
+                .addService(new ChainBrokerGrpc.ChainBrokerImplBase() {
+                    @Override
+                    public void getChainMeta(Broker.Request request, StreamObserver<Chain.ChainMeta> responseObserver) {
+                        try {
+                            Thread.sleep(delays[index]);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        served.incrementAndGet(index);
+                        responseObserver.onNext(Chain.ChainMeta.getDefaultInstance());
+                        responseObserver.onCompleted();
+                    }
+
+                    @Override
+                    public void getBlocks(Broker.GetBlocksRequest request, StreamObserver<Broker.GetBlocksResponse> responseObserver) {
+                        try {
+                            Thread.sleep(delays[index]);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        served.incrementAndGet(index);
+                        responseObserver.onNext(Broker.GetBlocksResponse.getDefaultInstance());
+                        responseObserver.onCompleted();
+                    }
+                })
+                .build()
+                .start();
+    }
+}
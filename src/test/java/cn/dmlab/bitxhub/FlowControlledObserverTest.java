@@ -0,0 +1,163 @@
+package cn.dmlab.bitxhub;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import pb.BlockOuterClass;
+import pb.Broker;
+import pb.ChainBrokerGrpc;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class FlowControlledObserverTest {
+    private Server server;
+    private ManagedChannel channel;
+
+    @Before
+    public void setUp() throws IOException {
+        String name = "flow-control-" + System.nanoTime();
+        server = InProcessServerBuilder.forName(name)
+                .addService(new ChainBrokerGrpc.ChainBrokerImplBase() {
+                    @Override
+                    public void getBlockHeader(Broker.GetBlockHeaderRequest request, StreamObserver<BlockOuterClass.BlockHeader> responseObserver) {
+                        for (long height = request.getBegin(); height <= request.getEnd(); height++) {
+                            responseObserver.onNext(BlockOuterClass.BlockHeader.newBuilder().setNumber(height).build());
+                        }
+                        responseObserver.onCompleted();
+                    }
+
+                    @Override
+                    public void subscribe(Broker.SubscriptionRequest request, StreamObserver<Broker.Response> responseObserver) {
+                        // a stream that stays open
+                        for (int i = 0; i < 10; i++) {
+                            responseObserver.onNext(Broker.Response.getDefaultInstance());
+                        }
+                    }
+                })
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).build();
+    }
+
+    @After
+    public void tearDown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    public void deliverOnDemand() throws InterruptedException {
+        Headers headers = new Headers(2);
+        getBlockHeaders(1, 10, headers);
+        headers.awaitCount(2);
+        Thread.sleep(100);
+        Assert.assertEquals(2, headers.received.size());
+
+        headers.request(3);
+        headers.awaitCount(5);
+        Thread.sleep(100);
+        Assert.assertEquals(5, headers.received.size());
+
+        headers.request(10);
+        Assert.assertTrue(headers.completed.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(10, headers.received.size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(i + 1, headers.received.get(i).getNumber());
+        }
+    }
+
+    @Test
+    public void requestBeforeStart() throws InterruptedException {
+        Headers headers = new Headers(1);
+        headers.request(3);
+        getBlockHeaders(1, 10, headers);
+        headers.awaitCount(4);
+        Thread.sleep(100);
+        Assert.assertEquals(4, headers.received.size());
+    }
+
+    @Test
+    public void cancel() throws InterruptedException {
+        CountDownLatch closed = new CountDownLatch(1);
+        Throwable[] error = new Throwable[1];
+        AtomicInteger received = new AtomicInteger();
+        FlowControlledObserver<Broker.Response> observer = new FlowControlledObserver<Broker.Response>(1) {
+            @Override
+            protected void onMessage(Broker.Response value) {
+                received.incrementAndGet();
+                cancel("enough");
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                error[0] = t;
+                closed.countDown();
+            }
+
+            @Override
+            public void onCompleted() {
+                closed.countDown();
+            }
+        };
+        ChainBrokerGrpc.newStub(channel).subscribe(Broker.SubscriptionRequest.getDefaultInstance(), observer);
+        Assert.assertTrue(closed.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Status.Code.CANCELLED, Status.fromThrowable(error[0]).getCode());
+        Assert.assertEquals(1, received.get());
+    }
+
+    private void getBlockHeaders(long begin, long end, StreamObserver<BlockOuterClass.BlockHeader> observer) {
+        ChainBrokerGrpc.newStub(channel).getBlockHeader(Broker.GetBlockHeaderRequest.newBuilder()
+                .setBegin(begin)
+                .setEnd(end)
+                .build(), observer);
+    }
+
+    private static class Headers extends FlowControlledObserver<BlockOuterClass.BlockHeader> {
+        private final List<BlockOuterClass.BlockHeader> received = new CopyOnWriteArrayList<>();
+        private final CountDownLatch completed = new CountDownLatch(1);
+        private volatile Throwable error;
+
+        Headers(int initialRequest) {
+            super(initialRequest);
+        }
+
+        @Override
+        protected void onMessage(BlockOuterClass.BlockHeader value) {
+            received.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            completed.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+            completed.countDown();
+        }
+
+        void awaitCount(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (received.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(received.size() >= count);
+        }
+    }
+}
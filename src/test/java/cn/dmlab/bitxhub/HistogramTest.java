@@ -0,0 +1,71 @@
+package cn.dmlab.bitxhub;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+@RunWith(JUnit4.class)
+public class HistogramTest {
+
+    @Test
+    public void buckets() {
+        long[] values = {0, 1, 15, 16, 17, 31, 32, 33, 1000, 123456789, Long.MAX_VALUE};
+        for (long value : values) {
+            int index = Histogram.index(value);
+            Assert.assertTrue(value <= Histogram.highestValue(index));
+            if (index > 0) {
+                Assert.assertTrue(value > Histogram.highestValue(index - 1));
+            }
+            // the bucket is narrower than 1/16 of the value
+            Assert.assertTrue(Histogram.highestValue(index) - value <= value / Histogram.SUB_BUCKETS);
+        }
+        Assert.assertEquals(15, Histogram.highestValue(Histogram.index(15)));
+        Assert.assertEquals(Long.MAX_VALUE, Histogram.highestValue(Histogram.index(Long.MAX_VALUE)));
+    }
+
+    @Test
+    public void quantiles() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(1000, snapshot.getCount());
+        Assert.assertEquals(1000_000, snapshot.getMax());
+        Assert.assertEquals(500_500, snapshot.getMean(), 0.001);
+        assertClose(500_000, snapshot.getP50());
+        assertClose(990_000, snapshot.getP99());
+        Assert.assertEquals(1000_000, snapshot.getValueAtQuantile(1));
+        Assert.assertEquals(0, new Histogram().snapshot().getP99());
+    }
+
+    @Test
+    public void concurrentRecording() throws InterruptedException {
+        Histogram histogram = new Histogram();
+        CountDownLatch done = new CountDownLatch(4);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Random random = new Random(t);
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    histogram.record(random.nextInt(1_000_000));
+                }
+                done.countDown();
+            }));
+        }
+        threads.forEach(Thread::start);
+        done.await();
+        Assert.assertEquals(400_000, histogram.snapshot().getCount());
+    }
+
+    private static void assertClose(long expected, long actual) {
+        Assert.assertTrue(actual + " not close to " + expected,
+                actual >= expected && actual - expected <= expected / Histogram.SUB_BUCKETS);
+    }
+}
@@ -0,0 +1,94 @@
+package cn.dmlab.bitxhub;
+
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import pb.BlockOuterClass;
+import pb.Transaction;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class LazyBlockTest {
+
+    @Test
+    public void transactions() throws IOException {
+        List<Transaction.BxhTransaction> txs = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            txs.add(Transaction.BxhTransaction.newBuilder()
+                    .setNonce(i + 1)
+                    .setPayload(ByteString.copyFrom(new byte[i * 10]))
+                    .setTransactionHash(ByteString.copyFromUtf8("hash" + i))
+                    .setSignature(ByteString.copyFromUtf8("sig" + i))
+                    .build());
+        }
+        ByteString bytes = block(txs, true).toByteString();
+        LazyBlock block = LazyBlock.parseFrom(bytes);
+
+        Assert.assertEquals(7, block.getNumber());
+        Assert.assertEquals(ByteString.copyFromUtf8("block"), block.getBlockHash());
+        Assert.assertEquals(40, block.getTransactionCount());
+        for (int i = 0; i < txs.size(); i++) {
+            Assert.assertEquals(txs.get(i), block.getTransaction(i));
+            Assert.assertEquals(txs.get(i).toByteString(), block.getTransactionBytes(i));
+            Assert.assertEquals(txs.get(i).getTransactionHash(), block.getTransactionHash(i));
+        }
+        Assert.assertEquals(40, block.getTransactionHashes().size());
+        Assert.assertEquals(ByteString.copyFromUtf8("hash39"), block.getTransactionHashes().get(39));
+    }
+
+    @Test
+    public void skipsForeignEntries() throws IOException {
+        Transaction.BxhTransaction tx = Transaction.BxhTransaction.newBuilder()
+                .setTransactionHash(ByteString.copyFromUtf8("hash"))
+                .build();
+        LazyBlock block = new LazyBlock(block(Arrays.asList(tx, Transaction.BxhTransaction.getDefaultInstance()), false));
+        Assert.assertEquals(2, block.getTransactionCount());
+        Assert.assertEquals(1, block.getTransactionHashes().size());
+        Assert.assertEquals(ByteString.EMPTY, block.getTransactionHash(1));
+    }
+
+    @Test
+    public void emptyBlock() throws InvalidProtocolBufferException {
+        LazyBlock block = LazyBlock.parseFrom(BlockOuterClass.Block.newBuilder()
+                .setBlockHeader(BlockOuterClass.BlockHeader.newBuilder().setNumber(3))
+                .build()
+                .toByteString());
+        Assert.assertEquals(3, block.getNumber());
+        Assert.assertEquals(0, block.getTransactionCount());
+        Assert.assertTrue(block.getTransactionHashes().isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void malformed() {
+        BlockOuterClass.Block block = BlockOuterClass.Block.newBuilder()
+                .setTransactions(ByteString.copyFrom(new byte[]{0x0a, 0x7f, 0x01}))
+                .build();
+        new LazyBlock(block).getTransactionCount();
+    }
+
+    private static BlockOuterClass.Block block(List<Transaction.BxhTransaction> txs, boolean extraField) throws IOException {
+        ByteString.Output out = ByteString.newOutput();
+        CodedOutputStream output = CodedOutputStream.newInstance(out);
+        for (Transaction.BxhTransaction tx : txs) {
+            output.writeBytes(1, tx.toByteString());
+            if (extraField) {
+                // fields other than the transactions are skipped
+                output.writeUInt64(2, 42);
+            }
+        }
+        output.flush();
+        return BlockOuterClass.Block.newBuilder()
+                .setBlockHeader(BlockOuterClass.BlockHeader.newBuilder().setNumber(7))
+                .setBlockHash(ByteString.copyFromUtf8("block"))
+                .setTransactions(out.toByteString())
+                .build();
+    }
+}
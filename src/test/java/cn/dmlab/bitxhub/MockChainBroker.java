@@ -0,0 +1,510 @@
+package cn.dmlab.bitxhub;
+
+import cn.dmlab.crypto.HashUtil;
+import cn.dmlab.crypto.ecdsa.ECKeyS256;
+import cn.dmlab.utils.ByteUtil;
+import cn.dmlab.utils.SignUtils;
+import cn.dmlab.utils.Utils;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import lombok.extern.slf4j.Slf4j;
+import pb.AuditInfo;
+import pb.BlockOuterClass;
+import pb.Broker;
+import pb.Chain;
+import pb.ChainBrokerGrpc;
+import pb.ReceiptOuterClass;
+import pb.Transaction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * In-process stand-in for a BitXHub node, to test and benchmark the client offline.
+ * <p>
+ * Transactions are checked against the pending nonce of their sender and wait in a mempool
+ * until the next block is minted. Blocks are minted every {@code blockInterval} milliseconds,
+ * or by {@link #mint()} when the interval is 0. A minted block carries the receipts of its
+ * transactions and is pushed to the BLOCK, BLOCK_HEADER and EVENT subscriptions, the event
+ * stream gets one {@link ReceiptOuterClass.Event} per transaction.
+ * <p>
+ * Every unary call can be slowed down by {@link #latency(long, long)} and failed at random by
+ * {@link #failureRate(double, Status)}, the randomness is seeded so a run can be repeated.
+ * {@link #breakStreams()} fails all open server streams.
+ */
+@Slf4j
+public class MockChainBroker extends ChainBrokerGrpc.ChainBrokerImplBase implements Closeable {
+
+    private final String name = "mock-bitxhub-" + System.nanoTime();
+    private final ECKeyS256 key = new ECKeyS256();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2, new ThreadFactoryBuilder()
+            .setNameFormat("mock-bitxhub-%d")
+            .setDaemon(true)
+            .build());
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private Server server;
+
+    // Guarded by this.
+    private final List<BlockOuterClass.Block> blocks = new ArrayList<>();
+    private final Map<String, Long> pendingNonces = new HashMap<>();
+    private final Map<String, TreeMap<Long, Transaction.BxhTransaction>> queued = new HashMap<>();
+    private final List<Transaction.BxhTransaction> mempool = new ArrayList<>();
+    private final Map<String, Transaction.BxhTransaction> transactions = new HashMap<>();
+    private final Map<String, Transaction.TransactionMeta> metas = new HashMap<>();
+    private final Map<String, ReceiptOuterClass.Receipt> receipts = new HashMap<>();
+    private final Random random = new Random(1);
+
+    private volatile long blockInterval;
+    private volatile int maxBlockSize = 500;
+    private volatile long latencyMillis;
+    private volatile long latencyJitterMillis;
+    private volatile double failureRate;
+    private volatile Status failure = Status.UNAVAILABLE;
+
+    /**
+     * Mint blocks every interval milliseconds once started, 0 to mint only by {@link #mint()}.
+     */
+    public MockChainBroker blockInterval(long millis) {
+        this.blockInterval = millis;
+        return this;
+    }
+
+    /**
+     * Max number of transactions in a block.
+     */
+    public MockChainBroker maxBlockSize(int maxBlockSize) {
+        this.maxBlockSize = maxBlockSize;
+        return this;
+    }
+
+    /**
+     * Delay every unary response by millis plus a random jitter up to jitterMillis.
+     */
+    public MockChainBroker latency(long millis, long jitterMillis) {
+        this.latencyMillis = millis;
+        this.latencyJitterMillis = jitterMillis;
+        return this;
+    }
+
+    /**
+     * Fail the given share of unary calls with the status.
+     */
+    public MockChainBroker failureRate(double rate, Status status) {
+        this.failureRate = rate;
+        this.failure = status;
+        return this;
+    }
+
+    /**
+     * Start the server and mint the genesis block.
+     */
+    public MockChainBroker start() {
+        synchronized (this) {
+            blocks.add(newBlock(1, ByteString.EMPTY, new ArrayList<>()));
+        }
+        try {
+            server = InProcessServerBuilder.forName(name)
+                    .addService(this)
+                    .build()
+                    .start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (blockInterval > 0) {
+            scheduler.scheduleAtFixedRate(this::mint, blockInterval, blockInterval, TimeUnit.MILLISECONDS);
+        }
+        return this;
+    }
+
+    /**
+     * Client config that connects to this server, every config signs with the same account.
+     */
+    public Config config() {
+        Config config = Config.defaultConfig();
+        config.setHost(name);
+        config.setEcKey(key);
+        config.setChannelFactory(target -> InProcessChannelBuilder.forName(name).build());
+        return config;
+    }
+
+    /**
+     * Client with a new {@link #config()}.
+     */
+    public GrpcClientImpl client() {
+        return new GrpcClientImpl(config());
+    }
+
+    /**
+     * Unsigned transfer of 1 from the account of {@link #config()} to the zero address.
+     */
+    public Transaction.BxhTransaction transfer() {
+        return Transaction.BxhTransaction.newBuilder()
+                .setFrom(ByteString.copyFrom(key.getAddress()))
+                .setTo(ByteString.copyFrom(new byte[20]))
+                .setTimestamp(Utils.genTimestamp())
+                .setPayload(Transaction.TransactionData.newBuilder().setAmount("1").build().toByteString())
+                .build();
+    }
+
+    /**
+     * Mint a block with the transactions in the mempool, even if there are none.
+     *
+     * @return the block
+     */
+    public BlockOuterClass.Block mint() {
+        BlockOuterClass.Block block;
+        List<ReceiptOuterClass.Receipt> minted = new ArrayList<>();
+        synchronized (this) {
+            int size = Math.min(maxBlockSize, mempool.size());
+            List<Transaction.BxhTransaction> txs = new ArrayList<>(mempool.subList(0, size));
+            mempool.subList(0, size).clear();
+            BlockOuterClass.Block parent = blocks.get(blocks.size() - 1);
+            block = newBlock(parent.getBlockHeader().getNumber() + 1, parent.getBlockHash(), txs);
+            blocks.add(block);
+            for (int i = 0; i < txs.size(); i++) {
+                Transaction.BxhTransaction tx = txs.get(i);
+                String hash = key(tx.getTransactionHash());
+                ReceiptOuterClass.Receipt receipt = ReceiptOuterClass.Receipt.newBuilder()
+                        .setTxHash(tx.getTransactionHash())
+                        .setStatus(ReceiptOuterClass.Receipt.Status.SUCCESS)
+                        .addEvents(ReceiptOuterClass.Event.newBuilder()
+                                .setTxHash(tx.getTransactionHash())
+                                .setData(tx.getPayload()))
+                        .build();
+                receipts.put(hash, receipt);
+                metas.put(hash, Transaction.TransactionMeta.newBuilder()
+                        .setBlockHash(block.getBlockHash())
+                        .setBlockHeight(block.getBlockHeader().getNumber())
+                        .setIndex(i)
+                        .build());
+                minted.add(receipt);
+            }
+        }
+        for (Subscription subscription : subscriptions) {
+            switch (subscription.type) {
+                case BLOCK:
+                    subscription.send(block.toByteString());
+                    break;
+                case BLOCK_HEADER:
+                    subscription.send(block.getBlockHeader().toByteString());
+                    break;
+                case EVENT:
+                    for (ReceiptOuterClass.Receipt receipt : minted) {
+                        for (ReceiptOuterClass.Event event : receipt.getEventsList()) {
+                            subscription.send(event.toByteString());
+                        }
+                    }
+                    break;
+                default:
+            }
+        }
+        return block;
+    }
+
+    /**
+     * Fail all open server streams with {@code UNAVAILABLE}.
+     */
+    public void breakStreams() {
+        for (Subscription subscription : subscriptions) {
+            subscriptions.remove(subscription);
+            subscription.observer.onError(Status.UNAVAILABLE.withDescription("stream broken by mock").asRuntimeException());
+        }
+    }
+
+    public synchronized long getHeight() {
+        return blocks.get(blocks.size() - 1).getBlockHeader().getNumber();
+    }
+
+    public synchronized int getMempoolSize() {
+        return mempool.size();
+    }
+
+    /**
+     * Number of transactions accepted.
+     */
+    public long getSent() {
+        return sent.get();
+    }
+
+    /**
+     * Number of unary calls failed on purpose.
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        if (server != null) {
+            server.shutdownNow();
+        }
+    }
+
+    @Override
+    public void sendTransaction(Transaction.BxhTransaction request, StreamObserver<Broker.TransactionHashMsg> responseObserver) {
+        reply(responseObserver, () -> {
+            if (request.getTransactionHash().isEmpty() || request.getSignature().isEmpty()) {
+                throw Status.INVALID_ARGUMENT.withDescription("tx is not signed").asRuntimeException();
+            }
+            // as the node, hash the signed fields and keep the tx under that hash
+            ByteString hash = ByteString.copyFrom(HashUtil.sha3(SignUtils.needToHash(request)));
+            Transaction.BxhTransaction tx = request.toBuilder().setTransactionHash(hash).build();
+            String from = key(tx.getFrom());
+            synchronized (this) {
+                long pending = pendingNonces.getOrDefault(from, 1L);
+                TreeMap<Long, Transaction.BxhTransaction> waiting = queued.computeIfAbsent(from, k -> new TreeMap<>());
+                if (tx.getNonce() < pending || waiting.containsKey(tx.getNonce())) {
+                    throw Status.INVALID_ARGUMENT
+                            .withDescription("invalid nonce " + tx.getNonce() + ", pending nonce is " + pending)
+                            .asRuntimeException();
+                }
+                waiting.put(tx.getNonce(), tx);
+                // txs become ready once the nonces before them arrived
+                Transaction.BxhTransaction next;
+                while ((next = waiting.remove(pending)) != null) {
+                    mempool.add(next);
+                    transactions.put(key(next.getTransactionHash()), next);
+                    pending++;
+                }
+                pendingNonces.put(from, pending);
+            }
+            sent.incrementAndGet();
+            return Broker.TransactionHashMsg.newBuilder()
+                    .setTxHash(ByteUtil.toHexStringWithOx(hash.toByteArray()))
+                    .build();
+        });
+    }
+
+    @Override
+    public void getPendingNonceByAccount(Broker.Address request, StreamObserver<Broker.Response> responseObserver) {
+        reply(responseObserver, () -> {
+            long pending;
+            synchronized (this) {
+                pending = pendingNonces.getOrDefault(key(request.getAddress()), 1L);
+            }
+            return Broker.Response.newBuilder().setData(ByteString.copyFromUtf8(Long.toString(pending))).build();
+        });
+    }
+
+    @Override
+    public void getReceipt(Broker.TransactionHashMsg request, StreamObserver<ReceiptOuterClass.Receipt> responseObserver) {
+        reply(responseObserver, () -> {
+            synchronized (this) {
+                ReceiptOuterClass.Receipt receipt = receipts.get(key(request.getTxHash()));
+                if (receipt == null) {
+                    throw Status.NOT_FOUND.withDescription("receipt of " + request.getTxHash() + " not found").asRuntimeException();
+                }
+                return receipt;
+            }
+        });
+    }
+
+    @Override
+    public void getTransaction(Broker.TransactionHashMsg request, StreamObserver<Broker.GetTransactionResponse> responseObserver) {
+        reply(responseObserver, () -> {
+            synchronized (this) {
+                String hash = key(request.getTxHash());
+                Transaction.BxhTransaction tx = transactions.get(hash);
+                if (tx == null) {
+                    throw Status.NOT_FOUND.withDescription("tx " + request.getTxHash() + " not found").asRuntimeException();
+                }
+                Broker.GetTransactionResponse.Builder response = Broker.GetTransactionResponse.newBuilder().setTx(tx);
+                Transaction.TransactionMeta meta = metas.get(hash);
+                if (meta != null) {
+                    response.setTxMeta(meta);
+                }
+                return response.build();
+            }
+        });
+    }
+
+    @Override
+    public void getChainMeta(Broker.Request request, StreamObserver<Chain.ChainMeta> responseObserver) {
+        reply(responseObserver, () -> {
+            synchronized (this) {
+                BlockOuterClass.Block head = blocks.get(blocks.size() - 1);
+                return Chain.ChainMeta.newBuilder()
+                        .setHeight(head.getBlockHeader().getNumber())
+                        .setBlockHash(head.getBlockHash())
+                        .build();
+            }
+        });
+    }
+
+    @Override
+    public void getBlock(Broker.GetBlockRequest request, StreamObserver<BlockOuterClass.Block> responseObserver) {
+        reply(responseObserver, () -> {
+            synchronized (this) {
+                if (request.getType() == Broker.GetBlockRequest.Type.HEIGHT) {
+                    long height = Long.parseLong(request.getValue());
+                    if (height >= 1 && height <= blocks.size()) {
+                        return blocks.get((int) height - 1);
+                    }
+                } else {
+                    for (BlockOuterClass.Block block : blocks) {
+                        if (key(block.getBlockHash()).equals(key(request.getValue()))) {
+                            return block;
+                        }
+                    }
+                }
+                throw Status.NOT_FOUND.withDescription("block " + request.getValue() + " not found").asRuntimeException();
+            }
+        });
+    }
+
+    @Override
+    public void getBlocks(Broker.GetBlocksRequest request, StreamObserver<Broker.GetBlocksResponse> responseObserver) {
+        reply(responseObserver, () -> Broker.GetBlocksResponse.newBuilder()
+                .addAllBlocks(range(request.getStart(), request.getEnd()))
+                .build());
+    }
+
+    @Override
+    public void getBlockHeaders(Broker.GetBlockHeadersRequest request, StreamObserver<Broker.GetBlockHeadersResponse> responseObserver) {
+        reply(responseObserver, () -> {
+            Broker.GetBlockHeadersResponse.Builder response = Broker.GetBlockHeadersResponse.newBuilder();
+            for (BlockOuterClass.Block block : range(request.getStart(), request.getEnd())) {
+                response.addBlockHeaders(block.getBlockHeader());
+            }
+            return response.build();
+        });
+    }
+
+    @Override
+    public void getBlockHeader(Broker.GetBlockHeaderRequest request, StreamObserver<BlockOuterClass.BlockHeader> responseObserver) {
+        for (BlockOuterClass.Block block : range(request.getBegin(), request.getEnd())) {
+            responseObserver.onNext(block.getBlockHeader());
+        }
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void subscribe(Broker.SubscriptionRequest request, StreamObserver<Broker.Response> responseObserver) {
+        Subscription subscription = new Subscription(request.getType(), responseObserver);
+        ((ServerCallStreamObserver<Broker.Response>) responseObserver).setOnCancelHandler(
+                () -> subscriptions.remove(subscription));
+        subscriptions.add(subscription);
+    }
+
+    @Override
+    public void subscribeAuditInfo(AuditInfo.AuditSubscriptionRequest request, StreamObserver<Broker.Response> responseObserver) {
+        responseObserver.onError(Status.UNIMPLEMENTED.withDescription("audit info is not mocked").asRuntimeException());
+    }
+
+    private synchronized List<BlockOuterClass.Block> range(long start, long end) {
+        List<BlockOuterClass.Block> result = new ArrayList<>();
+        for (long height = Math.max(start, 1); height <= Math.min(end, blocks.size()); height++) {
+            result.add(blocks.get((int) height - 1));
+        }
+        return result;
+    }
+
+    /**
+     * Answer a unary call after the configured latency, or fail it at the configured rate.
+     */
+    private <T> void reply(StreamObserver<T> observer, Supplier<T> result) {
+        long delay;
+        boolean fail;
+        synchronized (random) {
+            delay = latencyMillis + (latencyJitterMillis > 0 ? (long) (random.nextDouble() * latencyJitterMillis) : 0);
+            fail = failureRate > 0 && random.nextDouble() < failureRate;
+        }
+        Runnable task = () -> {
+            if (fail) {
+                failed.incrementAndGet();
+                observer.onError(failure.withDescription("failure injected by mock").asRuntimeException());
+                return;
+            }
+            T value;
+            try {
+                value = result.get();
+            } catch (RuntimeException e) {
+                observer.onError(e);
+                return;
+            }
+            observer.onNext(value);
+            observer.onCompleted();
+        };
+        if (delay > 0) {
+            scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+        } else {
+            task.run();
+        }
+    }
+
+    private static BlockOuterClass.Block newBlock(long number, ByteString parentHash, List<Transaction.BxhTransaction> txs) {
+        BlockOuterClass.BlockHeader header = BlockOuterClass.BlockHeader.newBuilder()
+                .setNumber(number)
+                .setParentHash(parentHash)
+                .setTimestamp(System.nanoTime())
+                .build();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CodedOutputStream out = CodedOutputStream.newInstance(bytes);
+        try {
+            // the transactions of a block are a repeated field 1
+            for (Transaction.BxhTransaction tx : txs) {
+                out.writeMessage(1, tx);
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return BlockOuterClass.Block.newBuilder()
+                .setBlockHeader(header)
+                .setTransactions(ByteString.copyFrom(bytes.toByteArray()))
+                .setBlockHash(ByteString.copyFrom(HashUtil.sha3(header.toByteArray())))
+                .build();
+    }
+
+    private static String key(ByteString bytes) {
+        return ByteUtil.toHexString(bytes.toByteArray());
+    }
+
+    private static String key(String hex) {
+        String lower = hex.toLowerCase(Locale.ROOT);
+        return lower.startsWith("0x") ? lower.substring(2) : lower;
+    }
+
+    private static class Subscription {
+        private final Broker.SubscriptionRequest.Type type;
+        private final StreamObserver<Broker.Response> observer;
+
+        Subscription(Broker.SubscriptionRequest.Type type, StreamObserver<Broker.Response> observer) {
+            this.type = type;
+            this.observer = observer;
+        }
+
+        synchronized void send(ByteString data) {
+            try {
+                observer.onNext(Broker.Response.newBuilder().setData(data).build());
+            } catch (RuntimeException e) {
+                log.debug("send to closed subscription: {}", e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package cn.dmlab.bitxhub;
+
+import cn.dmlab.crypto.HashUtil;
+import cn.dmlab.utils.ByteUtil;
+import cn.dmlab.utils.SignUtils;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import pb.BlockOuterClass;
+import pb.Broker;
+import pb.ReceiptOuterClass;
+import pb.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class MockChainBrokerTest {
+    private MockChainBroker mock;
+    private GrpcClientImpl client;
+    private Config config;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (client != null) {
+            client.stop();
+        }
+        mock.close();
+    }
+
+    @Test
+    public void sendTransactionWithReceipt() {
+        start(new MockChainBroker().blockInterval(20));
+        ReceiptOuterClass.Receipt receipt = client.sendTransactionWithReceipt(mock.transfer(), null);
+        Assert.assertEquals(ReceiptOuterClass.Receipt.Status.SUCCESS, receipt.getStatus());
+
+        Broker.GetTransactionResponse response = client.getTransaction(ByteUtil.toHexStringWithOx(receipt.getTxHash().toByteArray()));
+        Assert.assertEquals(receipt.getTxHash(), response.getTx().getTransactionHash());
+        Assert.assertTrue(response.getTxMeta().getBlockHeight() > 1);
+    }
+
+    @Test
+    public void hashLikeTheNode() {
+        start(new MockChainBroker());
+        Transaction.BxhTransaction signed = SignUtils.sign(mock.transfer().toBuilder().setNonce(1).build(),
+                config.getEcKey());
+        String txHash = client.sendSignedTransaction(signed);
+        // the SHA-256 of what the client puts in the transaction hash field
+        Assert.assertEquals(ByteUtil.toHexStringWithOx(HashUtil.sha3(signed.getTransactionHash().toByteArray())), txHash);
+        mock.mint();
+        Assert.assertEquals(txHash, ByteUtil.toHexStringWithOx(client.getReceipt(txHash).getTxHash().toByteArray()));
+        Assert.assertEquals(txHash,
+                ByteUtil.toHexStringWithOx(client.getTransaction(txHash).getTx().getTransactionHash().toByteArray()));
+    }
+
+    @Test
+    public void nonces() throws Exception {
+        start(new MockChainBroker());
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(client.sendTransactionAsync(mock.transfer(), null));
+        }
+        for (CompletableFuture<String> future : futures) {
+            Assert.assertNotNull(future.get(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(20, mock.getMempoolSize());
+        Assert.assertEquals(21, client.getPendingNonceByAccount(ByteUtil.toHexStringWithOx(config.getAddress())));
+
+        BlockOuterClass.Block block = mock.mint();
+        Assert.assertEquals(20, new LazyBlock(block).getTransactionCount());
+        Assert.assertEquals(0, mock.getMempoolSize());
+    }
+
+    @Test
+    public void subscribeAndGetBlocks() throws InterruptedException {
+        start(new MockChainBroker());
+        CountDownLatch received = new CountDownLatch(3);
+        client.subscribe(Broker.SubscriptionRequest.Type.BLOCK, new StreamObserver<Broker.Response>() {
+            @Override
+            public void onNext(Broker.Response response) {
+                received.countDown();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onCompleted() {
+            }
+        });
+        // let the subscription reach the server
+        Thread.sleep(100);
+        for (int i = 0; i < 3; i++) {
+            mock.mint();
+        }
+        Assert.assertTrue(received.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(4, mock.getHeight());
+
+        List<Long> heights = new ArrayList<>();
+        Assert.assertEquals(4, client.getBlocks(1L, 10L, block -> heights.add(block.getBlockHeader().getNumber())));
+        Assert.assertEquals(4, client.getChainMeta().getHeight());
+        Assert.assertEquals(4L, (long) heights.get(3));
+    }
+
+    @Test
+    public void injectFailures() {
+        start(new MockChainBroker().failureRate(1, Status.UNAVAILABLE));
+        try {
+            client.getChainMeta();
+            Assert.fail();
+        } catch (StatusRuntimeException e) {
+            Assert.assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+        }
+        Assert.assertEquals(1, mock.getFailed());
+    }
+
+    @Test
+    public void injectLatency() {
+        start(new MockChainBroker().latency(200, 0));
+        long begin = System.nanoTime();
+        client.getChainMeta();
+        Assert.assertTrue(System.nanoTime() - begin >= TimeUnit.MILLISECONDS.toNanos(200));
+    }
+
+    private void start(MockChainBroker broker) {
+        mock = broker.start();
+        config = mock.config();
+        client = mock.client();
+    }
+}
@@ -0,0 +1,174 @@
+package cn.dmlab.bitxhub;
+
+import io.grpc.Status;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class NonceManagerTest {
+    private static final String ACCOUNT = "0xc0Ff2e0b3189132D815b8eb325bE17285AC898f8";
+
+    private AtomicInteger fetches;
+    private long pending;
+    private NonceManager nonceManager;
+
+    @Before
+    public void setUp() {
+        fetches = new AtomicInteger();
+        pending = 5;
+        nonceManager = new NonceManager(account -> {
+            fetches.incrementAndGet();
+            return pending;
+        });
+    }
+
+    @Test
+    public void seedOnce() {
+        Assert.assertEquals(5, nonceManager.next(ACCOUNT));
+        Assert.assertEquals(6, nonceManager.next(ACCOUNT.toLowerCase()));
+        Assert.assertEquals(7, nonceManager.next(ACCOUNT));
+        Assert.assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void concurrentNext() throws InterruptedException {
+        Set<Long> nonces = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 1000; i++) {
+            executor.execute(() -> nonces.add(nonceManager.next(ACCOUNT)));
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Assert.assertEquals(1000, nonces.size());
+        Assert.assertTrue(nonces.contains(5L));
+        Assert.assertTrue(nonces.contains(1004L));
+        Assert.assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void releaseGap() {
+        long first = nonceManager.next(ACCOUNT);
+        long second = nonceManager.next(ACCOUNT);
+        nonceManager.next(ACCOUNT);
+
+        nonceManager.release(ACCOUNT, first);
+        nonceManager.release(ACCOUNT, second);
+        Assert.assertEquals(first, nonceManager.next(ACCOUNT));
+        Assert.assertEquals(second, nonceManager.next(ACCOUNT));
+        Assert.assertEquals(8, nonceManager.next(ACCOUNT));
+    }
+
+    @Test
+    public void releaseLast() {
+        nonceManager.next(ACCOUNT);
+        long last = nonceManager.next(ACCOUNT);
+        nonceManager.release(ACCOUNT, last);
+        Assert.assertEquals(last, nonceManager.next(ACCOUNT));
+        Assert.assertEquals(last + 1, nonceManager.next(ACCOUNT));
+    }
+
+    @Test
+    public void resyncOnNonceError() {
+        long nonce = nonceManager.next(ACCOUNT);
+        pending = 42;
+        nonceManager.failed(ACCOUNT, nonce,
+                Status.INTERNAL.withDescription("invalid nonce, expect 42 but got 5").asRuntimeException());
+        Assert.assertEquals(42, nonceManager.next(ACCOUNT));
+        Assert.assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void releaseWhenNeverSent() {
+        long nonce = nonceManager.next(ACCOUNT);
+        nonceManager.failed(ACCOUNT, nonce, new IllegalStateException("signing failed"));
+        Assert.assertEquals(nonce, nonceManager.next(ACCOUNT));
+        nonceManager.failed(ACCOUNT, nonce, Status.PERMISSION_DENIED.withDescription("not an account").asRuntimeException());
+        Assert.assertEquals(nonce, nonceManager.next(ACCOUNT));
+        Assert.assertEquals(1, fetches.get());
+    }
+
+    @Test
+    public void ambiguousErrorKeepsNonce() {
+        long nonce = nonceManager.next(ACCOUNT);
+        pending = 6;
+        // the node may have taken the tx before the deadline
+        nonceManager.failed(ACCOUNT, nonce, Status.DEADLINE_EXCEEDED.asRuntimeException());
+        Assert.assertEquals(6, nonceManager.next(ACCOUNT));
+        Assert.assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void staleWaitsForInFlight() throws Exception {
+        long first = nonceManager.next(ACCOUNT);
+        nonceManager.next(ACCOUNT);
+        pending = 6;
+        nonceManager.failed(ACCOUNT, first, Status.UNAVAILABLE.withDescription("io exception").asRuntimeException());
+        // the second is still in flight, no nonce is handed out from the stale counter
+        CompletableFuture<Long> next = CompletableFuture.supplyAsync(() -> nonceManager.next(ACCOUNT));
+        Thread.sleep(100);
+        Assert.assertFalse(next.isDone());
+        Assert.assertEquals(1, fetches.get());
+
+        pending = 7;
+        nonceManager.accepted(ACCOUNT);
+        Assert.assertEquals(7, (long) next.get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void resyncWaitsForInFlight() throws Exception {
+        nonceManager.next(ACCOUNT);
+        nonceManager.resync(ACCOUNT);
+        CompletableFuture<Long> next = CompletableFuture.supplyAsync(() -> nonceManager.next(ACCOUNT));
+        Thread.sleep(100);
+        Assert.assertFalse(next.isDone());
+        pending = 6;
+        nonceManager.accepted(ACCOUNT);
+        Assert.assertEquals(6, (long) next.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void seedBlocksOnlyItsAccount() throws Exception {
+        CountDownLatch fetched = new CountDownLatch(1);
+        NonceManager manager = new NonceManager(account -> {
+            if (account.equals(ACCOUNT)) {
+                try {
+                    fetched.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return 1;
+        });
+        CompletableFuture<Long> slow = CompletableFuture.supplyAsync(() -> manager.next(ACCOUNT));
+        Thread.sleep(50);
+        // other accounts are seeded meanwhile, whatever bin of the map they fall in
+        for (int i = 0; i < 64; i++) {
+            Assert.assertEquals(1, manager.next("0x" + i));
+        }
+        Assert.assertFalse(slow.isDone());
+        fetched.countDown();
+        Assert.assertEquals(1, (long) slow.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void onlyNodeNonceErrors() {
+        Assert.assertTrue(NonceManager.isNonceError(
+                Status.INVALID_ARGUMENT.withDescription("invalid nonce 3, pending nonce is 5").asRuntimeException()));
+        Assert.assertFalse(NonceManager.isNonceError(
+                Status.INVALID_ARGUMENT.withDescription("signature over nonce and payload is wrong").asRuntimeException()));
+        Assert.assertFalse(NonceManager.isNonceError(new IllegalArgumentException("invalid nonce")));
+    }
+}
@@ -13,15 +13,19 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 import pb.Broker;
+import pb.Chain;
 import pb.ReceiptOuterClass;
 import pb.Transaction;
 
+import java.util.concurrent.TimeUnit;
+
 
 @RunWith(JUnit4.class)
 @Slf4j
 public class RPCTest {
 
     private GrpcClient client;
+    private AsyncGrpcClient asyncClient;
 
     private Config config = Config.defaultConfig();
     private Config config1 = Config.defaultConfig();
@@ -33,7 +37,9 @@ public class RPCTest {
         from = config.getAddress();
         config1.setEcKey(ECKeyS256.fromPrivate(ByteUtil.hexStringToBytes("05c3708d30c2c72c4b36314a41f30073ab18ea226cf8c6b9f566720bfe2e8631")));
         to = config1.getAddress();
-        client = new GrpcClientImpl(config);
+        GrpcClientImpl clientImpl = new GrpcClientImpl(config);
+        client = clientImpl;
+        asyncClient = clientImpl;
     }
 
     @After
@@ -95,6 +101,31 @@ public class RPCTest {
         Assert.assertNotNull(txHash);
     }
 
+    @Test
+    public void sendTransactionWithReceiptAsync() throws Exception {
+        Transaction.BxhTransaction unsignedTx = Transaction.BxhTransaction.newBuilder()
+                .setFrom(ByteString.copyFrom(from))
+                .setTo(ByteString.copyFrom(to))
+                .setTimestamp(Utils.genTimestamp())
+                .setPayload(Transaction.TransactionData.newBuilder().setAmount("100000").build().toByteString())
+                .build();
+        ReceiptOuterClass.Receipt receipt = asyncClient.sendTransactionWithReceiptAsync(unsignedTx, null)
+                .get(10, TimeUnit.SECONDS);
+        Assert.assertNotNull(receipt);
+
+        Broker.GetTransactionResponse transactionResponse = asyncClient
+                .getTransactionAsync(ByteUtil.toHexStringWithOx(receipt.getTxHash().toByteArray()))
+                .get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(ByteUtil.toHexStringWithOx(transactionResponse.getTx().getTransactionHash().toByteArray()),
+                ByteUtil.toHexStringWithOx(receipt.getTxHash().toByteArray()));
+    }
+
+    @Test
+    public void getChainMetaAsync() throws Exception {
+        Chain.ChainMeta chainMeta = asyncClient.getChainMetaAsync().get(10, TimeUnit.SECONDS);
+        Assert.assertTrue(chainMeta.getHeight() > 0);
+    }
+
     @Test
     public void getNetworkMeta() {
         Broker.Response response = client.getNetworkMeta();
@@ -0,0 +1,183 @@
+package cn.dmlab.bitxhub;
+
+import cn.dmlab.utils.ByteUtil;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import pb.BlockOuterClass;
+import pb.Broker;
+import pb.ReceiptOuterClass;
+import pb.Transaction;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class ReceiptWaiterTest {
+    private ScheduledExecutorService scheduler;
+    private Map<String, ReceiptOuterClass.Receipt> minted;
+    private AtomicInteger fetches;
+    private AtomicInteger subscriptions;
+    private volatile StreamObserver<Broker.Response> blocks;
+
+    @Before
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        minted = new ConcurrentHashMap<>();
+        fetches = new AtomicInteger();
+        subscriptions = new AtomicInteger();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    private ReceiptWaiter newWaiter(long timeout) {
+        return new ReceiptWaiter(hash -> {
+            fetches.incrementAndGet();
+            CompletableFuture<ReceiptOuterClass.Receipt> future = new CompletableFuture<>();
+            ReceiptOuterClass.Receipt receipt = minted.get(hash);
+            if (receipt == null) {
+                future.completeExceptionally(Status.UNKNOWN.withDescription("not found in DB").asRuntimeException());
+            } else {
+                future.complete(receipt);
+            }
+            return future;
+        }, observer -> {
+            subscriptions.incrementAndGet();
+            blocks = observer;
+        }, scheduler, timeout);
+    }
+
+    @Test
+    public void receiptOnBlock() throws Exception {
+        ReceiptWaiter waiter = newWaiter(10000);
+        byte[] hash = hash(1);
+        String hex = ByteUtil.toHexStringWithOx(hash);
+        CompletableFuture<ReceiptOuterClass.Receipt> future = waiter.await(hex);
+        CompletableFuture<ReceiptOuterClass.Receipt> same = waiter.await(hex.toUpperCase().replace("0X", "0x"));
+        Assert.assertSame(future, same);
+        Assert.assertEquals(1, subscriptions.get());
+
+        ReceiptOuterClass.Receipt receipt = mint(hex, hash);
+        blocks.onNext(blockResponse(hash(2), hash));
+
+        Assert.assertEquals(receipt, future.get(100, TimeUnit.MILLISECONDS));
+        Assert.assertEquals(1, fetches.get());
+        Assert.assertEquals(0, waiter.pendingCount());
+    }
+
+    @Test
+    public void pollWithoutBlock() throws Exception {
+        ReceiptWaiter waiter = newWaiter(10000);
+        byte[] hash = hash(3);
+        String hex = ByteUtil.toHexStringWithOx(hash);
+        ReceiptOuterClass.Receipt receipt = mint(hex, hash);
+
+        Assert.assertEquals(receipt, waiter.await(hex).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void resubscribeAfterError() throws Exception {
+        ReceiptWaiter waiter = newWaiter(10000);
+        byte[] hash = hash(4);
+        String hex = ByteUtil.toHexStringWithOx(hash);
+        CompletableFuture<ReceiptOuterClass.Receipt> future = waiter.await(hex);
+
+        blocks.onError(Status.UNAVAILABLE.asRuntimeException());
+        Thread.sleep(1500);
+        Assert.assertEquals(2, subscriptions.get());
+
+        mint(hex, hash);
+        blocks.onNext(blockResponse(hash));
+        Assert.assertNotNull(future.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void timeout() throws Exception {
+        ReceiptWaiter waiter = newWaiter(300);
+        CompletableFuture<ReceiptOuterClass.Receipt> future = waiter.await(ByteUtil.toHexStringWithOx(hash(5)));
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail("receipt must not be available");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof io.grpc.StatusRuntimeException
+                    || e.getCause() instanceof TimeoutException);
+        }
+        Assert.assertEquals(0, waiter.pendingCount());
+    }
+
+    @Test
+    public void oneFetchAtATime() throws Exception {
+        Queue<CompletableFuture<ReceiptOuterClass.Receipt>> inFlight = new ConcurrentLinkedQueue<>();
+        ReceiptWaiter waiter = new ReceiptWaiter(hash -> {
+            CompletableFuture<ReceiptOuterClass.Receipt> future = new CompletableFuture<>();
+            inFlight.add(future);
+            return future;
+        }, observer -> blocks = observer, scheduler, 10000);
+        byte[] hash = hash(6);
+        waiter.await(ByteUtil.toHexStringWithOx(hash));
+
+        blocks.onNext(blockResponse(hash));
+        blocks.onNext(blockResponse(hash));
+        Assert.assertEquals(1, inFlight.size());
+
+        // the failed fetch schedules one poll, the earlier one is cancelled
+        inFlight.poll().completeExceptionally(Status.UNKNOWN.withDescription("not found in DB").asRuntimeException());
+        Thread.sleep(1000);
+        Assert.assertEquals(1, inFlight.size());
+    }
+
+    private ReceiptOuterClass.Receipt mint(String hex, byte[] hash) {
+        ReceiptOuterClass.Receipt receipt = ReceiptOuterClass.Receipt.newBuilder()
+                .setTxHash(ByteString.copyFrom(hash))
+                .build();
+        minted.put(hex, receipt);
+        return receipt;
+    }
+
+    private static byte[] hash(int seed) {
+        byte[] hash = new byte[32];
+        hash[31] = (byte) seed;
+        hash[0] = (byte) 0xab;
+        return hash;
+    }
+
+    private static Broker.Response blockResponse(byte[]... txHashes) throws IOException {
+        return Broker.Response.newBuilder().setData(block(txHashes).toByteString()).build();
+    }
+
+    private static BlockOuterClass.Block block(byte[]... txHashes) throws IOException {
+        ByteString.Output out = ByteString.newOutput();
+        CodedOutputStream output = CodedOutputStream.newInstance(out);
+        for (byte[] txHash : txHashes) {
+            Transaction.BxhTransaction tx = Transaction.BxhTransaction.newBuilder()
+                    .setTransactionHash(ByteString.copyFrom(txHash))
+                    .build();
+            output.writeBytes(1, tx.toByteString());
+        }
+        output.flush();
+        return BlockOuterClass.Block.newBuilder()
+                .setBlockHeader(BlockOuterClass.BlockHeader.newBuilder().setNumber(1))
+                .setTransactions(out.toByteString())
+                .build();
+    }
+}
@@ -0,0 +1,234 @@
+package cn.dmlab.bitxhub;
+
+import com.google.protobuf.MessageLite;
+import io.grpc.Status;
+import io.grpc.stub.StreamObserver;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import pb.AuditInfo;
+import pb.BlockOuterClass;
+import pb.Broker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class ResilientSubscriptionTest {
+    private final BlockingQueue<StreamObserver<Broker.Response>> streams = new LinkedBlockingQueue<>();
+    private final List<Long> subscribedAt = new CopyOnWriteArrayList<>();
+    private final AtomicInteger backfills = new AtomicInteger();
+
+    @Test
+    public void backfillGapAfterReconnect() throws InterruptedException {
+        Collector<BlockOuterClass.Block> collector = new Collector<>(10);
+        ResilientSubscription<BlockOuterClass.Block> subscription = blocks(1, collector);
+
+        StreamObserver<Broker.Response> first = streams.poll(5, TimeUnit.SECONDS);
+        // blocks 1 and 2 are backfilled before block 3
+        first.onNext(response(block(3)));
+        first.onNext(response(block(4)));
+        first.onError(Status.UNAVAILABLE.asRuntimeException());
+
+        StreamObserver<Broker.Response> second = streams.poll(5, TimeUnit.SECONDS);
+        // 4 again, then 5 to 7 were missed
+        second.onNext(response(block(4)));
+        second.onNext(response(block(8)));
+        second.onCompleted();
+
+        StreamObserver<Broker.Response> third = streams.poll(5, TimeUnit.SECONDS);
+        third.onNext(response(block(8)));
+        third.onNext(response(block(9)));
+        third.onNext(response(block(10)));
+
+        Assert.assertTrue(collector.received.await(5, TimeUnit.SECONDS));
+        subscription.close();
+        Assert.assertTrue(collector.terminated.await(5, TimeUnit.SECONDS));
+        Assert.assertNull(collector.error);
+        Assert.assertEquals(10, collector.items.size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(i + 1, collector.items.get(i).getBlockHeader().getNumber());
+        }
+        Assert.assertEquals(2, backfills.get());
+    }
+
+    @Test
+    public void startAtHead() throws InterruptedException {
+        Collector<BlockOuterClass.Block> collector = new Collector<>(2);
+        ResilientSubscription<BlockOuterClass.Block> subscription = blocks(0, collector);
+        StreamObserver<Broker.Response> stream = streams.poll(5, TimeUnit.SECONDS);
+        stream.onNext(response(block(7)));
+        stream.onNext(response(block(8)));
+        Assert.assertTrue(collector.received.await(5, TimeUnit.SECONDS));
+        subscription.close();
+        Assert.assertEquals(7, collector.items.get(0).getBlockHeader().getNumber());
+        Assert.assertEquals(0, backfills.get());
+    }
+
+    @Test
+    public void failedBackfillReconnects() throws InterruptedException {
+        Collector<BlockOuterClass.Block> collector = new Collector<>(3);
+        AtomicInteger calls = new AtomicInteger();
+        ResilientSubscription<BlockOuterClass.Block> subscription = new ResilientSubscription<>(
+                this::subscribe, BlockOuterClass.Block.parser(), block -> block.getBlockHeader().getNumber(),
+                (start, end) -> {
+                    if (calls.incrementAndGet() == 1) {
+                        CompletableFuture<List<BlockOuterClass.Block>> future = new CompletableFuture<>();
+                        future.completeExceptionally(Status.UNAVAILABLE.asRuntimeException());
+                        return future;
+                    }
+                    return CompletableFuture.completedFuture(range(start, end));
+                }, 1, collector, 10, 100);
+
+        streams.poll(5, TimeUnit.SECONDS).onNext(response(block(3)));
+        streams.poll(5, TimeUnit.SECONDS).onNext(response(block(3)));
+        Assert.assertTrue(collector.received.await(5, TimeUnit.SECONDS));
+        subscription.close();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(i + 1, collector.items.get(i).getBlockHeader().getNumber());
+        }
+    }
+
+    @Test
+    public void liveItemsWaitForBackfill() throws InterruptedException {
+        Collector<BlockOuterClass.Block> collector = new Collector<>(9);
+        BlockingQueue<Runnable> fetches = new LinkedBlockingQueue<>();
+        ResilientSubscription<BlockOuterClass.Block> subscription = new ResilientSubscription<>(
+                this::subscribe, BlockOuterClass.Block.parser(), block -> block.getBlockHeader().getNumber(),
+                (start, end) -> {
+                    CompletableFuture<List<BlockOuterClass.Block>> future = new CompletableFuture<>();
+                    fetches.add(() -> future.complete(range(start, end)));
+                    return future;
+                }, 1, collector, 10, 100, 3);
+
+        StreamObserver<Broker.Response> stream = streams.poll(5, TimeUnit.SECONDS);
+        // 3 to 5 are buffered while 1 and 2 are fetched, 6 to 8 are dropped
+        for (int height = 3; height <= 8; height++) {
+            stream.onNext(response(block(height)));
+        }
+        fetches.poll(5, TimeUnit.SECONDS).run();
+        while (collector.items.size() < 5) {
+            Thread.sleep(10);
+        }
+        stream.onNext(response(block(9)));
+        fetches.poll(5, TimeUnit.SECONDS).run();
+
+        Assert.assertTrue(collector.received.await(5, TimeUnit.SECONDS));
+        subscription.close();
+        Assert.assertEquals(1, subscribedAt.size());
+        Assert.assertEquals(9, collector.items.size());
+        for (int i = 0; i < 9; i++) {
+            Assert.assertEquals(i + 1, collector.items.get(i).getBlockHeader().getNumber());
+        }
+    }
+
+    @Test
+    public void fatalError() throws InterruptedException {
+        Collector<BlockOuterClass.Block> collector = new Collector<>(0);
+        blocks(0, collector);
+        streams.poll(5, TimeUnit.SECONDS).onError(Status.PERMISSION_DENIED.asRuntimeException());
+        Assert.assertTrue(collector.terminated.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Status.Code.PERMISSION_DENIED, Status.fromThrowable(collector.error).getCode());
+        Assert.assertEquals(1, subscribedAt.size());
+    }
+
+    @Test
+    public void auditReplaySkipsDelivered() throws InterruptedException {
+        Collector<AuditInfo.AuditTxInfo> collector = new Collector<>(4);
+        ResilientSubscription<AuditInfo.AuditTxInfo> subscription = new ResilientSubscription<>(
+                this::subscribe, AuditInfo.AuditTxInfo.parser(), AuditInfo.AuditTxInfo::getBlockHeight,
+                null, 5, collector, 10, 100);
+
+        StreamObserver<Broker.Response> first = streams.poll(5, TimeUnit.SECONDS);
+        first.onNext(response(audit(5)));
+        first.onNext(response(audit(6)));
+        first.onError(Status.UNAVAILABLE.asRuntimeException());
+
+        // the server replays height 6, which had two infos
+        StreamObserver<Broker.Response> second = streams.poll(5, TimeUnit.SECONDS);
+        second.onNext(response(audit(6)));
+        second.onNext(response(audit(6)));
+        second.onNext(response(audit(7)));
+
+        Assert.assertTrue(collector.received.await(5, TimeUnit.SECONDS));
+        subscription.close();
+        Assert.assertEquals(5L, (long) subscribedAt.get(0));
+        Assert.assertEquals(6L, (long) subscribedAt.get(1));
+        long[] heights = {5, 6, 6, 7};
+        for (int i = 0; i < heights.length; i++) {
+            Assert.assertEquals(heights[i], collector.items.get(i).getBlockHeight());
+        }
+    }
+
+    private ResilientSubscription<BlockOuterClass.Block> blocks(long start, Collector<BlockOuterClass.Block> collector) {
+        return new ResilientSubscription<>(this::subscribe, BlockOuterClass.Block.parser(),
+                block -> block.getBlockHeader().getNumber(),
+                (from, to) -> {
+                    backfills.incrementAndGet();
+                    return CompletableFuture.completedFuture(range(from, to));
+                }, start, collector, 10, 100);
+    }
+
+    private void subscribe(long height, StreamObserver<Broker.Response> observer) {
+        subscribedAt.add(height);
+        streams.add(observer);
+    }
+
+    private static List<BlockOuterClass.Block> range(long start, long end) {
+        List<BlockOuterClass.Block> blocks = new ArrayList<>();
+        for (long height = start; height <= end; height++) {
+            blocks.add(block(height));
+        }
+        return blocks;
+    }
+
+    private static BlockOuterClass.Block block(long height) {
+        return BlockOuterClass.Block.newBuilder()
+                .setBlockHeader(BlockOuterClass.BlockHeader.newBuilder().setNumber(height))
+                .build();
+    }
+
+    private static AuditInfo.AuditTxInfo audit(long height) {
+        return AuditInfo.AuditTxInfo.newBuilder().setBlockHeight(height).build();
+    }
+
+    private static Broker.Response response(MessageLite message) {
+        return Broker.Response.newBuilder().setData(message.toByteString()).build();
+    }
+
+    private static class Collector<T> implements StreamObserver<T> {
+        private final List<T> items = new CopyOnWriteArrayList<>();
+        private final CountDownLatch received;
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private volatile Throwable error;
+
+        Collector(int expected) {
+            this.received = new CountDownLatch(expected);
+        }
+
+        @Override
+        public void onNext(T value) {
+            items.add(value);
+            received.countDown();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            terminated.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+            terminated.countDown();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package cn.dmlab.bitxhub;
+
+import com.google.protobuf.ByteString;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import pb.BlockOuterClass;
+import pb.Broker;
+import pb.Chain;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+@RunWith(JUnit4.class)
+public class ResumableSyncTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path file;
+    private List<BlockOuterClass.Block> chain;
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.getRoot().toPath().resolve("checkpoints");
+        chain = chain(200, "a");
+    }
+
+    @Test
+    public void fileStore() {
+        FileCheckpointStore store = new FileCheckpointStore(file, 3, 60000);
+        Assert.assertNull(store.load("blocks"));
+        store.save("blocks", new Checkpoint(1, new byte[]{1, 2}));
+        store.save("blocks", new Checkpoint(2, new byte[]{3}));
+        Assert.assertFalse(Files.exists(file));
+        store.save("headers", new Checkpoint(9, null));
+        Assert.assertTrue(Files.exists(file));
+
+        store.save("blocks", new Checkpoint(5, new byte[]{5}));
+        Assert.assertEquals(2, new FileCheckpointStore(file).load("blocks").getHeight());
+        store.close();
+
+        FileCheckpointStore reopened = new FileCheckpointStore(file);
+        Assert.assertEquals(new Checkpoint(5, new byte[]{5}), reopened.load("blocks"));
+        Assert.assertEquals(new Checkpoint(9, new byte[0]), reopened.load("headers"));
+        reopened.remove("headers");
+        Assert.assertNull(new FileCheckpointStore(file).load("headers"));
+        Assert.assertFalse(Files.exists(folder.getRoot().toPath().resolve("checkpoints.tmp")));
+    }
+
+    @Test
+    public void resumeBlocks() {
+        List<Long> heights = new ArrayList<>();
+        ResumableSync sync = new ResumableSync(client(), new FileCheckpointStore(file));
+        try {
+            sync.syncBlocks(1, 200, block -> {
+                if (block.getBlockHeader().getNumber() == 120) {
+                    throw new IllegalStateException("crash");
+                }
+                heights.add(block.getBlockHeader().getNumber());
+            });
+            Assert.fail("consumer must fail");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("crash", e.getMessage());
+        }
+        Assert.assertEquals(119, heights.size());
+
+        sync = new ResumableSync(client(), new FileCheckpointStore(file));
+        Assert.assertEquals(200, sync.syncBlocks(1, 200, block -> heights.add(block.getBlockHeader().getNumber())));
+        Assert.assertEquals(200, heights.size());
+        for (int i = 0; i < heights.size(); i++) {
+            Assert.assertEquals(i + 1, (long) heights.get(i));
+        }
+        Assert.assertEquals(200, sync.syncBlocks(1, 200, block -> Assert.fail("nothing left")));
+    }
+
+    @Test
+    public void forkedBlocks() {
+        ResumableSync sync = new ResumableSync(client(), new FileCheckpointStore(file));
+        sync.syncBlocks(1, 100, block -> {
+        });
+        // blocks after 50 were replaced
+        List<BlockOuterClass.Block> fork = chain(200, "b");
+        for (int i = 50; i < 200; i++) {
+            chain.set(i, fork.get(i));
+        }
+        try {
+            sync.syncBlocks(1, 200, block -> {
+            });
+            Assert.fail("fork must be detected");
+        } catch (CheckpointMismatchException e) {
+            Assert.assertEquals(100, e.getHeight());
+            Assert.assertEquals(ResumableSync.BLOCKS, e.getStream());
+        }
+    }
+
+    @Test
+    public void resumeHeaders() {
+        List<Long> heights = new ArrayList<>();
+        ResumableSync sync = new ResumableSync(client(), new FileCheckpointStore(file));
+        Assert.assertEquals(150, sync.syncBlockHeaders(1, 150, header -> heights.add(header.getNumber())));
+        Assert.assertEquals(200, sync.syncBlockHeaders(1, 200, header -> heights.add(header.getNumber())));
+        Assert.assertEquals(200, heights.size());
+        Assert.assertEquals(151, (long) heights.get(150));
+
+        chain.set(199, chain(200, "c").get(199));
+        try {
+            sync.syncBlockHeaders(1, 210, header -> {
+            });
+            Assert.fail("changed header must be detected");
+        } catch (CheckpointMismatchException e) {
+            Assert.assertEquals(200, e.getHeight());
+        }
+    }
+
+    @Test
+    public void interchainAboveChainHead() {
+        List<Long> heights = new ArrayList<>();
+        ResumableSync sync = new ResumableSync(client(), new FileCheckpointStore(file));
+        Assert.assertEquals(200, sync.syncInterchainTxWrappers("pier", 1, 250, wrapper -> heights.add(wrapper.getHeight())));
+        Assert.assertEquals(200, heights.size());
+
+        // the heights above the old head are synced once they are minted
+        chain.addAll(chain(250, "a").subList(200, 250));
+        sync = new ResumableSync(client(), new FileCheckpointStore(file));
+        Assert.assertEquals(250, sync.syncInterchainTxWrappers("pier", 1, 250, wrapper -> heights.add(wrapper.getHeight())));
+        Assert.assertEquals(250, heights.size());
+        Assert.assertEquals(201, (long) heights.get(200));
+    }
+
+    private AsyncGrpcClient client() {
+        return (AsyncGrpcClient) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[]{AsyncGrpcClient.class},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("getChainMetaAsync")) {
+                        return CompletableFuture.completedFuture(Chain.ChainMeta.newBuilder().setHeight(chain.size()).build());
+                    }
+                    if (method.getName().equals("getInterchainTxWrappersAsync")) {
+                        List<Broker.InterchainTxWrappers> batches = new ArrayList<>();
+                        for (long height = (Long) args[1]; height <= Math.min((Long) args[2], chain.size()); height++) {
+                            batches.add(Broker.InterchainTxWrappers.newBuilder()
+                                    .addInterchainTxWrappers(Broker.InterchainTxWrapper.newBuilder().setHeight(height))
+                                    .build());
+                        }
+                        return CompletableFuture.completedFuture(batches);
+                    }
+                    long start = (Long) args[0];
+                    long end = Math.min((Long) args[1], chain.size());
+                    List<BlockOuterClass.Block> blocks = start > end
+                            ? Collections.emptyList() : chain.subList((int) start - 1, (int) end);
+                    switch (method.getName()) {
+                        case "getBlocksAsync":
+                            return CompletableFuture.completedFuture(Broker.GetBlocksResponse.newBuilder()
+                                    .addAllBlocks(blocks).build());
+                        case "getBlockHeadersAsync":
+                            Broker.GetBlockHeadersResponse.Builder headers = Broker.GetBlockHeadersResponse.newBuilder();
+                            blocks.forEach(block -> headers.addBlockHeaders(block.getBlockHeader()));
+                            return CompletableFuture.completedFuture(headers.build());
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static List<BlockOuterClass.Block> chain(int length, String seed) {
+        List<BlockOuterClass.Block> chain = new ArrayList<>();
+        ByteString parent = ByteString.EMPTY;
+        for (long height = 1; height <= length; height++) {
+            ByteString hash = ByteString.copyFromUtf8(seed + height);
+            chain.add(BlockOuterClass.Block.newBuilder()
+                    .setBlockHeader(BlockOuterClass.BlockHeader.newBuilder()
+                            .setNumber(height)
+                            .setParentHash(parent)
+                            .setStateRoot(hash))
+                    .setBlockHash(hash)
+                    .build());
+            parent = hash;
+        }
+        return chain;
+    }
+}
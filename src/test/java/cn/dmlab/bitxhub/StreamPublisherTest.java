@@ -0,0 +1,135 @@
+package cn.dmlab.bitxhub;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import pb.BlockOuterClass;
+import pb.Broker;
+import pb.ChainBrokerGrpc;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class StreamPublisherTest {
+    private Server server;
+    private ManagedChannel channel;
+
+    @Before
+    public void setUp() throws IOException {
+        String name = "stream-publisher-" + System.nanoTime();
+        server = InProcessServerBuilder.forName(name)
+                .addService(new ChainBrokerGrpc.ChainBrokerImplBase() {
+                    @Override
+                    public void getBlockHeader(Broker.GetBlockHeaderRequest request, StreamObserver<BlockOuterClass.BlockHeader> responseObserver) {
+                        for (long height = request.getBegin(); height <= request.getEnd(); height++) {
+                            responseObserver.onNext(BlockOuterClass.BlockHeader.newBuilder().setNumber(height).build());
+                        }
+                        responseObserver.onCompleted();
+                    }
+                })
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).build();
+    }
+
+    @After
+    public void tearDown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    public void demand() throws InterruptedException {
+        Collector collector = new Collector();
+        headers(1, 10).subscribe(collector);
+        collector.subscription.request(3);
+        collector.awaitCount(3);
+        Thread.sleep(100);
+        Assert.assertEquals(3, collector.items.size());
+
+        collector.subscription.request(Long.MAX_VALUE);
+        Assert.assertTrue(collector.terminated.await(5, TimeUnit.SECONDS));
+        Assert.assertNull(collector.error);
+        Assert.assertEquals(10, collector.items.size());
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(i + 1, collector.items.get(i).getNumber());
+        }
+    }
+
+    @Test
+    public void cancel() throws InterruptedException {
+        Collector collector = new Collector();
+        headers(1, 10).subscribe(collector);
+        collector.subscription.request(2);
+        collector.awaitCount(2);
+        collector.subscription.cancel();
+        collector.subscription.request(5);
+        Thread.sleep(100);
+        Assert.assertEquals(2, collector.items.size());
+        Assert.assertEquals(1, collector.terminated.getCount());
+    }
+
+    @Test
+    public void invalidRequest() throws InterruptedException {
+        Collector collector = new Collector();
+        headers(1, 10).subscribe(collector);
+        collector.subscription.request(0);
+        Assert.assertTrue(collector.terminated.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(collector.error instanceof IllegalArgumentException);
+    }
+
+    private StreamPublisher<BlockOuterClass.BlockHeader> headers(long begin, long end) {
+        return new StreamPublisher<>(observer -> ChainBrokerGrpc.newStub(channel).getBlockHeader(
+                Broker.GetBlockHeaderRequest.newBuilder().setBegin(begin).setEnd(end).build(), observer));
+    }
+
+    private static class Collector implements Subscriber<BlockOuterClass.BlockHeader> {
+        private final List<BlockOuterClass.BlockHeader> items = new CopyOnWriteArrayList<>();
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private volatile Subscription subscription;
+        private volatile Throwable error;
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            subscription = s;
+        }
+
+        @Override
+        public void onNext(BlockOuterClass.BlockHeader header) {
+            items.add(header);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            terminated.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            terminated.countDown();
+        }
+
+        void awaitCount(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (items.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(items.size() >= count);
+        }
+    }
+}
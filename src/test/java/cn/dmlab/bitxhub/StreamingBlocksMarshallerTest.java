@@ -0,0 +1,124 @@
+package cn.dmlab.bitxhub;
+
+import io.grpc.CallOptions;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import pb.BlockOuterClass;
+import pb.Broker;
+import pb.ChainBrokerGrpc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class StreamingBlocksMarshallerTest {
+    private Server server;
+    private ManagedChannel channel;
+
+    @Before
+    public void setUp() throws IOException {
+        String name = "streaming-blocks-" + System.nanoTime();
+        server = InProcessServerBuilder.forName(name)
+                .addService(new ChainBrokerGrpc.ChainBrokerImplBase() {
+                    @Override
+                    public void getBlocks(Broker.GetBlocksRequest request, StreamObserver<Broker.GetBlocksResponse> responseObserver) {
+                        Broker.GetBlocksResponse.Builder response = Broker.GetBlocksResponse.newBuilder();
+                        for (long height = request.getStart(); height <= request.getEnd(); height++) {
+                            response.addBlocks(BlockOuterClass.Block.newBuilder()
+                                    .setBlockHeader(BlockOuterClass.BlockHeader.newBuilder().setNumber(height)));
+                        }
+                        responseObserver.onNext(response.build());
+                        responseObserver.onCompleted();
+                    }
+
+                    @Override
+                    public void getHappyBlocks(Broker.GetBlocksRequest request, StreamObserver<Broker.GetHappyBlocksResponse> responseObserver) {
+                        Broker.GetHappyBlocksResponse.Builder response = Broker.GetHappyBlocksResponse.newBuilder();
+                        for (long height = request.getStart(); height <= request.getEnd(); height++) {
+                            response.addBlocks(BlockOuterClass.HappyBlock.newBuilder()
+                                    .setBlockHeader(BlockOuterClass.BlockHeader.newBuilder().setNumber(height))
+                                    .addIndex(height));
+                        }
+                        responseObserver.onNext(response.build());
+                        responseObserver.onCompleted();
+                    }
+                })
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).build();
+    }
+
+    @After
+    public void tearDown() {
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    public void blocks() {
+        List<Long> heights = new ArrayList<>();
+        long count = ClientCalls.blockingUnaryCall(channel,
+                StreamingBlocksMarshaller.streaming(ChainBrokerGrpc.getGetBlocksMethod(), BlockOuterClass.Block.parser(),
+                        block -> heights.add(block.getBlockHeader().getNumber())),
+                CallOptions.DEFAULT, request(5, 304));
+        Assert.assertEquals(300, count);
+        for (int i = 0; i < heights.size(); i++) {
+            Assert.assertEquals(i + 5, (long) heights.get(i));
+        }
+    }
+
+    @Test
+    public void happyBlocks() throws Exception {
+        List<BlockOuterClass.HappyBlock> blocks = new ArrayList<>();
+        long count = ClientCalls.futureUnaryCall(channel.newCall(
+                StreamingBlocksMarshaller.streaming(ChainBrokerGrpc.getGetHappyBlocksMethod(),
+                        BlockOuterClass.HappyBlock.parser(), blocks::add),
+                CallOptions.DEFAULT), request(1, 3)).get();
+        Assert.assertEquals(3, count);
+        Assert.assertEquals(3, blocks.get(2).getIndex(0));
+    }
+
+    @Test
+    public void consumerFailure() {
+        try {
+            ClientCalls.blockingUnaryCall(channel,
+                    StreamingBlocksMarshaller.streaming(ChainBrokerGrpc.getGetBlocksMethod(), BlockOuterClass.Block.parser(),
+                            block -> {
+                                throw new IllegalStateException("stop");
+                            }),
+                    CallOptions.DEFAULT, request(1, 3));
+            Assert.fail("consumer failure must fail the call");
+        } catch (StatusRuntimeException e) {
+            Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void streamParsesBack() throws IOException {
+        List<BlockOuterClass.Block> blocks = new ArrayList<>();
+        MethodDescriptor.Marshaller<Long> marshaller = StreamingBlocksMarshaller.streaming(
+                ChainBrokerGrpc.getGetBlocksMethod(), BlockOuterClass.Block.parser(), blocks::add)
+                .getResponseMarshaller();
+        Assert.assertEquals(Broker.GetBlocksResponse.getDefaultInstance(),
+                Broker.GetBlocksResponse.parseFrom(marshaller.stream(3L)));
+        Assert.assertEquals(0, (long) marshaller.parse(marshaller.stream(3L)));
+        Assert.assertTrue(blocks.isEmpty());
+    }
+
+    private static Broker.GetBlocksRequest request(long start, long end) {
+        return Broker.GetBlocksRequest.newBuilder().setStart(start).setEnd(end).build();
+    }
+}
@@ -0,0 +1,244 @@
+package cn.dmlab.bitxhub;
+
+import com.google.protobuf.AbstractParser;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.InvalidProtocolBufferException;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import pb.BlockOuterClass;
+import pb.Broker;
+import pb.ChainBrokerGrpc;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class SubscriptionHubTest {
+    private final List<ServerCallStreamObserver<Broker.Response>> streams = new CopyOnWriteArrayList<>();
+    private final CountDownLatch cancelled = new CountDownLatch(1);
+    private Server server;
+    private ManagedChannel channel;
+    private SubscriptionHub hub;
+
+    @Before
+    public void setUp() throws IOException {
+        String name = "subscription-hub-" + System.nanoTime();
+        server = InProcessServerBuilder.forName(name)
+                .directExecutor()
+                .addService(new ChainBrokerGrpc.ChainBrokerImplBase() {
+                    @Override
+                    public void subscribe(Broker.SubscriptionRequest request, StreamObserver<Broker.Response> responseObserver) {
+                        ServerCallStreamObserver<Broker.Response> stream = (ServerCallStreamObserver<Broker.Response>) responseObserver;
+                        stream.setOnCancelHandler(cancelled::countDown);
+                        streams.add(stream);
+                    }
+                })
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).directExecutor().build();
+        ChainBrokerGrpc.ChainBrokerStub stub = ChainBrokerGrpc.newStub(channel);
+        hub = new SubscriptionHub((type, observer) ->
+                stub.subscribe(Broker.SubscriptionRequest.newBuilder().setType(type).build(), observer));
+    }
+
+    @After
+    public void tearDown() {
+        hub.close();
+        channel.shutdownNow();
+        server.shutdownNow();
+    }
+
+    @Test
+    public void shareStream() throws InterruptedException {
+        CountingParser parser = new CountingParser();
+        Collector first = new Collector(5);
+        Collector second = new Collector(5);
+        hub.subscribe(Broker.SubscriptionRequest.Type.BLOCK, parser, first);
+        hub.subscribe(Broker.SubscriptionRequest.Type.BLOCK, parser, second);
+        Assert.assertEquals(1, hub.upstreamCount());
+        Assert.assertEquals(1, streams.size());
+
+        for (long height = 1; height <= 5; height++) {
+            streams.get(0).onNext(block(height));
+        }
+        Assert.assertTrue(first.received.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(second.received.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals(i + 1, first.heights.get(i).longValue());
+            Assert.assertEquals(i + 1, second.heights.get(i).longValue());
+        }
+        Assert.assertEquals(5, parser.decoded.get());
+    }
+
+    @Test
+    public void lastListenerCancelsStream() throws InterruptedException {
+        SubscriptionHub.Subscription first = hub.subscribe(Broker.SubscriptionRequest.Type.BLOCK, new Collector(0));
+        SubscriptionHub.Subscription second = hub.subscribe(Broker.SubscriptionRequest.Type.BLOCK, new Collector(0));
+        first.close();
+        Assert.assertEquals(1, hub.upstreamCount());
+        Assert.assertEquals(1, cancelled.getCount());
+        second.close();
+        Assert.assertEquals(0, hub.upstreamCount());
+        Assert.assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+
+        hub.subscribe(Broker.SubscriptionRequest.Type.BLOCK, new Collector(0));
+        Assert.assertEquals(2, streams.size());
+    }
+
+    @Test
+    public void dropOldest() throws InterruptedException {
+        CountDownLatch gate = new CountDownLatch(1);
+        Collector slow = new Collector(3, gate);
+        SubscriptionHub.Subscription subscription = hub.subscribe(Broker.SubscriptionRequest.Type.BLOCK,
+                BlockOuterClass.Block.parser(), slow, 2, SubscriptionHub.OverflowPolicy.DROP_OLDEST);
+        streams.get(0).onNext(block(1));
+        // wait until block 1 is taken by the listener, which then hangs
+        Assert.assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+        for (long height = 2; height <= 6; height++) {
+            streams.get(0).onNext(block(height));
+        }
+        gate.countDown();
+        Assert.assertTrue(slow.received.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(3, subscription.getDropped());
+        Assert.assertEquals(1, slow.heights.get(0).longValue());
+        Assert.assertEquals(5, slow.heights.get(1).longValue());
+        Assert.assertEquals(6, slow.heights.get(2).longValue());
+    }
+
+    @Test
+    public void disconnect() throws InterruptedException {
+        CountDownLatch gate = new CountDownLatch(1);
+        Collector slow = new Collector(1, gate);
+        Collector fast = new Collector(4);
+        hub.subscribe(Broker.SubscriptionRequest.Type.BLOCK, BlockOuterClass.Block.parser(), slow, 1,
+                SubscriptionHub.OverflowPolicy.DISCONNECT);
+        hub.subscribe(Broker.SubscriptionRequest.Type.BLOCK, BlockOuterClass.Block.parser(), fast);
+        streams.get(0).onNext(block(1));
+        Assert.assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+        for (long height = 2; height <= 4; height++) {
+            streams.get(0).onNext(block(height));
+        }
+        gate.countDown();
+        Assert.assertTrue(slow.terminated.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Status.Code.RESOURCE_EXHAUSTED, Status.fromThrowable(slow.error).getCode());
+        Assert.assertTrue(fast.received.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, hub.upstreamCount());
+    }
+
+    @Test
+    public void block() throws InterruptedException {
+        CountDownLatch gate = new CountDownLatch(1);
+        Collector slow = new Collector(4, gate);
+        hub.subscribe(Broker.SubscriptionRequest.Type.BLOCK, BlockOuterClass.Block.parser(), slow, 1,
+                SubscriptionHub.OverflowPolicy.BLOCK);
+        streams.get(0).onNext(block(1));
+        Assert.assertTrue(slow.started.await(5, TimeUnit.SECONDS));
+        streams.get(0).onNext(block(2));
+        Thread producer = new Thread(() -> {
+            streams.get(0).onNext(block(3));
+            streams.get(0).onNext(block(4));
+        });
+        producer.start();
+        producer.join(300);
+        // the queue is full, the stream waits for the listener
+        Assert.assertTrue(producer.isAlive());
+        gate.countDown();
+        producer.join(5000);
+        Assert.assertTrue(slow.received.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 4; i++) {
+            Assert.assertEquals(i + 1, slow.heights.get(i).longValue());
+        }
+    }
+
+    @Test
+    public void streamError() throws InterruptedException {
+        Collector first = new Collector(0);
+        Collector second = new Collector(0);
+        hub.subscribe(Broker.SubscriptionRequest.Type.EVENT, first);
+        hub.subscribe(Broker.SubscriptionRequest.Type.EVENT, second);
+        streams.get(0).onError(Status.UNAVAILABLE.asRuntimeException());
+        Assert.assertTrue(first.terminated.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(second.terminated.await(5, TimeUnit.SECONDS));
+        Assert.assertEquals(Status.Code.UNAVAILABLE, Status.fromThrowable(first.error).getCode());
+        Assert.assertEquals(0, hub.upstreamCount());
+    }
+
+    private static Broker.Response block(long height) {
+        return Broker.Response.newBuilder()
+                .setData(BlockOuterClass.Block.newBuilder()
+                        .setBlockHeader(BlockOuterClass.BlockHeader.newBuilder().setNumber(height))
+                        .build()
+                        .toByteString())
+                .build();
+    }
+
+    private static class CountingParser extends AbstractParser<BlockOuterClass.Block> {
+        private final AtomicInteger decoded = new AtomicInteger();
+
+        @Override
+        public BlockOuterClass.Block parsePartialFrom(CodedInputStream input, ExtensionRegistryLite registry)
+                throws InvalidProtocolBufferException {
+            decoded.incrementAndGet();
+            return BlockOuterClass.Block.parser().parsePartialFrom(input, registry);
+        }
+    }
+
+    private static class Collector implements StreamObserver<Object> {
+        private final List<Long> heights = new CopyOnWriteArrayList<>();
+        private final CountDownLatch started = new CountDownLatch(1);
+        private final CountDownLatch received;
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private final CountDownLatch gate;
+        private volatile Throwable error;
+
+        Collector(int expected) {
+            this(expected, new CountDownLatch(0));
+        }
+
+        Collector(int expected, CountDownLatch gate) {
+            this.received = new CountDownLatch(expected);
+            this.gate = gate;
+        }
+
+        @Override
+        public void onNext(Object value) {
+            started.countDown();
+            try {
+                gate.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (value instanceof BlockOuterClass.Block) {
+                heights.add(((BlockOuterClass.Block) value).getBlockHeader().getNumber());
+            }
+            received.countDown();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            error = t;
+            terminated.countDown();
+        }
+
+        @Override
+        public void onCompleted() {
+            terminated.countDown();
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package cn.dmlab.bitxhub;
+
+import cn.dmlab.utils.SignUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import pb.Transaction;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+@RunWith(JUnit4.class)
+public class TransactionOutboxTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private MockChainBroker mock;
+    private Config config;
+    private GrpcClientImpl client;
+    private TransactionOutbox outbox;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (outbox != null) {
+            outbox.close();
+        }
+        if (client != null) {
+            client.stop();
+        }
+        if (mock != null) {
+            mock.close();
+        }
+    }
+
+    @Test
+    public void reopenReadsUnconfirmed() throws Exception {
+        start();
+        Path dir = folder.newFolder().toPath();
+        Transaction.BxhTransaction tx1 = signed(1);
+        Transaction.BxhTransaction tx2 = signed(2);
+        Transaction.BxhTransaction tx3 = signed(3);
+        outbox = TransactionOutbox.open(dir, 4096);
+        outbox.append(tx1);
+        outbox.append(tx2);
+        outbox.append(tx3);
+        outbox.confirm(TransactionOutbox.hash(tx2).toUpperCase());
+        outbox.close();
+
+        outbox = TransactionOutbox.open(dir, 4096);
+        List<Transaction.BxhTransaction> unconfirmed = outbox.unconfirmed();
+        Assert.assertEquals(2, unconfirmed.size());
+        Assert.assertEquals(tx1, unconfirmed.get(0));
+        Assert.assertEquals(tx3, unconfirmed.get(1));
+    }
+
+    @Test
+    public void keyedByNodeHash() throws Exception {
+        start();
+        Transaction.BxhTransaction transaction = signed(1);
+        client = mock.client();
+        String txHash = client.sendSignedTransaction(transaction);
+        Assert.assertEquals(txHash.toLowerCase(), TransactionOutbox.hash(transaction));
+
+        outbox = TransactionOutbox.open(folder.newFolder().toPath(), 4096);
+        outbox.append(transaction);
+        outbox.confirm(txHash);
+        await(() -> outbox.getUnconfirmedCount() == 0);
+    }
+
+    @Test
+    public void tornRecordIsDropped() throws Exception {
+        start();
+        Path dir = folder.newFolder().toPath();
+        Transaction.BxhTransaction tx1 = signed(1);
+        outbox = TransactionOutbox.open(dir, 4096);
+        outbox.append(tx1);
+        outbox.append(signed(2));
+        outbox.close();
+
+        File[] files = dir.toFile().listFiles();
+        Assert.assertEquals(1, files.length);
+        try (RandomAccessFile file = new RandomAccessFile(files[0], "rw")) {
+            // a byte of the payload of the second record
+            long position = 2 * TransactionOutbox.HEADER_SIZE + tx1.toByteArray().length;
+            file.seek(position);
+            int b = file.read();
+            file.seek(position);
+            file.write(b ^ 0xff);
+        }
+
+        outbox = TransactionOutbox.open(dir, 4096);
+        Assert.assertEquals(1, outbox.getUnconfirmedCount());
+        Assert.assertEquals(tx1, outbox.unconfirmed().get(0));
+    }
+
+    @Test
+    public void confirmedSegmentsAreDeleted() throws Exception {
+        start();
+        Path dir = folder.newFolder().toPath();
+        outbox = TransactionOutbox.open(dir, 512);
+        List<Transaction.BxhTransaction> transactions = new ArrayList<>();
+        for (int i = 1; i <= 6; i++) {
+            Transaction.BxhTransaction transaction = signed(i);
+            transactions.add(transaction);
+            outbox.append(transaction);
+        }
+        Assert.assertTrue(outbox.getSegmentCount() > 1);
+
+        // the oldest segment keeps the ones after it
+        for (Transaction.BxhTransaction transaction : transactions.subList(1, 6)) {
+            outbox.confirm(TransactionOutbox.hash(transaction));
+        }
+        await(() -> outbox.getUnconfirmedCount() == 1);
+        Assert.assertEquals(dir.toFile().listFiles().length, outbox.getSegmentCount());
+        Assert.assertTrue(outbox.getSegmentCount() > 1);
+
+        outbox.confirm(TransactionOutbox.hash(transactions.get(0)));
+        await(() -> outbox.getUnconfirmedCount() == 0);
+        // only the segment written to is left
+        Assert.assertEquals(1, outbox.getSegmentCount());
+        outbox.close();
+
+        outbox = TransactionOutbox.open(dir, 512);
+        Assert.assertEquals(0, outbox.getUnconfirmedCount());
+        Assert.assertEquals(0, dir.toFile().listFiles().length);
+    }
+
+    @Test
+    public void concurrentAppendsShareCommits() throws Exception {
+        start();
+        outbox = TransactionOutbox.open(folder.newFolder().toPath(), 4096);
+        List<CompletableFuture<Void>> futures = new CopyOnWriteArrayList<>();
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int first = t * 50 + 1;
+            producers.add(new Thread(() -> {
+                for (int i = first; i < first + 50; i++) {
+                    futures.add(outbox.appendAsync(signed(i)));
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(200, outbox.getUnconfirmedCount());
+        Assert.assertTrue(outbox.getCommits() < 200);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void appendAfterClose() throws Exception {
+        start();
+        outbox = TransactionOutbox.open(folder.newFolder().toPath(), 4096);
+        outbox.close();
+        outbox.append(signed(1));
+    }
+
+    @Test
+    public void clientConfirmsMinted() throws Exception {
+        start();
+        config.setOutboxDir(folder.newFolder().toString());
+        client = new GrpcClientImpl(config);
+        for (int i = 0; i < 3; i++) {
+            client.sendTransaction(mock.transfer(), null);
+        }
+        client.sendTransactionAsync(mock.transfer(), null).get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(4, client.getOutbox().getUnconfirmedCount());
+        Assert.assertEquals(4L, (long) client.getMetrics().getGauges().get("OutboxUnconfirmed"));
+
+        mock.mint();
+        await(() -> client.getOutbox().getUnconfirmedCount() == 0);
+    }
+
+    @Test
+    public void lateMintIsConfirmed() throws Exception {
+        start();
+        config.setOutboxDir(folder.newFolder().toString());
+        config.setReceiptTimeout(50L);
+        client = new GrpcClientImpl(config);
+        client.sendTransactionAsync(mock.transfer(), null).get(5, TimeUnit.SECONDS);
+        // no receipt within the receipt timeout
+        Thread.sleep(300);
+        Assert.assertEquals(1, client.getOutbox().getUnconfirmedCount());
+
+        mock.mint();
+        await(() -> client.getOutbox().getUnconfirmedCount() == 0);
+    }
+
+    @Test
+    public void recoverResendsLostTransactions() throws Exception {
+        start();
+        Transaction.BxhTransaction minted = signed(1);
+        Transaction.BxhTransaction pending = signed(2);
+        Transaction.BxhTransaction lost = signed(3);
+        // nonce 1 is taken, the node refuses it
+        Transaction.BxhTransaction refused = signed(1);
+        client = mock.client();
+        client.sendSignedTransaction(minted);
+        mock.mint();
+        client.sendSignedTransaction(pending);
+        client.stop();
+
+        Path dir = folder.newFolder().toPath();
+        outbox = TransactionOutbox.open(dir);
+        outbox.append(minted);
+        outbox.append(pending);
+        outbox.append(lost);
+        outbox.append(refused);
+        outbox.close();
+        outbox = null;
+
+        config.setOutboxDir(dir.toString());
+        client = new GrpcClientImpl(config);
+        Assert.assertEquals(4, client.getOutbox().getUnconfirmedCount());
+        Assert.assertEquals(1, client.recoverOutbox());
+        Assert.assertEquals(2, mock.getMempoolSize());
+        // the nonce manager continues after the resent nonce
+        client.sendTransaction(mock.transfer(), null);
+        Assert.assertEquals(3, mock.getMempoolSize());
+
+        mock.mint();
+        await(() -> client.getOutbox().getUnconfirmedCount() == 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void recoverWithoutOutbox() {
+        start();
+        client = mock.client();
+        client.recoverOutbox();
+    }
+
+    private void start() {
+        mock = new MockChainBroker().start();
+        config = mock.config();
+        config.setOutboxCheckInterval(50L);
+    }
+
+    private Transaction.BxhTransaction signed(long nonce) {
+        return SignUtils.sign(mock.transfer().toBuilder().setNonce(nonce).build(), config.getEcKey());
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!condition.getAsBoolean()) {
+            Assert.assertTrue("condition not met in time", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
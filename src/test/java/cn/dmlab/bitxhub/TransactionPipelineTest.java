@@ -0,0 +1,142 @@
+package cn.dmlab.bitxhub;
+
+import cn.dmlab.utils.ByteUtil;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import pb.Transaction;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(JUnit4.class)
+public class TransactionPipelineTest {
+    private MockChainBroker mock;
+    private GrpcClientImpl client;
+    private Config config;
+    private TransactionPipeline pipeline;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (pipeline != null) {
+            pipeline.close();
+        }
+        client.stop();
+        mock.close();
+    }
+
+    @Test
+    public void manyProducers() throws Exception {
+        start(new MockChainBroker());
+        pipeline = client.newTransactionPipeline(16, 8, 2);
+        List<CompletableFuture<String>> futures = new CopyOnWriteArrayList<>();
+        List<Thread> producers = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            producers.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 50; i++) {
+                        futures.add(pipeline.submit(mock.transfer()));
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+        producers.forEach(Thread::start);
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        Set<String> hashes = new HashSet<>();
+        for (CompletableFuture<String> future : futures) {
+            hashes.add(future.get(10, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(200, hashes.size());
+        // every nonce was accepted in order
+        Assert.assertEquals(200, mock.getMempoolSize());
+        Assert.assertEquals(201, client.getPendingNonceByAccount(ByteUtil.toHexStringWithOx(config.getAddress())));
+        Assert.assertEquals(200, client.getTxLifecycleStats().snapshot().get(TxTrace.Stage.ACK).getCount());
+    }
+
+    @Test
+    public void inFlightWindow() throws Exception {
+        start(new MockChainBroker().latency(100, 0));
+        // fetch the pending nonce before the timing starts
+        client.getPendingNonceByAccount(ByteUtil.toHexStringWithOx(config.getAddress()));
+        pipeline = client.newTransactionPipeline(16, 2, 1);
+        AtomicInteger maxInFlight = new AtomicInteger();
+        long begin = System.nanoTime();
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            futures.add(pipeline.submit(mock.transfer()));
+        }
+        while (!futures.get(5).isDone()) {
+            maxInFlight.accumulateAndGet(pipeline.getInFlight(), Math::max);
+            Thread.sleep(5);
+        }
+        for (CompletableFuture<String> future : futures) {
+            Assert.assertNotNull(future.get());
+        }
+        Assert.assertEquals(2, maxInFlight.get());
+        Assert.assertTrue(System.nanoTime() - begin >= TimeUnit.MILLISECONDS.toNanos(300));
+    }
+
+    @Test
+    public void closeDrainsQueue() throws Exception {
+        start(new MockChainBroker().latency(20, 0));
+        pipeline = client.newTransactionPipeline(64, 4, 1);
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(pipeline.submit(mock.transfer()));
+        }
+        pipeline.close();
+        for (CompletableFuture<String> future : futures) {
+            Assert.assertTrue(future.isDone());
+            Assert.assertNotNull(future.get());
+        }
+        try {
+            pipeline.submit(mock.transfer());
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("Transaction pipeline is closed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void failedSend() throws Exception {
+        start(new MockChainBroker());
+        // fetch the pending nonce before the failures start
+        client.getPendingNonceByAccount(ByteUtil.toHexStringWithOx(config.getAddress()));
+        mock.failureRate(1, Status.UNAVAILABLE);
+        pipeline = client.newTransactionPipeline();
+        CompletableFuture<String> future = pipeline.submit(mock.transfer());
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            Assert.fail();
+        } catch (ExecutionException e) {
+            Assert.assertEquals(Status.Code.UNAVAILABLE, ((StatusRuntimeException) e.getCause()).getStatus().getCode());
+        }
+        Assert.assertEquals(1, client.getTxLifecycleStats().getFailed());
+
+        // the nonce was released and is used again
+        mock.failureRate(0, Status.UNAVAILABLE);
+        Assert.assertNotNull(pipeline.submit(mock.transfer()).get(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, mock.getMempoolSize());
+    }
+
+    private void start(MockChainBroker broker) {
+        mock = broker.start();
+        config = mock.config();
+        client = mock.client();
+    }
+}
@@ -0,0 +1,87 @@
+package cn.dmlab.bitxhub;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import pb.ReceiptOuterClass;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(JUnit4.class)
+public class TxLifecycleStatsTest {
+    private MockChainBroker mock;
+    private GrpcClientImpl client;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        client.stop();
+        mock.close();
+    }
+
+    @Test
+    public void sendTransactionWithReceipt() {
+        start(new MockChainBroker().blockInterval(50));
+        List<TxTrace.Stage> stages = new CopyOnWriteArrayList<>();
+        client.addTxLifecycleListener((trace, stage) -> stages.add(stage));
+
+        // the block subscription is opened by the first wait, so wait twice
+        client.sendTransactionWithReceipt(mock.transfer(), null);
+        stages.clear();
+        ReceiptOuterClass.Receipt receipt = client.sendTransactionWithReceipt(mock.transfer(), null);
+        Assert.assertEquals(ReceiptOuterClass.Receipt.Status.SUCCESS, receipt.getStatus());
+
+        Assert.assertEquals(TxTrace.Stage.SIGN_START, stages.get(0));
+        Assert.assertEquals(TxTrace.Stage.RECEIPT, stages.get(stages.size() - 1));
+        Assert.assertTrue(stages.contains(TxTrace.Stage.BLOCK_OBSERVED));
+
+        Map<TxTrace.Stage, Histogram.Snapshot> snapshot = client.getTxLifecycleStats().snapshot();
+        Assert.assertEquals(2, snapshot.get(TxTrace.Stage.SIGN_END).getCount());
+        Assert.assertEquals(2, snapshot.get(TxTrace.Stage.ACK).getCount());
+        Assert.assertEquals(2, snapshot.get(TxTrace.Stage.RECEIPT).getCount());
+        Assert.assertEquals(2, client.getTxLifecycleStats().getTotal().getCount());
+        Assert.assertFalse(snapshot.containsKey(TxTrace.Stage.SIGN_START));
+    }
+
+    @Test
+    public void sendTransactionAsyncEndsAtAck() throws Exception {
+        start(new MockChainBroker());
+        List<TxTrace> traces = new CopyOnWriteArrayList<>();
+        client.addTxLifecycleListener((trace, stage) -> {
+            if (stage == TxTrace.Stage.ACK) {
+                traces.add(trace);
+            }
+        });
+        String txHash = client.sendTransactionAsync(mock.transfer(), null).get(5, TimeUnit.SECONDS);
+
+        Assert.assertEquals(1, traces.size());
+        Assert.assertEquals(txHash, traces.get(0).getTxHash());
+        Assert.assertFalse(traces.get(0).reached(TxTrace.Stage.RECEIPT));
+    }
+
+    @Test
+    public void failure() {
+        start(new MockChainBroker().failureRate(1, Status.UNAVAILABLE));
+        TransactOpts opts = new TransactOpts();
+        opts.setNormalNonce(1);
+        try {
+            client.sendTransaction(mock.transfer(), opts);
+            Assert.fail();
+        } catch (StatusRuntimeException e) {
+            Assert.assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+        }
+        Assert.assertEquals(1, client.getTxLifecycleStats().getFailed());
+        Assert.assertEquals(0, client.getTxLifecycleStats().snapshot().get(TxTrace.Stage.ACK).getCount());
+    }
+
+    private void start(MockChainBroker broker) {
+        mock = broker.start();
+        client = mock.client();
+    }
+}
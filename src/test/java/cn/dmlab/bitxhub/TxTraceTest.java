@@ -0,0 +1,62 @@
+package cn.dmlab.bitxhub;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(JUnit4.class)
+public class TxTraceTest {
+
+    @Test
+    public void stagesReachedOnce() {
+        List<TxTrace.Stage> stages = new ArrayList<>();
+        TxTrace trace = new TxTrace(Collections.singletonList((t, stage) -> stages.add(stage)));
+        trace.reach(TxTrace.Stage.SIGN_START);
+        trace.reach(TxTrace.Stage.SIGN_END);
+        long signEnd = trace.getNanos(TxTrace.Stage.SIGN_END);
+        trace.reach(TxTrace.Stage.SIGN_END);
+
+        Assert.assertEquals(signEnd, trace.getNanos(TxTrace.Stage.SIGN_END));
+        Assert.assertEquals(2, stages.size());
+        Assert.assertFalse(trace.reached(TxTrace.Stage.ACK));
+    }
+
+    @Test
+    public void stageTimeSkipsMissingStages() {
+        TxTrace trace = new TxTrace(Collections.emptyList());
+        trace.reach(TxTrace.Stage.SIGN_START);
+        trace.reach(TxTrace.Stage.ACK);
+        trace.reach(TxTrace.Stage.RECEIPT);
+
+        Assert.assertEquals(-1, trace.getStageNanos(TxTrace.Stage.SIGN_START));
+        Assert.assertEquals(-1, trace.getStageNanos(TxTrace.Stage.BLOCK_OBSERVED));
+        Assert.assertEquals(trace.getNanos(TxTrace.Stage.RECEIPT) - trace.getNanos(TxTrace.Stage.ACK),
+                trace.getStageNanos(TxTrace.Stage.RECEIPT));
+    }
+
+    @Test
+    public void failedOnce() {
+        List<Throwable> failures = new ArrayList<>();
+        TxTrace trace = new TxTrace(Collections.singletonList(new TxLifecycleListener() {
+            @Override
+            public void onStage(TxTrace trace, TxTrace.Stage stage) {
+            }
+
+            @Override
+            public void onFailed(TxTrace trace, Throwable cause) {
+                failures.add(cause);
+            }
+        }));
+        trace.fail(new IllegalStateException("first"));
+        trace.fail(new IllegalStateException("second"));
+
+        Assert.assertTrue(trace.isFailed());
+        Assert.assertEquals(1, failures.size());
+        Assert.assertEquals("first", failures.get(0).getMessage());
+    }
+}
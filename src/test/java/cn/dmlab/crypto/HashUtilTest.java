@@ -0,0 +1,89 @@
+package cn.dmlab.crypto;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.web3j.crypto.Hash;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+@RunWith(JUnit4.class)
+public class HashUtilTest {
+
+    @Test
+    public void sha3() {
+        Random random = new Random(1);
+        for (int size : new int[]{0, 1, 55, 64, 135, 136, 1000}) {
+            byte[] data = new byte[size + 10];
+            random.nextBytes(data);
+            byte[] slice = Arrays.copyOfRange(data, 3, 3 + size);
+            byte[] expected = HashUtil.sha3(slice);
+
+            byte[] out = new byte[HashUtil.HASH_LENGTH + 4];
+            HashUtil.sha3(data, 3, size, out, 4);
+            Assert.assertArrayEquals(expected, Arrays.copyOfRange(out, 4, out.length));
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(size);
+            direct.put(slice).flip();
+            HashUtil.sha3(direct, out, 0);
+            Assert.assertArrayEquals(expected, Arrays.copyOf(out, HashUtil.HASH_LENGTH));
+            Assert.assertFalse(direct.hasRemaining());
+        }
+    }
+
+    @Test
+    public void keccak256() {
+        Random random = new Random(2);
+        for (int size : new int[]{0, 1, 64, 135, 136, 137, 300, 1000}) {
+            byte[] data = new byte[size + 10];
+            random.nextBytes(data);
+            byte[] slice = Arrays.copyOfRange(data, 5, 5 + size);
+            byte[] expected = Hash.sha3(slice);
+            Assert.assertArrayEquals(expected, HashUtil.keccak256(slice));
+
+            byte[] out = new byte[HashUtil.HASH_LENGTH];
+            HashUtil.keccak256(data, 5, size, out, 0);
+            Assert.assertArrayEquals(expected, out);
+
+            ByteBuffer heap = ByteBuffer.wrap(data, 5, size).slice();
+            HashUtil.keccak256(heap, out, 0);
+            Assert.assertArrayEquals(expected, out);
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(size);
+            direct.put(slice).flip();
+            HashUtil.keccak256(direct, out, 0);
+            Assert.assertArrayEquals(expected, out);
+
+            Assert.assertArrayEquals(Arrays.copyOfRange(expected, 12, 32), HashUtil.sha3omit12(slice));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void outputTooShort() {
+        HashUtil.keccak256(new byte[8], 0, 8, new byte[HashUtil.HASH_LENGTH], 1);
+    }
+
+    @Test
+    public void sha3OutputTooShort() {
+        byte[] data = {1, 2, 3};
+        try {
+            HashUtil.sha3(data, 0, data.length, new byte[HashUtil.HASH_LENGTH], 1);
+            Assert.fail("output too short must fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            HashUtil.sha3(ByteBuffer.wrap(data), new byte[HashUtil.HASH_LENGTH - 1], 0);
+            Assert.fail("output too short must fail");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        // nothing of the failed calls is left in the digest of this thread
+        byte[] out = new byte[HashUtil.HASH_LENGTH];
+        HashUtil.sha3(data, 0, data.length, out, 0);
+        Assert.assertArrayEquals(HashUtil.sha3(data), out);
+    }
+}
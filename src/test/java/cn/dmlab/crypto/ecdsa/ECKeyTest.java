@@ -0,0 +1,74 @@
+package cn.dmlab.crypto.ecdsa;
+
+import cn.dmlab.crypto.HashUtil;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
+import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.crypto.signers.HMacDSAKCalculator;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+@RunWith(JUnit4.class)
+public class ECKeyTest {
+
+    @Test
+    public void signS256() {
+        for (int i = 0; i < 64; i++) {
+            ECKeyS256 key = new ECKeyS256();
+            byte[] hash = HashUtil.sha3(("message " + i).getBytes());
+            ECKeyS256.ECDSASignature sig = key.sign(hash);
+
+            ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA256Digest()));
+            signer.init(true, new ECPrivateKeyParameters(key.getPrivKey(), ECKeyS256.CURVE));
+            BigInteger[] components = signer.generateSignature(hash);
+            ECKeyS256.ECDSASignature expected = new ECKeyS256.ECDSASignature(components[0], components[1]).toCanonicalised();
+            Assert.assertEquals(expected, sig);
+
+            byte[] recovered = ECKeyS256.recoverPubBytesFromSignature(sig.v - 27, sig, hash);
+            Assert.assertArrayEquals(key.getPubKey(), recovered);
+            for (int recId = 0; recId < sig.v - 27; recId++) {
+                Assert.assertFalse(Arrays.equals(key.getPubKey(),
+                        ECKeyS256.recoverPubBytesFromSignature(recId, sig, hash)));
+            }
+            Assert.assertTrue(key.verify(hash, sig));
+            Assert.assertFalse(key.verify(hash, new ECKeyS256.ECDSASignature(sig.r, sig.s.add(BigInteger.ONE))));
+        }
+    }
+
+    @Test
+    public void publicKeyFromPrivateS256() {
+        for (int i = 0; i < 16; i++) {
+            BigInteger priv = new ECKeyS256().getPrivKey();
+            Assert.assertArrayEquals(ECKeyS256.CURVE.getG().multiply(priv).getEncoded(false),
+                    ECKeyS256.publicKeyFromPrivate(priv, false));
+            Assert.assertArrayEquals(ECKeyS256.CURVE.getG().multiply(priv).getEncoded(true),
+                    ECKeyS256.publicKeyFromPrivate(priv, true));
+            Assert.assertArrayEquals(ECKeyS256.CURVE.getG().multiply(priv).getEncoded(false),
+                    ECKeyS256.fromPrivate(priv).getPubKey());
+        }
+    }
+
+    @Test
+    public void signP256() {
+        for (int i = 0; i < 64; i++) {
+            ECKeyP256 key = new ECKeyP256();
+            byte[] hash = HashUtil.sha3(("message " + i).getBytes());
+            ECKeyP256.ECDSASignature sig = key.sign(hash);
+
+            ECDSASigner signer = new ECDSASigner(new HMacDSAKCalculator(new SHA512Digest()));
+            signer.init(true, new ECPrivateKeyParameters(key.getPrivKey(), ECKeyP256.CURVE));
+            BigInteger[] components = signer.generateSignature(hash);
+            ECKeyP256.ECDSASignature expected = new ECKeyP256.ECDSASignature(components[0], components[1]).toCanonicalised();
+            Assert.assertEquals(expected, sig);
+
+            byte[] recovered = ECKeyP256.recoverPubBytesFromSignature(sig.v - 27, sig, hash);
+            Assert.assertArrayEquals(key.getPubKey(), recovered);
+        }
+    }
+}
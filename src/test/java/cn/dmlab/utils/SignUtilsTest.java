@@ -0,0 +1,99 @@
+package cn.dmlab.utils;
+
+import cn.dmlab.crypto.HashUtil;
+import cn.dmlab.crypto.ecdsa.ECKeyP256;
+import cn.dmlab.crypto.ecdsa.ECKeyS256;
+import com.google.protobuf.ByteString;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import pb.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+@RunWith(JUnit4.class)
+public class SignUtilsTest {
+
+    @Test
+    public void signAllS256() {
+        ECKeyS256 key = new ECKeyS256();
+        List<Transaction.BxhTransaction> txs = unsignedTxs(key.getAddress(), 100);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<Transaction.BxhTransaction> signed = SignUtils.signAll(txs, key, pool);
+            Assert.assertEquals(txs.size(), signed.size());
+            for (int i = 0; i < txs.size(); i++) {
+                Assert.assertEquals(SignUtils.sign(txs.get(i), key), signed.get(i));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void signAllP256() {
+        ECKeyP256 key = new ECKeyP256();
+        List<Transaction.BxhTransaction> txs = unsignedTxs(key.getAddress(), 40);
+        List<Transaction.BxhTransaction> signed = SignUtils.signAll(txs, key);
+        for (int i = 0; i < txs.size(); i++) {
+            Assert.assertEquals(SignUtils.sign(txs.get(i), key), signed.get(i));
+        }
+    }
+
+    @Test
+    public void signAllEmpty() {
+        Assert.assertTrue(SignUtils.signAll(new ArrayList<>(), new ECKeyS256()).isEmpty());
+    }
+
+    @Test
+    public void txHash() {
+        ECKeyS256 key = new ECKeyS256();
+        Transaction.BxhTransaction unsigned = unsignedTxs(key.getAddress(), 1).get(0);
+        Transaction.BxhTransaction signed = SignUtils.sign(unsigned, key);
+        Assert.assertArrayEquals(HashUtil.sha3(SignUtils.needToHash(unsigned)), SignUtils.txHash(signed));
+    }
+
+    @Test
+    public void needToHash() {
+        List<Transaction.BxhTransaction> txs = unsignedTxs(new ECKeyS256().getAddress(), 8);
+        txs.add(Transaction.BxhTransaction.getDefaultInstance());
+        txs.add(txs.get(1).toBuilder()
+                .setAmount("1000")
+                .setTyp(1)
+                .setNonce(Long.MAX_VALUE)
+                .setTimestamp(-1L)
+                .setIBTP(pb.Ibtp.IBTP.newBuilder().setFrom("1356:chain0:mychannel&transfer").build())
+                .setExtra(ByteString.copyFromUtf8("extra"))
+                .build());
+        for (Transaction.BxhTransaction tx : txs) {
+            byte[] expected = Transaction.BxhTransaction.newBuilder()
+                    .setFrom(tx.getFrom())
+                    .setTo(tx.getTo())
+                    .setTimestamp(tx.getTimestamp())
+                    .setPayload(tx.getPayload())
+                    .setNonce(tx.getNonce())
+                    .setAmount(tx.getAmount())
+                    .setTyp(tx.getTyp())
+                    .build()
+                    .toByteArray();
+            Assert.assertArrayEquals(expected, SignUtils.needToHash(tx));
+        }
+    }
+
+    private static List<Transaction.BxhTransaction> unsignedTxs(byte[] from, int count) {
+        List<Transaction.BxhTransaction> txs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            txs.add(Transaction.BxhTransaction.newBuilder()
+                    .setFrom(ByteString.copyFrom(from))
+                    .setTo(ByteString.copyFrom(from))
+                    .setTimestamp(1600000000000000000L + i)
+                    .setNonce(i + 1)
+                    .setPayload(ByteString.copyFromUtf8("payload " + i))
+                    .build());
+        }
+        return txs;
+    }
+}